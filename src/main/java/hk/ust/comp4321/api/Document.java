@@ -1,6 +1,7 @@
 package hk.ust.comp4321.api;
 
 import hk.ust.comp4321.db.DatabaseConnection;
+import hk.ust.comp4321.db.IndexStore;
 import hk.ust.comp4321.db.TableOperation;
 import hk.ust.comp4321.nlp.*;
 import hk.ust.comp4321.se.SearchVector;
@@ -17,23 +18,22 @@ import java.net.URL;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.IntToLongFunction;
 
 /**
  * A class representing a single document, indexed by its URL.
  *
  * <p> Note that the document is lazy - it does not actually load the words, their
  * associated frequencies, or children links unless {@link #retrieveFromWeb()} or
- * {@link #retrieveFromDatabase(DatabaseConnection)} is called.
+ * {@link #retrieveFromDatabase(IndexStore)} is called.
  */
 public final class Document {
     private final URL url;
     private final Instant lastModified;
     private final int id;
     private final long size;
-    private final Map<WordInfo, String> bodyFrequencies = new HashMap<>();
-    private final Map<WordInfo, String> titleFrequencies = new HashMap<>();
+    private final FieldPostings bodyFrequencies;
+    private final FieldPostings titleFrequencies;
     private final List<URL> children = new ArrayList<>();
     private boolean isLoaded = false;
     private String title = "";
@@ -52,6 +52,8 @@ public final class Document {
         this.lastModified = lastModified;
         this.id = id;
         this.size = size;
+        this.bodyFrequencies = new FieldPostings(id);
+        this.titleFrequencies = new FieldPostings(id);
     }
 
     /**
@@ -70,40 +72,23 @@ public final class Document {
         this.id = id;
         this.size = size;
         this.title = title;
+        this.bodyFrequencies = new FieldPostings(id);
+        this.titleFrequencies = new FieldPostings(id);
     }
 
     /**
      * Retrieves the list of words in this document from the database.
      *
-     * <p>Note that this call is very computationally expensive - the database
-     * design makes retrieving a list of all words very slow. Effectively, the
-     * entire database needs to be traversed in order to build this list.
-     * Please use this method sparingly.
-     * @param conn The database connection to use
+     * <p>The words are read with {@link IndexStore#loadWords(Document)}; the SQLite
+     * database reads them from the stored term vector of the document in a single lookup.
+     * The children are read with one more lookup. To load many documents at once, use
+     * {@link IndexStore#loadDocuments(List)} instead.
+     * @param conn The index store to use
      * @throws SQLException If there is an SQL error
      */
-    public void retrieveFromDatabase(DatabaseConnection conn) throws SQLException {
-        // Load titleFrequencies
-        TableOperation titleTable = conn.titleOperator();
-        List<Integer> titleStemIds = titleTable.getStemIds(id);
-        for (int stemId: titleStemIds) {
-            List<WordInfo> titleInfoList = titleTable.getFrequency(stemId, id);
-            String stem = titleTable.getStemFromId(stemId);
-            for (WordInfo wordInfo: titleInfoList) {
-                this.titleFrequencies.put(wordInfo, stem);
-            }
-        }
-
-        // Load bodyFrequencies
-        TableOperation bodyTable = conn.bodyOperator();
-        List<Integer> bodyStemIds = bodyTable.getStemIds(id);
-        for (int stemId: bodyStemIds) {
-            List<WordInfo> bodyInfoList = bodyTable.getFrequency(stemId, id);
-            String stem = bodyTable.getStemFromId(stemId);
-            for (WordInfo wordInfo: bodyInfoList) {
-                this.bodyFrequencies.put(wordInfo, stem);
-            }
-        }
+    public void retrieveFromDatabase(IndexStore conn) throws SQLException {
+        // Load titleFrequencies and bodyFrequencies
+        conn.loadWords(this);
 
         // Load child documents
         this.children.addAll(conn.children(this.id).stream().toList());
@@ -148,11 +133,7 @@ public final class Document {
                 if (!StopWord.isStopWord(rawWord)) {
                     String stemmedWord = NltkPorter.stem(rawWord);
                     // Store empty string is the stemmed word is identical to the raw word
-                    if (stemmedWord.equals(rawWord)) {
-                        this.titleFrequencies.put(new WordInfo(this.id, 0, j, k, ""), stemmedWord);
-                    } else {
-                        this.titleFrequencies.put(new WordInfo(this.id, 0, j, k, rawWord), stemmedWord);
-                    }
+                    this.titleFrequencies.add(stemmedWord, 0, j, k, stemmedWord.equals(rawWord) ? "" : rawWord);
                 }
             }
         }
@@ -181,11 +162,7 @@ public final class Document {
                         String rawWord = rawBodyWords.get(k);
                         if (!StopWord.isStopWord(rawWord)) {
                             String stemmedWord = NltkPorter.stem(rawWord);
-                            if (stemmedWord.equals(rawWord)) {
-                                this.bodyFrequencies.put(new WordInfo(this.id, i, j, k, ""), stemmedWord);
-                            } else {
-                                this.bodyFrequencies.put(new WordInfo(this.id, i, j, k, rawWord), stemmedWord);
-                            }
+                            this.bodyFrequencies.add(stemmedWord, i, j, k, stemmedWord.equals(rawWord) ? "" : rawWord);
                         }
                     }
                 }
@@ -231,34 +208,21 @@ public final class Document {
     /**
      * Writes the updated list of words to the database.
      *
+     * <p>The document and all of its words are written in a single transaction.
+     *
      * <p><strong>Do not</strong> write the links to the database here.
-     * @param conn The database connection to use
+     * @param conn The index store to use
      */
-    public void writeWords(DatabaseConnection conn) {
-        // Insert the document into the database
-        conn.insertDocument(this);
-
-        // Get access to title table and body table
-        TableOperation titleTable = conn.titleOperator();
-        TableOperation bodyTable = conn.bodyOperator();
-
-        // For every pair of stem (String) and frequency (WordInfo), get a stem ID and insert the ID and the frequency into the database
-        for (WordInfo titleWordInfo: titleFrequencies.keySet()) {
-            int stemId = titleTable.insertStem(titleFrequencies.get(titleWordInfo));
-            titleTable.insertWordInfo(stemId, titleWordInfo);
-        }
-        for (WordInfo bodyWordInfo: bodyFrequencies.keySet()) {
-            int stemId = bodyTable.insertStem(bodyFrequencies.get(bodyWordInfo));
-            bodyTable.insertWordInfo(stemId, bodyWordInfo);
-        }
+    public void writeWords(IndexStore conn) {
+        conn.writeWords(this);
     }
 
     /**
      * Writes the child links scraped to the database as URLs.
      *
-     * @param conn The database connection to use
+     * @param conn The index store to use
      */
-    public void writeChildrenLinks(DatabaseConnection conn) {
+    public void writeChildrenLinks(IndexStore conn) {
         // For each child links, find its corresponding child document and extract its document ID and then insert link to the database
         this.children.forEach(u -> conn.insertLink(this.id, u));
     }
@@ -279,6 +243,15 @@ public final class Document {
         return lastModified;
     }
 
+    /**
+     * Marks the list of words and the children of this document as loaded.
+     *
+     * @implNote This should be called from the database and not by user code.
+     */
+    public void setLoaded() {
+        this.isLoaded = true;
+    }
+
     /**
      * Gets the document ID.
      * @return The ID of this document
@@ -290,7 +263,7 @@ public final class Document {
     /**
      * Checks if the list of words of this document are loaded.
      * Since the document is lazy, only calls to {@link #retrieveFromWeb()} or
-     * {@link #retrieveFromDatabase(DatabaseConnection)} will set this to true.
+     * {@link #retrieveFromDatabase(IndexStore)} will set this to true.
      * @return True if the list of words are loaded, false otherwise
      */
     public boolean isLoaded() {
@@ -300,10 +273,13 @@ public final class Document {
     /**
      * Gets the current list of words in the document body and their associated frequencies.
      * If {@link #isLoaded()} returns false, this returns an empty map instead.
+     *
+     * <p>The words are stored compactly (see {@link FieldPostings}), and can be read by position
+     * without creating a {@link WordInfo} for each word.
      * @return The list of words loaded, or an empty map if
      * the words have not been loaded into memory.
      */
-    public Map<WordInfo, String> bodyFrequencies() {
+    public FieldPostings bodyFrequencies() {
         return bodyFrequencies;
     }
 
@@ -313,7 +289,7 @@ public final class Document {
      * @return The list of words loaded, or an empty map if
      * the words have not been loaded into memory.
      */
-    public Map<WordInfo, String> titleFrequencies() {
+    public FieldPostings titleFrequencies() {
         return titleFrequencies;
     }
 
@@ -344,40 +320,87 @@ public final class Document {
 
     /**
      * Converts the titles of this document into a search query.
-     * @param documents The list of all documents
+     *
+     * <p>The document frequencies should be counted once for the whole corpus,
+     * and passed to every document of the corpus.
+     * @param docFreqs The document frequencies of all documents
+     * @return The search vector corresponding to the titles in this document
+     */
+    public SearchVector asTitleVector(DocumentFrequencies docFreqs) {
+        if (titleVector == null) {
+            titleVector = termWeights(titleFrequencies, docFreqs::titleDocFreq);
+        }
+        return titleVector;
+    }
+
+    /**
+     * Converts the titles of this document into a search query.
+     *
+     * <p>Unlike {@link #asTitleVector(DocumentFrequencies)}, the vector stored in the index store
+     * is used (see {@link TableOperation#getVector(int)}), instead of counting the document frequencies.
+     * @param conn The index store to use
      * @return The search vector corresponding to the titles in this document
      */
-    public SearchVector asTitleVector(List<Document> documents) {
+    public SearchVector asTitleVector(IndexStore conn) {
         if (titleVector == null) {
-            titleVector = termWeights(titleFrequencies, documents, d -> d.titleFrequencies);
+            titleVector = conn.titleOperator().getVector(id);
         }
         return titleVector;
     }
 
     /**
      * Converts the body of this document into a search query.
-     * @param documents The list of all documents
+     *
+     * <p>The document frequencies should be counted once for the whole corpus,
+     * and passed to every document of the corpus.
+     * @param docFreqs The document frequencies of all documents
+     * @return The search vector corresponding to the body in this document
+     */
+    public SearchVector asBodyVector(DocumentFrequencies docFreqs) {
+        if (bodyVector == null) {
+            bodyVector = termWeights(bodyFrequencies, docFreqs::bodyDocFreq);
+        }
+        return bodyVector;
+    }
+
+    /**
+     * Converts the body of this document into a search query.
+     *
+     * <p>Unlike {@link #asBodyVector(DocumentFrequencies)}, the vector stored in the index store
+     * is used (see {@link TableOperation#getVector(int)}), instead of counting the document frequencies.
+     * @param conn The index store to use
      * @return The search vector corresponding to the body in this document
      */
-    public SearchVector asBodyVector(List<Document> documents) {
+    public SearchVector asBodyVector(IndexStore conn) {
         if (bodyVector == null) {
-            bodyVector = termWeights(bodyFrequencies, documents, d -> d.bodyFrequencies);
+            bodyVector = conn.bodyOperator().getVector(id);
         }
         return bodyVector;
     }
 
-    private SearchVector termWeights(Map<WordInfo, String> info, List<Document> docs, Function<Document, Map<WordInfo, String>> converter) {
-        Map<String, Long> values = info.values().stream()
-                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
-        long maxTerm = values.values().stream().max(Long::compare).orElse(0L);
+    /**
+     * Sets the title and body vectors of this document, which were computed elsewhere
+     * (e.g. by {@link IndexStore#loadVectors(List)}).
+     * @param titleVector The search vector corresponding to the titles in this document
+     * @param bodyVector The search vector corresponding to the body in this document
+     */
+    public void setVectors(SearchVector titleVector, SearchVector bodyVector) {
+        this.titleVector = titleVector;
+        this.bodyVector = bodyVector;
+    }
+
+    private SearchVector termWeights(FieldPostings info, IntToLongFunction docFreq) {
+        int[] terms = info.terms();
+        int maxTerm = Arrays.stream(terms).map(info::frequency).max().orElse(0);
         if (maxTerm == 0) {
             return new SearchVector(List.of(), List.of());
         }
-        List<Map.Entry<String, Long>> l = values.entrySet().stream().toList();
-        return new SearchVector(l.stream().map(Map.Entry::getKey).toList(),
-                l.stream().map(e -> e.getValue() * (Math.log((double) DatabaseConnection.getDocSize() /
-                        docs.parallelStream().map(converter)
-                                .filter(m -> m.containsValue(e.getKey())).count()) / Math.log(2)) / maxTerm).toList());
+        double[] weights = new double[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            weights[i] = info.frequency(terms[i]) * (Math.log((double) DatabaseConnection.getDocSize() /
+                    docFreq.applyAsLong(terms[i])) / Math.log(2)) / maxTerm;
+        }
+        return new SearchVector(terms, weights);
     }
 
     @Override
@@ -0,0 +1,104 @@
+package hk.ust.comp4321.api;
+
+import hk.ust.comp4321.nlp.Vocabulary;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The number of documents containing each term, in the titles and in the bodies of a corpus.
+ *
+ * <p>The counts are built in a single pass over the documents, and kept up to date as documents are
+ * added or removed, so that the weights of every document can be computed without scanning the corpus
+ * once per term (see {@link Document#asBodyVector(DocumentFrequencies)}).
+ * The counts are kept in arrays indexed by term ID (see {@link Vocabulary}).
+ *
+ * <p>The terms of each document are remembered when it is added, so that removing it undoes exactly
+ * what adding it did, even if its words have changed since. This class is thread-safe.
+ */
+public final class DocumentFrequencies {
+    private final Map<Integer, int[][]> documents = new HashMap<>();
+    private int[] titleCounts = new int[0];
+    private int[] bodyCounts = new int[0];
+
+    /**
+     * Creates an empty set of document frequencies.
+     */
+    public DocumentFrequencies() {}
+
+    /**
+     * Creates the document frequencies of some documents, in a single pass.
+     * @param documents The documents, whose words have been loaded
+     */
+    public DocumentFrequencies(Collection<Document> documents) {
+        documents.forEach(this::add);
+    }
+
+    /**
+     * Adds a document to the counts. If a document with the same ID has been added,
+     * it is removed first.
+     * @param doc The document to add, whose words have been loaded
+     */
+    public synchronized void add(Document doc) {
+        remove(doc.id());
+        int[] title = doc.titleFrequencies().terms();
+        int[] body = doc.bodyFrequencies().terms();
+        titleCounts = count(titleCounts, title, 1);
+        bodyCounts = count(bodyCounts, body, 1);
+        documents.put(doc.id(), new int[][]{title, body});
+    }
+
+    /**
+     * Removes a document from the counts.
+     * @param docId The ID of the document to remove
+     * @return True if the document had been added; false otherwise
+     */
+    public synchronized boolean remove(int docId) {
+        int[][] terms = documents.remove(docId);
+        if (terms == null) {
+            return false;
+        }
+        count(titleCounts, terms[0], -1);
+        count(bodyCounts, terms[1], -1);
+        return true;
+    }
+
+    private static int[] count(int[] counts, int[] terms, int delta) {
+        int max = terms.length == 0 ? -1 : terms[terms.length - 1];
+        if (max >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(max + 1, counts.length * 2));
+        }
+        for (int term : terms) {
+            counts[term] += delta;
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the number of documents with a term in their titles.
+     * @param termId The term ID (see {@link Vocabulary})
+     * @return The number of documents added whose titles contain the term
+     */
+    public synchronized long titleDocFreq(int termId) {
+        return termId >= 0 && termId < titleCounts.length ? titleCounts[termId] : 0;
+    }
+
+    /**
+     * Gets the number of documents with a term in their bodies.
+     * @param termId The term ID (see {@link Vocabulary})
+     * @return The number of documents added whose bodies contain the term
+     */
+    public synchronized long bodyDocFreq(int termId) {
+        return termId >= 0 && termId < bodyCounts.length ? bodyCounts[termId] : 0;
+    }
+
+    /**
+     * Gets the number of documents added.
+     * @return The number of documents counted
+     */
+    public synchronized int size() {
+        return documents.size();
+    }
+}
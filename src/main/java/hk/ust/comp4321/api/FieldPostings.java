@@ -0,0 +1,439 @@
+package hk.ust.comp4321.api;
+
+import hk.ust.comp4321.nlp.Vocabulary;
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The words of one field (title or body) of a document, and their positions.
+ *
+ * <p>Instead of a hash entry with a {@link WordInfo} per word, every word is stored as the term ID
+ * of its stem (see {@link Vocabulary}), a raw word ID and its packed position (see {@link Positions})
+ * in parallel primitive arrays.
+ * The raw words of the field are stored once each.
+ *
+ * <p>The words are also a {@link Map} from word frequency records to stems, which are created when read
+ * and are not stored. As with a map, a word with the same position and raw word as an existing word
+ * replaces it. Unlike a map, {@link #put(WordInfo, String)} always returns null, and words cannot be removed
+ * one at a time.
+ *
+ * <p>Words are added in any order, and are sorted by position when first read. Reading is thread-safe,
+ * but adding words is not, and must not be done while the words are read.
+ */
+public final class FieldPostings extends AbstractMap<WordInfo, String> {
+    private static final int INITIAL_CAPACITY = 16;
+    private final int docId;
+    private final List<String> rawWords = new ArrayList<>(List.of(""));
+    private final Map<String, Integer> rawWordIds = new HashMap<>(Map.of("", 0));
+    private int[] termOf = new int[0];
+    private long[] positions = new long[0];
+    private int[] rawWordOf = new int[0];
+    private int size = 0;
+    private int[] terms = new int[0];
+    private int[] frequencies = new int[0];
+    private int[] termStarts = new int[0];
+    private int[] occurrences = new int[0];
+    private volatile boolean sorted = true;
+
+    /**
+     * Creates an empty set of words for a document.
+     * @param docId The ID of the document, which every word frequency record of the field has
+     */
+    public FieldPostings(int docId) {
+        this.docId = docId;
+    }
+
+    /**
+     * Adds a word to the field.
+     * @param stem The stem of the word
+     * @param paragraph The paragraph number of the word
+     * @param sentence The sentence number of the word
+     * @param location The location of the word in the sentence
+     * @param rawWord The raw word, before stemming; an empty string if it is equal to the stem
+     * @throws IllegalArgumentException If the position cannot be packed (see {@link Positions#pack(int, int, int)})
+     */
+    public void add(String stem, int paragraph, int sentence, int location, String rawWord) {
+        if (size == termOf.length) {
+            // The arrays are only allocated once a word is added, as most documents are never loaded
+            int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+            termOf = Arrays.copyOf(termOf, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            rawWordOf = Arrays.copyOf(rawWordOf, capacity);
+        }
+        positions[size] = Positions.pack(paragraph, sentence, location);
+        termOf[size] = Vocabulary.id(stem);
+        rawWordOf[size] = intern(rawWord, rawWords, rawWordIds);
+        size++;
+        sorted = false;
+    }
+
+    private static int intern(String s, List<String> values, Map<String, Integer> ids) {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = values.size();
+            values.add(s);
+            ids.put(s, id);
+        }
+        return id;
+    }
+
+    /**
+     * Adds a word to the field.
+     * @param info The word frequency record of the word
+     * @param stem The stem of the word
+     * @return Always null
+     * @throws IllegalArgumentException If the word frequency record belongs to another document,
+     * or its position cannot be packed
+     */
+    @Override
+    public String put(WordInfo info, String stem) {
+        if (info.docId() != docId) {
+            throw new IllegalArgumentException("Word of document %d added to document %d".formatted(info.docId(), docId));
+        }
+        add(stem, info.paragraph(), info.sentence(), info.wordLocation(), info.rawWord());
+        return null;
+    }
+
+    /**
+     * Sorts the words by position, and drops the words replaced by a later word with the same position and raw word.
+     */
+    private synchronized void sort() {
+        if (sorted) {
+            return;
+        }
+        // The sort is stable, so the last of the words with the same position and raw word is the latest
+        int[] order = Positions.order(size, this::compare);
+        int[] newTermOf = new int[size];
+        long[] newPositions = new long[size];
+        int[] newRawWordOf = new int[size];
+        int newSize = 0;
+        for (int k = 0; k < size; k++) {
+            int i = order[k];
+            if (k + 1 < size && compare(i, order[k + 1]) == 0) {
+                continue;
+            }
+            newTermOf[newSize] = termOf[i];
+            newPositions[newSize] = positions[i];
+            newRawWordOf[newSize] = rawWordOf[i];
+            newSize++;
+        }
+        termOf = Arrays.copyOf(newTermOf, newSize);
+        positions = Arrays.copyOf(newPositions, newSize);
+        rawWordOf = Arrays.copyOf(newRawWordOf, newSize);
+        size = newSize;
+        countTerms();
+        sorted = true;
+    }
+
+    /**
+     * Counts the words of each term, with the terms sorted by term ID, and lists the indices
+     * of the words of each term in the same order.
+     */
+    private void countTerms() {
+        int[] byTerm = Positions.order(size, (i, j) -> Integer.compare(termOf[i], termOf[j]));
+        int[] newTerms = new int[size];
+        int[] newFrequencies = new int[size];
+        int count = 0;
+        for (int k = 0; k < size; k++) {
+            int term = termOf[byTerm[k]];
+            if (count == 0 || newTerms[count - 1] != term) {
+                newTerms[count++] = term;
+            }
+            newFrequencies[count - 1]++;
+        }
+        terms = Arrays.copyOf(newTerms, count);
+        frequencies = Arrays.copyOf(newFrequencies, count);
+        termStarts = new int[count];
+        for (int t = 1; t < count; t++) {
+            termStarts[t] = termStarts[t - 1] + frequencies[t - 1];
+        }
+        // The words of each term are in ascending order of index, since the sort is stable
+        occurrences = byTerm;
+    }
+
+    /**
+     * Compares two words by position, and then by raw word ID.
+     */
+    private int compare(int i, int j) {
+        int cmp = Long.compare(positions[i], positions[j]);
+        return cmp != 0 ? cmp : Integer.compare(rawWordOf[i], rawWordOf[j]);
+    }
+
+    private void ensureSorted() {
+        if (!sorted) {
+            sort();
+        }
+    }
+
+    /**
+     * Gets the number of words in the field.
+     * @return The number of words
+     */
+    @Override
+    public int size() {
+        ensureSorted();
+        return size;
+    }
+
+    /**
+     * Estimates the number of bytes of heap used by the words of the field.
+     * The stems are shared by all fields (see {@link Vocabulary}), and are not counted.
+     * @return The approximate size of the field in bytes
+     */
+    public long estimatedBytes() {
+        ensureSorted();
+        long bytes = 64 + 4L * termOf.length + 8L * positions.length + 4L * rawWordOf.length
+                + 4L * (terms.length + frequencies.length + termStarts.length + occurrences.length);
+        for (String rawWord : rawWords) {
+            // The string, its characters, and its entries in the list and the map
+            bytes += 40 + rawWord.length() + 48;
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the term IDs of the stems in the field.
+     * @return The term IDs, sorted in ascending order
+     */
+    public int[] terms() {
+        ensureSorted();
+        return terms.clone();
+    }
+
+    /**
+     * Gets the term ID of a stem, if the field has the stem.
+     * @param stem The stem to look up
+     * @return The term ID of the stem; -1 if the stem is not in the field
+     */
+    public int termId(String stem) {
+        int id = Vocabulary.find(stem);
+        return id != -1 && frequency(id) != 0 ? id : -1;
+    }
+
+    /**
+     * Gets the number of words with a term in the field.
+     * @param termId The term ID of the stem
+     * @return The term frequency of the stem; 0 if the stem is not in the field
+     */
+    public int frequency(int termId) {
+        ensureSorted();
+        int index = Arrays.binarySearch(terms, termId);
+        return index < 0 ? 0 : frequencies[index];
+    }
+
+    /**
+     * Gets the indices of the words with a term, with the words sorted by position.
+     * @param termId The term ID of the stem
+     * @return The indices of the words, in ascending order; empty if the stem is not in the field
+     */
+    public int[] indicesOf(int termId) {
+        ensureSorted();
+        int index = Arrays.binarySearch(terms, termId);
+        if (index < 0) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(occurrences, termStarts[index], termStarts[index] + frequencies[index]);
+    }
+
+    /**
+     * Checks if the terms appear as consecutive words in the same paragraph of the field.
+     *
+     * <p>Only the indices of the words of the phrase are read, and they are merged with
+     * {@link Positions#consecutive(int[]...)}, instead of scanning every word of the field.
+     * @param phrase The term IDs of the phrase, in order
+     * @return True if the phrase appears in the field; false otherwise
+     */
+    public boolean hasPhrase(int[] phrase) {
+        if (phrase.length == 0) {
+            return true;
+        }
+        int[][] lists = new int[phrase.length][];
+        for (int k = 0; k < phrase.length; k++) {
+            lists[k] = indicesOf(phrase[k]);
+            if (lists[k].length == 0) {
+                return false;
+            }
+        }
+        for (int start : Positions.consecutive(lists)) {
+            // The words are sorted by position, so the phrase is in one paragraph if its ends are
+            if (Positions.paragraph(positions[start]) == Positions.paragraph(positions[start + phrase.length - 1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the term ID of the stem of the word at an index, with the words sorted by position.
+     * @param index The index of the word, from 0 to {@link #size()} (exclusive)
+     * @return The term ID of the word
+     */
+    public int termAt(int index) {
+        ensureSorted();
+        return termOf[Objects.checkIndex(index, size)];
+    }
+
+    /**
+     * Gets the packed position of the word at an index, with the words sorted by position.
+     * @param index The index of the word, from 0 to {@link #size()} (exclusive)
+     * @return The packed position of the word (see {@link Positions})
+     */
+    public long positionAt(int index) {
+        ensureSorted();
+        return positions[Objects.checkIndex(index, size)];
+    }
+
+    /**
+     * Gets the paragraph number of the word at an index, with the words sorted by position.
+     * @param index The index of the word, from 0 to {@link #size()} (exclusive)
+     * @return The paragraph number of the word
+     */
+    public int paragraphAt(int index) {
+        return Positions.paragraph(positionAt(index));
+    }
+
+    /**
+     * Gets the sentence number of the word at an index, with the words sorted by position.
+     * @param index The index of the word, from 0 to {@link #size()} (exclusive)
+     * @return The sentence number of the word
+     */
+    public int sentenceAt(int index) {
+        return Positions.sentence(positionAt(index));
+    }
+
+    /**
+     * Gets the location in the sentence of the word at an index, with the words sorted by position.
+     * @param index The index of the word, from 0 to {@link #size()} (exclusive)
+     * @return The location of the word
+     */
+    public int locationAt(int index) {
+        return Positions.location(positionAt(index));
+    }
+
+    /**
+     * Gets the raw word of the word at an index, with the words sorted by position.
+     * @param index The index of the word, from 0 to {@link #size()} (exclusive)
+     * @return The raw word; an empty string if it is equal to the stem
+     */
+    public String rawWordAt(int index) {
+        ensureSorted();
+        return rawWords.get(rawWordOf[Objects.checkIndex(index, size)]);
+    }
+
+    /**
+     * Gets the words of the field as they appear in the document, sorted by position.
+     * @return The raw word of each word, or the stem if the raw word is equal to the stem
+     */
+    public Stream<String> words() {
+        ensureSorted();
+        return IntStream.range(0, size).mapToObj(i -> rawWordOf[i] == 0 ? Vocabulary.stem(termOf[i]) : rawWords.get(rawWordOf[i]));
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return value instanceof String stem && termId(stem) != -1;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = indexOf(key);
+        return index == -1 ? null : Vocabulary.stem(termOf[index]);
+    }
+
+    /**
+     * Finds the index of a word frequency record, by binary search on the position.
+     * @return The index of the word; -1 if the word is not in the field
+     */
+    private int indexOf(Object key) {
+        if (!(key instanceof WordInfo info) || info.docId() != docId) {
+            return -1;
+        }
+        ensureSorted();
+        Integer rawWord = rawWordIds.get(info.rawWord());
+        if (rawWord == null) {
+            return -1;
+        }
+        if (!Positions.fits(info.paragraph(), info.sentence(), info.wordLocation())) {
+            return -1;
+        }
+        long position = Positions.pack(info.paragraph(), info.sentence(), info.wordLocation());
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Long.compare(positions[mid], position);
+            if (cmp == 0) {
+                cmp = Integer.compare(rawWordOf[mid], rawWord);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes all the words from the field.
+     */
+    @Override
+    public synchronized void clear() {
+        rawWords.subList(1, rawWords.size()).clear();
+        rawWordIds.keySet().retainAll(Set.of(""));
+        size = 0;
+        terms = new int[0];
+        frequencies = new int[0];
+        termStarts = new int[0];
+        occurrences = new int[0];
+        sorted = true;
+    }
+
+    /**
+     * Gets the words of the field as entries, sorted by position.
+     * The word frequency records are created as the entries are iterated over.
+     * @return The set of words and their stems
+     */
+    @Override
+    public Set<Entry<WordInfo, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<WordInfo, String>> iterator() {
+                ensureSorted();
+                return new Iterator<>() {
+                    private int index = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < size;
+                    }
+
+                    @Override
+                    public Entry<WordInfo, String> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        long position = positions[index];
+                        WordInfo info = new WordInfo(docId, Positions.paragraph(position), Positions.sentence(position),
+                                Positions.location(position), rawWords.get(rawWordOf[index]));
+                        return new SimpleImmutableEntry<>(info, Vocabulary.stem(termOf[index++]));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return FieldPostings.this.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,168 @@
+package hk.ust.comp4321.api;
+
+import java.util.Arrays;
+
+/**
+ * Utilities for word positions packed into a single {@code long}, and for sorting and merging them
+ * without boxing.
+ *
+ * <p>A position packs the paragraph into the 23 bits above the sentence, the sentence into the 20 bits
+ * above the location, and the location into the lowest 20 bits. The sign bit is always clear, so packed
+ * positions sort in the same order as (paragraph, sentence, location) when compared as plain {@code long}s.
+ * The document ID is not part of the position, and is kept separately.
+ */
+public final class Positions {
+    private static final int LOCATION_BITS = 20;
+    private static final int SENTENCE_BITS = 20;
+    private static final int PARAGRAPH_BITS = 23;
+    private static final int MAX_LOCATION = (1 << LOCATION_BITS) - 1;
+    private static final int MAX_SENTENCE = (1 << SENTENCE_BITS) - 1;
+    private static final int MAX_PARAGRAPH = (1 << PARAGRAPH_BITS) - 1;
+
+    private Positions() {
+        throw new AssertionError("Positions cannot be instantiated!");
+    }
+
+    /**
+     * Compares the elements at two indices, as sorted by {@link #order(int, IndexComparator)}.
+     */
+    @FunctionalInterface
+    public interface IndexComparator {
+        /**
+         * Compares the elements at two indices.
+         * @param i The index of the first element
+         * @param j The index of the second element
+         * @return A negative integer, zero, or a positive integer as the first element
+         * is less than, equal to, or greater than the second
+         */
+        int compare(int i, int j);
+    }
+
+    /**
+     * Checks if a position can be packed.
+     * @param paragraph The paragraph number, from 0 to 2<sup>23</sup> - 1
+     * @param sentence The sentence number, from 0 to 2<sup>20</sup> - 1
+     * @param location The location in the sentence, from 0 to 2<sup>20</sup> - 1
+     * @return True if every part of the position is in range; false otherwise
+     */
+    public static boolean fits(int paragraph, int sentence, int location) {
+        return paragraph >= 0 && paragraph <= MAX_PARAGRAPH && sentence >= 0 && sentence <= MAX_SENTENCE
+                && location >= 0 && location <= MAX_LOCATION;
+    }
+
+    /**
+     * Packs a position into a {@code long}.
+     * @param paragraph The paragraph number, from 0 to 2<sup>23</sup> - 1
+     * @param sentence The sentence number, from 0 to 2<sup>20</sup> - 1
+     * @param location The location in the sentence, from 0 to 2<sup>20</sup> - 1
+     * @return The packed position
+     * @throws IllegalArgumentException If any part of the position is out of range
+     */
+    public static long pack(int paragraph, int sentence, int location) {
+        if (!fits(paragraph, sentence, location)) {
+            throw new IllegalArgumentException("Position out of range: paragraph %d, sentence %d, location %d"
+                    .formatted(paragraph, sentence, location));
+        }
+        return ((long) paragraph << (SENTENCE_BITS + LOCATION_BITS)) | ((long) sentence << LOCATION_BITS) | location;
+    }
+
+    /**
+     * Gets the paragraph number of a packed position.
+     * @param position The packed position
+     * @return The paragraph number
+     */
+    public static int paragraph(long position) {
+        return (int) (position >>> (SENTENCE_BITS + LOCATION_BITS));
+    }
+
+    /**
+     * Gets the sentence number of a packed position.
+     * @param position The packed position
+     * @return The sentence number
+     */
+    public static int sentence(long position) {
+        return (int) (position >>> LOCATION_BITS) & MAX_SENTENCE;
+    }
+
+    /**
+     * Gets the location in the sentence of a packed position.
+     * @param position The packed position
+     * @return The location
+     */
+    public static int location(long position) {
+        return (int) position & MAX_LOCATION;
+    }
+
+    /**
+     * Sorts the indices from 0 to {@code size} (exclusive) of some parallel arrays.
+     *
+     * <p>The sort is a stable merge sort on an {@code int} array, so no index or key is boxed, and
+     * indices which compare equal stay in ascending order.
+     * @param size The number of elements to sort
+     * @param comparator The comparator of the elements at two indices
+     * @return The indices, in the order of their elements
+     */
+    public static int[] order(int size, IndexComparator comparator) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size - width; low += 2 * width) {
+                int mid = low + width;
+                int high = Math.min(low + 2 * width, size);
+                if (comparator.compare(order[mid - 1], order[mid]) <= 0) {
+                    // Already in order
+                    continue;
+                }
+                System.arraycopy(order, low, buffer, low, high - low);
+                int i = low;
+                int j = mid;
+                for (int k = low; k < high; k++) {
+                    if (j >= high || (i < mid && comparator.compare(buffer[i], buffer[j]) <= 0)) {
+                        order[k] = buffer[i++];
+                    } else {
+                        order[k] = buffer[j++];
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Finds the starts of runs of consecutive indices, one from each of the lists.
+     *
+     * <p>For example, if the lists are the indices of each word of a phrase in a sequence of words,
+     * the result is the indices at which the phrase starts. The lists are merged in a single pass.
+     * @param lists The lists of indices, each sorted in ascending order
+     * @return Every index {@code s} in the first list such that {@code s + k} is in the {@code k}-th list
+     * for every {@code k}, in ascending order
+     */
+    public static int[] consecutive(int[]... lists) {
+        if (lists.length == 0) {
+            return new int[0];
+        }
+        int[] pointers = new int[lists.length];
+        int[] starts = new int[lists[0].length];
+        int count = 0;
+        candidates:
+        for (int start : lists[0]) {
+            for (int k = 1; k < lists.length; k++) {
+                int[] list = lists[k];
+                while (pointers[k] < list.length && list[pointers[k]] < start + k) {
+                    pointers[k]++;
+                }
+                if (pointers[k] == list.length) {
+                    break candidates;
+                }
+                if (list[pointers[k]] != start + k) {
+                    continue candidates;
+                }
+            }
+            starts[count++] = start;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+}
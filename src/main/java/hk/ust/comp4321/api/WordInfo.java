@@ -2,8 +2,6 @@ package hk.ust.comp4321.api;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Comparator;
-
 /**
  * Record representing the frequency and location of a word in a given document.
  * @param docId The document ID this word frequency record belongs to
@@ -13,10 +11,27 @@ import java.util.Comparator;
  * @param rawWord The raw word, before stemming. If the raw word is equal to the stemmed word, store an empty string.
  */
 public record WordInfo(int docId, int paragraph, int sentence, int wordLocation, String rawWord) implements Comparable<WordInfo> {
-    private static final Comparator<WordInfo> COMPARATOR = Comparator.<WordInfo, Integer>comparing(w -> w.docId)
-            .thenComparing(w -> w.paragraph).thenComparing(w -> w.sentence);
+    /**
+     * Gets the position of this word packed into a {@code long} (see {@link Positions}).
+     * @return The packed paragraph, sentence and location of this word
+     * @throws IllegalArgumentException If the position cannot be packed
+     */
+    public long position() {
+        return Positions.pack(paragraph, sentence, wordLocation);
+    }
+
+    /**
+     * Compares two word frequency records by document ID, paragraph and sentence, without boxing.
+     * @param wordInfo The word frequency record to compare to
+     * @return A negative integer, zero, or a positive integer as this record is before, at the same sentence as,
+     * or after the other record
+     */
     @Override
     public int compareTo(@NotNull WordInfo wordInfo) {
-        return COMPARATOR.compare(this, wordInfo);
+        int cmp = Integer.compare(docId, wordInfo.docId);
+        if (cmp == 0) {
+            cmp = Integer.compare(paragraph, wordInfo.paragraph);
+        }
+        return cmp != 0 ? cmp : Integer.compare(sentence, wordInfo.sentence);
     }
 }
@@ -1,7 +1,14 @@
 package hk.ust.comp4321.db;
 
 import hk.ust.comp4321.api.Document;
+import org.jooq.BatchBindStep;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Name;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Result;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
 
@@ -13,15 +20,23 @@ import java.nio.file.Path;
 import java.sql.*;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.jooq.impl.SQLDataType.*;
 
 /**
- * Represents the connection to the underlying database.
+ * Represents the connection to the underlying database, which
+ * stores the index in SQLite.
  *
- * <p>Currently, the database is organized into four different types of tables -
- * the Document table, the Document Link table, the Word Index table and Word (title) tables.
+ * <p>Currently, the database is organized into five different types of tables -
+ * the Document table, the Document Link table, the Word Index table, the Forward Index table
+ * and the (title and body) Postings tables.
  *
  * <p>Please see
  * <a href="https://github.com/151044/COMP4321-G42/tree/main/docs/schema.md">
@@ -37,10 +52,73 @@ import static org.jooq.impl.SQLDataType.*;
  * is a very dense read. You might have better luck finding the equivalent SQL then
  * Googling the correct syntax.
  */
-public class DatabaseConnection implements AutoCloseable {
+public class DatabaseConnection implements IndexStore {
     private final Connection conn;
+    private static final Pattern WORD_TABLE_PATTERN = Pattern.compile("(body|title)_(\\d+)");
+    private static final String DOC_FROM_ID = StatementCache.render(DSL.select()
+            .from(DSL.table("Document"))
+            .where(DSL.field(DSL.name("docId")).eq(DSL.param("docId"))));
+    private static final String HAS_DOC_ID = StatementCache.render(DSL.selectOne()
+            .from(DSL.table("Document"))
+            .where(DSL.field(DSL.name("docId")).eq(DSL.param("docId"))));
+    private static final String DOC_FROM_URL = StatementCache.render(DSL.select()
+            .from(DSL.table("Document"))
+            .where(DSL.field(DSL.name("url")).eq(DSL.param("url"))));
+    private static final String HAS_DOC_URL = StatementCache.render(DSL.selectOne()
+            .from(DSL.table("Document"))
+            .where(DSL.field(DSL.name("url")).eq(DSL.param("url"))));
+    private static final String CHILDREN = StatementCache.render(DSL.select(DSL.field(DSL.name("childUrl")))
+            .from(DSL.table(DSL.name("DocumentLink")))
+            .where(DSL.field(DSL.name("docId")).eq(DSL.param("docId"))));
+    private static final String CHILD_DOCUMENTS = StatementCache.render(DSL.select(documentFields("d"))
+            .from(DSL.table(DSL.name("DocumentLink")).as("l"))
+            .join(DSL.table(DSL.name("Document")).as("d"))
+            .on(DSL.field(DSL.name("d", "url")).eq(DSL.field(DSL.name("l", "childUrl"))))
+            .where(DSL.field(DSL.name("l", "docId")).eq(DSL.param("docId"))));
+    private static final String PARENTS_FROM_ID = StatementCache.render(DSL.select(documentFields("p"))
+            .from(DSL.table(DSL.name("Document")).as("c"))
+            .join(DSL.table(DSL.name("DocumentLink")).as("l"))
+            .on(DSL.field(DSL.name("l", "childUrl")).eq(DSL.field(DSL.name("c", "url"))))
+            .join(DSL.table(DSL.name("Document")).as("p"))
+            .on(DSL.field(DSL.name("p", "docId")).eq(DSL.field(DSL.name("l", "docId"))))
+            .where(DSL.field(DSL.name("c", "docId")).eq(DSL.param("docId"))));
+    private static final String PARENTS_FROM_URL = StatementCache.render(DSL.select(documentFields("p"))
+            .from(DSL.table(DSL.name("DocumentLink")).as("l"))
+            .join(DSL.table(DSL.name("Document")).as("p"))
+            .on(DSL.field(DSL.name("p", "docId")).eq(DSL.field(DSL.name("l", "docId"))))
+            .where(DSL.field(DSL.name("l", "childUrl")).eq(DSL.param("url"))));
+    private static final String DOCUMENT_TERMS = StatementCache.render(DSL.select(DSL.field(DSL.name("titleTerms")),
+                    DSL.field(DSL.name("bodyTerms")))
+            .from(DSL.table(DSL.name("DocumentTerms")))
+            .where(DSL.field(DSL.name("docId")).eq(DSL.param("docId"))));
+    private static final int BULK_CACHE_SIZE_KIB = 256 * 1024;
+    private static final long BULK_MMAP_SIZE = 1L << 30;
     private static AtomicInteger nextDocId = null;
     private final DSLContext create;
+    private final StatementCache statements;
+    private final SqliteTableOperation bodyOperator;
+    private final SqliteTableOperation titleOperator;
+    private boolean bulkIngest;
+
+    /**
+     * The modes a database can be opened in.
+     */
+    public enum Mode {
+        /**
+         * Every committed write is durable, and foreign keys are checked on every write.
+         */
+        NORMAL,
+        /**
+         * For large sequential loads, such as a full crawl into a new database, which is
+         * discarded anyway if the load does not finish.
+         *
+         * <p>Commits are not synced to disk, foreign keys are not checked, the page cache
+         * and memory-mapped I/O are enlarged, and secondary indexes which are only used by
+         * the read path are not created. All of these are restored by
+         * {@link #finishBulkIngest()}, which also verifies the database.
+         */
+        BULK_INGEST
+    }
 
     /**
      * Creates (if it does not exist) and connects to the database at the specified path.
@@ -49,11 +127,31 @@ public class DatabaseConnection implements AutoCloseable {
      * @throws SQLException If connecting or creating the database fails
      */
     public DatabaseConnection(Path path) throws SQLException {
+        this(path, Mode.NORMAL);
+    }
+
+    /**
+     * Creates (if it does not exist) and connects to the database at the specified path.
+     *
+     * @param path The path of the database to connect to
+     * @param mode The mode to open the database in
+     * @throws SQLException If connecting or creating the database fails
+     */
+    public DatabaseConnection(Path path, Mode mode) throws SQLException {
         conn = DriverManager.getConnection("jdbc:sqlite:" + path.toAbsolutePath());
         create = DSL.using(conn, SQLDialect.SQLITE);
-        create.execute("PRAGMA foreign_keys = TRUE");
+        bulkIngest = mode == Mode.BULK_INGEST;
         create.execute("PRAGMA journal_mode = WAL;");
-        create.execute("PRAGMA synchronous = NORMAL");
+        if (bulkIngest) {
+            create.execute("PRAGMA foreign_keys = FALSE");
+            create.execute("PRAGMA synchronous = OFF");
+            create.execute("PRAGMA cache_size = " + -BULK_CACHE_SIZE_KIB);
+            create.execute("PRAGMA mmap_size = " + BULK_MMAP_SIZE);
+            create.execute("PRAGMA temp_store = MEMORY");
+        } else {
+            create.execute("PRAGMA foreign_keys = TRUE");
+            create.execute("PRAGMA synchronous = NORMAL");
+        }
         create.createTableIfNotExists("Document")
                 .column("url", VARCHAR)
                 .column("docId", INTEGER)
@@ -91,9 +189,277 @@ public class DatabaseConnection implements AutoCloseable {
                 )
                 .execute();
 
+        create.createTableIfNotExists("TermStatistics")
+                .column("typePrefix", VARCHAR)
+                .column("wordId", INTEGER)
+                .column("docFreq", INTEGER)
+                .column("totalFreq", BIGINT)
+                .constraints(
+                        DSL.primaryKey("typePrefix", "wordId")
+                )
+                .execute();
+
+        create.createTableIfNotExists("FieldStatistics")
+                .column("typePrefix", VARCHAR)
+                .column("docCount", INTEGER)
+                .column("totalLength", BIGINT)
+                .constraints(
+                        DSL.primaryKey("typePrefix")
+                )
+                .execute();
+
+        create.createTableIfNotExists("DocumentVector")
+                .column("docId", INTEGER)
+                .column("typePrefix", VARCHAR)
+                .column("maxTf", INTEGER)
+                .column("norm", DOUBLE)
+                .column("docCount", BIGINT)
+                .constraints(
+                        DSL.primaryKey("docId", "typePrefix"),
+                        DSL.foreignKey("docId").references("Document", "docId")
+                )
+                .execute();
+
+        create.createTableIfNotExists("VectorWeight")
+                .column("docId", INTEGER)
+                .column("typePrefix", VARCHAR)
+                .column("wordId", INTEGER)
+                .column("weight", DOUBLE)
+                .column("docFreq", INTEGER)
+                .constraints(
+                        DSL.primaryKey("docId", "typePrefix", "wordId"),
+                        DSL.foreignKey("docId").references("Document", "docId")
+                )
+                .execute();
+
+        boolean hasDocumentTerms = create.fetchExists(DSL.selectOne()
+                .from(DSL.table(DSL.name("sqlite_master")))
+                .where(DSL.field(DSL.name("type")).eq("table"))
+                .and(DSL.field(DSL.name("name")).eq("DocumentTerms")));
+        create.createTableIfNotExists("DocumentTerms")
+                .column("docId", INTEGER)
+                .column("titleTerms", BLOB)
+                .column("bodyTerms", BLOB)
+                .constraints(
+                        DSL.primaryKey("docId"),
+                        DSL.foreignKey("docId").references("Document", "docId")
+                )
+                .execute();
+
+        create.createIndexIfNotExists("DocumentUrlIndex")
+                .on("Document", "url")
+                .execute();
+        if (!bulkIngest) {
+            createLinkIndex();
+        }
+
+        createPostingsTable(create, "BodyPostings");
+        createPostingsTable(create, "TitlePostings");
+        createSurfaceFormTable(create, "BodySurfaceForms");
+        createSurfaceFormTable(create, "TitleSurfaceForms");
+        boolean migrated = migrateWordTables();
+        statements = new StatementCache(conn, create);
+        bodyOperator = new BodyTableOperation(create, statements);
+        titleOperator = new TitleTableOperation(create, statements);
+        if (migrated || create.fetchCount(DSL.table(DSL.name("FieldStatistics"))) < 2) {
+            create.transaction(config -> {
+                DSLContext tx = DSL.using(config);
+                bodyOperator.rebuildStatistics(tx);
+                titleOperator.rebuildStatistics(tx);
+            });
+        }
+        if (migrated || !hasDocumentTerms) {
+            create.transaction(config -> rebuildDocumentTerms(DSL.using(config)));
+        }
+
+        initNextDocId(create.fetchCount(DSL.table("Document")));
+    }
+
+    /**
+     * Writes the stored term vector of every document again, from the postings tables.
+     * This is needed when the postings were written without term vectors, e.g. by an older version,
+     * or when the word IDs have changed.
+     *
+     * <p>This does not start a transaction by itself; the caller is expected to run this in one.
+     * @param tx The context of the transaction to write with
+     */
+    void rebuildDocumentTerms(DSLContext tx) {
+        List<Document> docs = loadDocuments();
+        if (docs.isEmpty()) {
+            return;
+        }
+        BatchBindStep batch = tx.batch(insertDocumentTerms(tx));
+        docs.forEach(doc -> {
+            byte[] title = titleOperator.encodeTerms(doc.titleFrequencies());
+            byte[] body = bodyOperator.encodeTerms(doc.bodyFrequencies());
+            batch.bind(doc.id(), title, body, title, body);
+        });
+        batch.execute();
+    }
+
+    /**
+     * Creates the query which writes the stored term vector of a document, replacing any previous one.
+     *
+     * <p>The parameters are the document ID, the title and body term vectors, and the title and body term vectors again.
+     * @param tx The context of the transaction to write with
+     * @return The query to bind and run
+     */
+    private static Query insertDocumentTerms(DSLContext tx) {
+        return tx.insertInto(DSL.table(DSL.name("DocumentTerms")))
+                .values((Integer) null, (byte[]) null, (byte[]) null)
+                .onDuplicateKeyUpdate()
+                .set(DSL.field(DSL.name("titleTerms"), BLOB), (byte[]) null)
+                .set(DSL.field(DSL.name("bodyTerms"), BLOB), (byte[]) null);
+    }
+
+    /**
+     * Creates the index of links by child URL, which is used to look up parents.
+     * The index of documents by URL is always created, as the spider looks up every page it visits.
+     */
+    private void createLinkIndex() {
+        create.createIndexIfNotExists("DocumentLinkChildIndex")
+                .on("DocumentLink", "childUrl")
+                .execute();
+    }
+
+    /**
+     * Finishes a bulk ingest, if this database was opened in {@link Mode#BULK_INGEST} mode.
+     * Does nothing otherwise, or if the bulk ingest has already finished.
+     *
+     * <p>The deferred indexes are created, the settings of {@link Mode#NORMAL} are restored,
+     * and the write-ahead log is checkpointed into the database file. The database is then
+     * verified: all foreign keys are checked, as they were not checked while loading,
+     * along with the integrity of the database file.
+     *
+     * <p>If the indexes or the settings cannot be restored, the bulk ingest is not finished,
+     * and is finished again by the next call (e.g. by {@link #close()}).
+     * @throws SQLException If the indexes or the settings cannot be restored, or the database fails verification
+     */
+    public void finishBulkIngest() throws SQLException {
+        if (!bulkIngest) {
+            return;
+        }
+        createLinkIndex();
+        create.execute("PRAGMA foreign_keys = TRUE");
+        create.execute("PRAGMA synchronous = NORMAL");
+        create.execute("PRAGMA cache_size = -2000");
+        create.execute("PRAGMA mmap_size = 0");
+        create.execute("PRAGMA temp_store = DEFAULT");
+        create.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        // Only cleared once the settings are restored, so that a failure is retried by close()
+        bulkIngest = false;
+
+        List<String> violations = create.fetch("PRAGMA foreign_key_check")
+                .map(r -> "%s row %s references %s".formatted(r.get(0), r.get(1), r.get(2)));
+        if (!violations.isEmpty()) {
+            throw new SQLException("%d foreign key violations after bulk ingest, e.g. %s"
+                    .formatted(violations.size(), violations.get(0)));
+        }
+        String integrity = create.fetch("PRAGMA quick_check").get(0).get(0, String.class);
+        if (!"ok".equals(integrity)) {
+            throw new SQLException("Integrity check failed after bulk ingest: " + integrity);
+        }
+    }
+
+    /**
+     * Initializes the next document ID, if it has not been initialized yet.
+     * @param docCount The number of documents in the index being opened
+     */
+    static synchronized void initNextDocId(int docCount) {
         if (nextDocId == null) {
-            nextDocId = new AtomicInteger(create.fetchCount(DSL.table("Document")));
+            nextDocId = new AtomicInteger(docCount);
+        }
+    }
+
+    /**
+     * Creates a postings table, which holds the word frequencies of all stems
+     * of one type, if it does not exist.
+     *
+     * <p>The table is clustered on the word ID (i.e. it is a WITHOUT ROWID table),
+     * so all the word frequencies of one stem are stored next to each other.
+     * The raw word of each word frequency is stored as a form ID; see {@link #createSurfaceFormTable(DSLContext, String)}.
+     * @param create The context to create the table with
+     * @param name The name of the postings table
+     */
+    static void createPostingsTable(DSLContext create, String name) {
+        create.createTableIfNotExists(name)
+                .column("wordId", INTEGER)
+                .column("docId", INTEGER)
+                .column("paragraph", INTEGER)
+                .column("sentence", INTEGER)
+                .column("location", INTEGER)
+                .column("formId", INTEGER)
+                .constraints(
+                        DSL.primaryKey("wordId", "docId", "paragraph", "sentence", "location"),
+                        DSL.foreignKey("docId").references("Document", "docId")
+                )
+                .storage("WITHOUT ROWID")
+                .execute();
+    }
+
+    /**
+     * Creates a surface form table, which holds the distinct raw words of the stems
+     * of one type, if it does not exist.
+     *
+     * <p>Each raw word is stored once per stem, with a form ID starting from 1;
+     * the postings table refers to the raw word by the form ID instead. Form ID 0
+     * is not stored, and stands for the empty raw word.
+     * @param create The context to create the table with
+     * @param name The name of the surface form table
+     */
+    static void createSurfaceFormTable(DSLContext create, String name) {
+        create.createTableIfNotExists(name)
+                .column("wordId", INTEGER)
+                .column("formId", INTEGER)
+                .column("rawWord", VARCHAR)
+                .constraints(
+                        DSL.primaryKey("wordId", "formId"),
+                        DSL.unique("wordId", "rawWord")
+                )
+                .storage("WITHOUT ROWID")
+                .execute();
+    }
+
+    /**
+     * Migrates the word tables of the old schema, where each stem has its own
+     * table (e.g. body_1 or title_1), into the postings tables.
+     *
+     * <p>Each old word table is dropped after its word frequencies are copied.
+     * This does nothing if the database does not have any old word tables.
+     * @return True if any word tables were migrated; false otherwise
+     */
+    private boolean migrateWordTables() {
+        List<Matcher> wordTables = create.fetch("SELECT name FROM sqlite_master WHERE type='table'")
+                .map(r -> r.get(0, String.class))
+                .stream().map(WORD_TABLE_PATTERN::matcher)
+                .filter(Matcher::matches)
+                .toList();
+        if (wordTables.isEmpty()) {
+            return false;
         }
+        create.transaction(config -> {
+            DSLContext tx = DSL.using(config);
+            for (Matcher table : wordTables) {
+                boolean body = table.group(1).equals("body");
+                Name postings = DSL.name(body ? "BodyPostings" : "TitlePostings");
+                Name forms = DSL.name(body ? "BodySurfaceForms" : "TitleSurfaceForms");
+                Field<Integer> wordId = DSL.inline(Integer.parseInt(table.group(2)));
+                // The columns of the old word tables are renamed by position
+                String words = "WITH t(docId, paragraph, sentence, location, rawWord) AS (SELECT * FROM {2}) ";
+                tx.execute(words + "INSERT OR IGNORE INTO {0} SELECT {1}, ROW_NUMBER() OVER (ORDER BY rawWord)"
+                                + " + (SELECT COALESCE(MAX(formId), 0) FROM {0} WHERE wordId = {1}), rawWord"
+                                + " FROM (SELECT DISTINCT rawWord FROM t WHERE rawWord <> '')",
+                        forms, wordId, DSL.name(table.group()));
+                tx.execute(words + "INSERT OR IGNORE INTO {0} SELECT {1}, t.docId, t.paragraph, t.sentence, t.location,"
+                                + " COALESCE(s.formId, 0) FROM t LEFT JOIN {3} s ON s.wordId = {1} AND s.rawWord = t.rawWord",
+                        postings, wordId, DSL.name(table.group()), forms);
+                // The forward index of older versions may miss words, and is read for deletes and vectors
+                tx.execute(words + "INSERT OR IGNORE INTO {0} SELECT DISTINCT docId, {1}, {3} FROM t",
+                        DSL.name("ForwardIndex"), wordId, DSL.name(table.group()), DSL.inline(table.group(1)));
+                tx.dropTable(DSL.name(table.group())).execute();
+            }
+        });
+        return true;
     }
 
     /**
@@ -105,23 +471,10 @@ public class DatabaseConnection implements AutoCloseable {
      * @throws IllegalArgumentException If the document ID is invalid
      * @return The document associated with this ID.
      */
+    @Override
     public Document getDocFromId(int docId) {
-        return create.select()
-                .from(DSL.table("Document"))
-                .where(
-                        DSL.condition(DSL.field(DSL.name("docId")).eq(docId))
-                ).fetch().stream().findFirst()
-                .map(r -> {
-                    try {
-                        return new Document(new URL(r.get(0, String.class)),
-                                r.get(1, Integer.class),
-                                r.get(2, Instant.class),
-                                r.get(3, Long.class),
-                                r.get(4, String.class));
-                    } catch (MalformedURLException e) {
-                        throw new RuntimeException(e);
-                    }
-                })
+        return statements.fetch(DOC_FROM_ID, docId).stream().findFirst()
+                .map(DatabaseConnection::toDocument)
                 .orElseThrow(() -> new IllegalArgumentException("No such document ID: " + docId));
     }
 
@@ -130,8 +483,9 @@ public class DatabaseConnection implements AutoCloseable {
      * @param docId The document ID to verify the existence of
      * @return True if the document ID exists in the database; false otherwise
      */
+    @Override
     public boolean hasDocId(int docId) {
-        return create.fetchCount(DSL.table("Document"), DSL.condition(DSL.field(DSL.name("docId")).eq(docId))) > 0;
+        return statements.exists(HAS_DOC_ID, docId);
     }
 
     /**
@@ -143,23 +497,10 @@ public class DatabaseConnection implements AutoCloseable {
      * @throws IllegalArgumentException If the URL is invalid
      * @return The document associated with this URL.
      */
+    @Override
     public Document getDocFromUrl(URL url) {
-        return create.select()
-                .from(DSL.table("Document"))
-                .where(
-                        DSL.condition(DSL.field(DSL.name("url")).eq(url.toString()))
-                ).fetch().stream().findFirst()
-                .map(r -> {
-                    try {
-                        return new Document(new URL(r.get(0, String.class)),
-                                r.get(1, Integer.class),
-                                r.get(2, Instant.class),
-                                r.get(3, Long.class),
-                                r.get(4, String.class));
-                    } catch (MalformedURLException e) {
-                        throw new RuntimeException(e);
-                    }
-                })
+        return statements.fetch(DOC_FROM_URL, url.toString()).stream().findFirst()
+                .map(DatabaseConnection::toDocument)
                 .orElseThrow(() -> new IllegalArgumentException("No such URL: " + url));
     }
 
@@ -168,8 +509,9 @@ public class DatabaseConnection implements AutoCloseable {
      * @param url The document with corresponding URL to verify the existence of
      * @return True if the document exists in the database; false otherwise
      */
+    @Override
     public boolean hasDocUrl(URL url) {
-        return create.fetchCount(DSL.table("Document"), DSL.condition(DSL.field(DSL.name("url")).eq(url.toString()))) > 0;
+        return statements.exists(HAS_DOC_URL, url.toString());
     }
 
 
@@ -183,7 +525,12 @@ public class DatabaseConnection implements AutoCloseable {
      * <p>This does not insert the document's words into the database.
      * @param doc The document to insert into
      */
+    @Override
     public void insertDocument(Document doc) {
+        insertDocument(create, doc);
+    }
+
+    private static void insertDocument(DSLContext create, Document doc) {
         create.insertInto(DSL.table("Document"))
                 .values(doc.url().toString(), doc.id(), doc.lastModified(), doc.size(), doc.title())
                 .onDuplicateKeyUpdate()
@@ -193,25 +540,112 @@ public class DatabaseConnection implements AutoCloseable {
                 .execute();
     }
 
+    /**
+     * Inserts a document and all of its title and body words into the database.
+     *
+     * <p>All the new stems, word frequencies and forward index entries of the document
+     * are written with batched inserts in a single transaction, so either all of them
+     * are written, or none of them are. The words are also written as the stored term vector
+     * of the document, which {@link #loadWords(Document)} reads; the previous words of the
+     * document are expected to have been deleted with {@link #deleteFrequencies(int)} first.
+     *
+     * <p>This does not insert the document's links into the database.
+     * @param doc The document to write the words of
+     */
+    @Override
+    public void writeWords(Document doc) {
+        try {
+            create.transaction(config -> {
+                DSLContext tx = DSL.using(config);
+                insertDocument(tx, doc);
+                titleOperator.insertWords(tx, doc.titleFrequencies());
+                bodyOperator.insertWords(tx, doc.bodyFrequencies());
+                byte[] title = titleOperator.encodeTerms(doc.titleFrequencies());
+                byte[] body = bodyOperator.encodeTerms(doc.bodyFrequencies());
+                tx.batch(insertDocumentTerms(tx)).bind(doc.id(), title, body, title, body).execute();
+            });
+        } catch (RuntimeException e) {
+            // The new stems were rolled back, so they must be removed from the dictionaries as well
+            titleOperator.reloadDictionary();
+            bodyOperator.reloadDictionary();
+            throw e;
+        }
+    }
+
     /**
      * Retrieves all the entries in the document table.
      * @return The list of all tables
      */
+    @Override
     public List<Document> getDocuments() {
         return create.select()
                 .from(DSL.table("Document"))
                 .fetch().stream()
-                .map(r -> {
+                .map(DatabaseConnection::toDocument).toList();
+    }
+
+    /**
+     * Loads the title and body word frequencies of a single document.
+     *
+     * <p>The words are read from the stored term vector of the document, which holds
+     * the word IDs and positions of both the title and the body, in a single lookup by
+     * document ID. If the document has no stored term vector (e.g. a word was inserted
+     * with {@link TableOperation#insertWordInfo(int, hk.ust.comp4321.api.WordInfo)} since),
+     * the words are read through the forward index instead.
+     * @param doc The document to load the words of
+     */
+    @Override
+    public void loadWords(Document doc) {
+        Result<Record> terms = statements.fetch(DOCUMENT_TERMS, doc.id());
+        if (terms.isEmpty()) {
+            IndexStore.super.loadWords(doc);
+            return;
+        }
+        titleOperator.decodeTerms(terms.get(0).get(0, byte[].class), doc.id(), doc.titleFrequencies());
+        bodyOperator.decodeTerms(terms.get(0).get(1, byte[].class), doc.id(), doc.bodyFrequencies());
+    }
+
+    /**
+     * Loads the word frequencies and children of all the documents specified.
+     *
+     * <p>Unlike {@link Document#retrieveFromDatabase(IndexStore)}, which
+     * runs several queries for every document, this scans each of the postings
+     * tables and the document link table once, regardless of the number of documents.
+     * Rows for documents not in the list are skipped.
+     * @param docs The documents to load
+     */
+    @Override
+    public void loadDocuments(List<Document> docs) {
+        Map<Integer, Document> docMap = docs.stream()
+                .collect(Collectors.toMap(Document::id, Function.identity(), (a, b) -> a));
+        titleOperator.forEachFrequency((info, stem) -> {
+            Document doc = docMap.get(info.docId());
+            if (doc != null) {
+                doc.titleFrequencies().put(info, stem);
+            }
+        });
+        bodyOperator.forEachFrequency((info, stem) -> {
+            Document doc = docMap.get(info.docId());
+            if (doc != null) {
+                doc.bodyFrequencies().put(info, stem);
+            }
+        });
+        try (Cursor<? extends Record> cursor = create.select(DSL.field(DSL.name("docId")), DSL.field(DSL.name("childUrl")))
+                .from(DSL.table(DSL.name("DocumentLink")))
+                .orderBy(DSL.field(DSL.name("docId")))
+                .fetchLazy()) {
+            for (Record r : cursor) {
+                Document doc = docMap.get(r.get(0, Integer.class));
+                if (doc != null) {
                     try {
-                        return new Document(new URL(r.get(0, String.class)),
-                                r.get(1, Integer.class),
-                                r.get(2, Instant.class),
-                                r.get(3, Long.class),
-                                r.get(4, String.class));
-                    } catch (MalformedURLException e) {
-                        throw new RuntimeException(e);
+                        doc.children().add(new URI(r.get(1, String.class)).toURL());
+                    } catch (MalformedURLException | URISyntaxException e) {
+                        throw new RuntimeException("Invalid URL read from database: " + r.get(1, String.class), e);
                     }
-                }).toList();
+                }
+            }
+        }
+        docs.forEach(Document::setLoaded);
     }
 
     /**
@@ -219,6 +653,7 @@ public class DatabaseConnection implements AutoCloseable {
      * @param docId The parent document ID
      * @param child The child URL
      */
+    @Override
     public void insertLink(int docId, URL child) {
         create.insertInto(DSL.table("DocumentLink"))
                 .values(docId, child.toString())
@@ -232,54 +667,71 @@ public class DatabaseConnection implements AutoCloseable {
      * @param docId The document ID to retrieve the children for
      * @return A list of child URLs for the specified document ID
      */
+    @Override
     public List<URL> children(int docId) {
-        return create.select(DSL.field(DSL.name("childUrl"))).from(DSL.table(DSL.name("DocumentLink")))
-                .where(DSL.condition(DSL.field(DSL.name("docId")).eq(docId)))
-                .fetch().map(r -> {
-                    try {
-                        return new URI(r.get(0, String.class)).toURL();
-                    } catch (MalformedURLException | URISyntaxException e) {
-                        throw new RuntimeException("Invalid URL read from database: " + r.get(0, String.class), e);
-                    }
-                });
+        return statements.fetch(CHILDREN, docId).map(r -> {
+            try {
+                return new URI(r.get(0, String.class)).toURL();
+            } catch (MalformedURLException | URISyntaxException e) {
+                throw new RuntimeException("Invalid URL read from database: " + r.get(0, String.class), e);
+            }
+        });
+    }
+
+    /**
+     * Retrieves the list of child documents for the specified document ID.
+     *
+     * <p>Unlike {@link #children(int)}, child URLs which have not been indexed
+     * as documents are not included.
+     *
+     * <p>Note: The word frequencies and children of these documents have not been loaded.
+     * @param docId The document ID to retrieve the child documents for
+     * @return A list of child documents for the specified document ID; or an empty list if the document ID does not exist
+     */
+    @Override
+    public List<Document> childDocuments(int docId) {
+        return statements.fetch(CHILD_DOCUMENTS, docId).map(DatabaseConnection::toDocument);
     }
 
     /**
      * Retrieves the list of parent documents for the specified document ID.
+     *
+     * <p>Note: The word frequencies and children of these documents have not been loaded.
      * @param docId The document ID to retrieve the parents for
      * @return A list of parent documents for the specified document ID; or an empty list if the document ID does not exist
      */
+    @Override
     public List<Document> parents(int docId) {
-        if (!hasDocId(docId)) {
-            return List.of();
-        }
-        return create.select(DSL.field(DSL.name("docId"))).from(DSL.table(DSL.name("DocumentLink")))
-                .where(DSL.condition(DSL.field(DSL.name("childUrl"))
-                        .eq(getDocFromId(docId).url().toString())))
-                .fetch().map(r -> getDocFromId(r.get(0, Integer.class)));
+        return statements.fetch(PARENTS_FROM_ID, docId).map(DatabaseConnection::toDocument);
     }
 
     /**
      * Retrieves the list of parent documents for the specified URL.
+     *
+     * <p>Note: The word frequencies and children of these documents have not been loaded.
      * @param url The URL to retrieve the parents for
      * @return A list of parent documents for the specified document ID
      */
+    @Override
     public List<Document> parents(URL url) {
-        return create.select(DSL.field(DSL.name("docId"))).from(DSL.table(DSL.name("DocumentLink")))
-                .where(DSL.condition(DSL.field(DSL.name("childUrl"))
-                        .eq(url.toString())))
-                .fetch().map(r -> getDocFromId(r.get(0, Integer.class)));
+        return statements.fetch(PARENTS_FROM_URL, url.toString()).map(DatabaseConnection::toDocument);
     }
 
     /**
-     * Drops all the word frequency records associated with this document ID.
+     * Drops all the word frequency records associated with this document ID,
+     * together with its forward index entries.
      *
-     * <p>This also has a significant performance impact - use with care.
+     * <p>The word frequencies are found through the forward index, so the cost
+     * depends on the number of distinct words in the document only.
      * @param docId The document ID to purge frequencies for
      */
+    @Override
     public void deleteFrequencies(int docId) {
-        bodyOperator().deleteFrequencies(docId);
-        titleOperator().deleteFrequencies(docId);
+        create.transaction(config -> {
+            DSLContext tx = DSL.using(config);
+            bodyOperator.deleteFrequencies(tx, docId);
+            titleOperator.deleteFrequencies(tx, docId);
+        });
     }
 
     /**
@@ -288,6 +740,7 @@ public class DatabaseConnection implements AutoCloseable {
      * specified DocId field should be dropped.
      * @param docId The document ID to purge links for
      */
+    @Override
     public void deleteChildren(int docId) {
         create.delete(DSL.table("DocumentLink"))
                 .where(DSL.condition(DSL.field(DSL.name("docId")).eq(docId)))
@@ -300,8 +753,9 @@ public class DatabaseConnection implements AutoCloseable {
      * @return The TableOperation object to operate on tables associated
      *         with document bodies
      */
-    public TableOperation bodyOperator() {
-        return new BodyTableOperation(create);
+    @Override
+    public SqliteTableOperation bodyOperator() {
+        return bodyOperator;
     }
 
     /**
@@ -310,8 +764,37 @@ public class DatabaseConnection implements AutoCloseable {
      * @return The TableOperation object to operate on tables associated
      *         with document titles
      */
-    public TableOperation titleOperator() {
-        return new TitleTableOperation(create);
+    @Override
+    public SqliteTableOperation titleOperator() {
+        return titleOperator;
+    }
+
+    /**
+     * Gets the fields of the document table, in the order expected by {@link #toDocument(Record)}.
+     * @param alias The alias of the document table
+     * @return The list of fields of the document table
+     */
+    private static List<Field<Object>> documentFields(String alias) {
+        return Stream.of("url", "docId", "lastModified", "size", "title")
+                .map(s -> DSL.field(DSL.name(alias, s)))
+                .toList();
+    }
+
+    /**
+     * Converts a row of the document table into a document.
+     * @param r The row to convert
+     * @return The document represented by the row
+     */
+    private static Document toDocument(Record r) {
+        try {
+            return new Document(new URL(r.get(0, String.class)),
+                    r.get(1, Integer.class),
+                    r.get(2, Instant.class),
+                    r.get(3, Long.class),
+                    r.get(4, String.class));
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -325,16 +808,16 @@ public class DatabaseConnection implements AutoCloseable {
     /**
      * Gets the next document ID, and increments the next document ID number by one.
      *
-     * <p>The next document ID is synchronized across all database connections
+     * <p>The next document ID is synchronized across all index stores
      * and is not refreshed with commits. It is only read once per application
-     * startup. Specifically, it is only read once on the first constructor invocation
-     * of this class.
-     * @throws IllegalStateException If no instances of this class has been created yet
+     * startup. Specifically, it is only read once when the first index store
+     * (either a database connection or an in-memory store) is opened.
+     * @throws IllegalStateException If no index store has been opened yet
      */
     public static int nextDocId() {
         if (nextDocId == null) {
             throw new IllegalStateException("No database connection initialized." +
-                    "Please create an instance of DatabaseConnection first.");
+                    "Please open an IndexStore first.");
         }
         return nextDocId.getAndIncrement();
     }
@@ -354,10 +837,17 @@ public class DatabaseConnection implements AutoCloseable {
 
     /**
      * {@inheritDoc}
-     * @throws SQLException If closing the database throws an exception
+     *
+     * <p>A bulk ingest which has not been finished is finished first; see {@link #finishBulkIngest()}.
+     * @throws SQLException If closing the database throws an exception, or the bulk ingest fails verification
      */
     @Override
     public void close() throws SQLException {
-         conn.close();
+        try {
+            finishBulkIngest();
+        } finally {
+            statements.close();
+            conn.close();
+        }
     }
 }
@@ -0,0 +1,149 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of documents with their words and children loaded, bounded by an estimated number of bytes.
+ *
+ * <p>Documents are scored with their stored vectors alone, so only the few documents whose words
+ * are needed (e.g. to check a phrase, or to show the keywords of a result) have to be loaded.
+ * The cache loads such a document on demand as a separate copy, and evicts the least recently used
+ * documents once the estimated size of the loaded documents exceeds the budget. The documents
+ * passed in are never changed, so they can keep being scored while their copies are evicted.
+ *
+ * <p>The cache is thread-safe. A document evicted while another thread is still reading it stays
+ * readable, and is reclaimed once it is no longer referenced.
+ */
+public final class DocumentCache {
+    private final IndexStore conn;
+    private final long maxBytes;
+    private final Map<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private record Entry(Document doc, long bytes) {}
+
+    /**
+     * Creates a new, empty document cache.
+     * @param conn The index store to load documents from
+     * @param maxBytes The budget of the cache, as the estimated number of bytes of the loaded documents
+     */
+    public DocumentCache(IndexStore conn, long maxBytes) {
+        this.conn = conn;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets a copy of the document with its words and children loaded,
+     * loading it from the index store if it is not in the cache.
+     *
+     * <p>If the document is already loaded, it is returned as is, and the cache is not used.
+     * @param doc The document to load
+     * @return The loaded document
+     */
+    public Document get(Document doc) {
+        if (doc.isLoaded()) {
+            return doc;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(doc.id());
+            if (entry != null) {
+                hits++;
+                return entry.doc();
+            }
+            misses++;
+        }
+        // Loaded without holding the lock, so that hits are not blocked by a slow load
+        Document loaded = new Document(doc.url(), doc.id(), doc.lastModified(), doc.size(), doc.title());
+        conn.loadWords(loaded);
+        loaded.children().addAll(conn.children(loaded.id()));
+        loaded.setLoaded();
+        long size = 128 + loaded.titleFrequencies().estimatedBytes() + loaded.bodyFrequencies().estimatedBytes()
+                + 64L * loaded.children().size();
+        synchronized (this) {
+            Entry existing = entries.get(doc.id());
+            if (existing != null) {
+                // Loaded by another thread meanwhile
+                return existing.doc();
+            }
+            entries.put(doc.id(), new Entry(loaded, size));
+            bytes += size;
+            evict();
+        }
+        return loaded;
+    }
+
+    /**
+     * Evicts the least recently used documents until the cache is within its budget.
+     * The most recently loaded document is kept even if it alone exceeds the budget.
+     */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && entries.size() > 1) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.bytes();
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes every document from the cache. The counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Gets the number of documents in the cache.
+     * @return The number of documents loaded
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the estimated number of bytes of the documents in the cache.
+     * @return The approximate size of the cache in bytes
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of lookups of a document which was in the cache.
+     * @return The number of cache hits
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups of a document which had to be loaded.
+     * @return The number of cache misses
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of documents evicted to stay within the budget.
+     * @return The number of evictions
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DocumentCache[%d documents, %d of %d bytes, %d hits, %d misses, %d evictions]"
+                .formatted(entries.size(), bytes, maxBytes, hits, misses, evictions);
+    }
+}
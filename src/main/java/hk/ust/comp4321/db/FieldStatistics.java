@@ -0,0 +1,16 @@
+package hk.ust.comp4321.db;
+
+/**
+ * Record representing the collection-wide statistics of one field (the title or the body) of all documents.
+ * @param docCount The number of documents with at least one word in the field
+ * @param totalLength The total number of words in the field, over all documents
+ */
+public record FieldStatistics(int docCount, long totalLength) {
+    /**
+     * Gets the average number of words in the field, over the documents having the field.
+     * @return The average length of the field; 0 if no document has the field
+     */
+    public double averageLength() {
+        return docCount == 0 ? 0 : (double) totalLength / docCount;
+    }
+}
@@ -0,0 +1,233 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import org.jooq.exception.IntegrityConstraintViolationException;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * An index store which keeps all the documents, words and links in memory.
+ *
+ * <p>Nothing is written to disk, so the index is lost when the application exits.
+ * This is useful for tests, and for serving a crawled database entirely from memory
+ * (see {@link #copyOf(IndexStore)}). The store behaves in the same way as
+ * {@link DatabaseConnection}, including the constraints on the document IDs of
+ * word frequencies and links.
+ *
+ * <p>The store is thread-safe; every operation locks the store.
+ */
+public final class InMemoryIndexStore implements IndexStore {
+    private final Map<Integer, DocumentRow> documents = new TreeMap<>();
+    private final Map<String, Integer> urls = new HashMap<>();
+    private final Map<Integer, Set<String>> links = new HashMap<>();
+    private final Map<String, Set<Integer>> parentLinks = new HashMap<>();
+    private final InMemoryTableOperation bodyOperator = new InMemoryTableOperation("body", this);
+    private final InMemoryTableOperation titleOperator = new InMemoryTableOperation("title", this);
+
+    /**
+     * Creates a new, empty store.
+     */
+    public InMemoryIndexStore() {
+        DatabaseConnection.initNextDocId(0);
+    }
+
+    /**
+     * Copies the contents of another index store into a new in-memory store.
+     *
+     * <p>The word IDs of all the stems are kept, so the copy is indistinguishable
+     * from the original, except that later writes are not written back.
+     * @param other The index store to copy
+     * @return The new in-memory store
+     */
+    public static InMemoryIndexStore copyOf(IndexStore other) {
+        InMemoryIndexStore store = new InMemoryIndexStore();
+        List<Document> docs = other.getDocuments();
+        docs.forEach(store::insertDocument);
+        copyWords(other.titleOperator(), store.titleOperator, docs);
+        copyWords(other.bodyOperator(), store.bodyOperator, docs);
+        docs.forEach(doc -> other.children(doc.id()).forEach(child -> store.insertLink(doc.id(), child)));
+        return store;
+    }
+
+    private static void copyWords(TableOperation from, InMemoryTableOperation to, List<Document> docs) {
+        from.getWordIds().forEach(id -> to.putStem(from.getStemFromId(id), id));
+        from.forEachFrequency((info, stem) -> to.addPosting(from.getIdFromStem(stem), info));
+        docs.forEach(doc -> from.getStemIds(doc.id()).forEach(id -> to.addForward(doc.id(), id)));
+    }
+
+    @Override
+    public synchronized Document getDocFromId(int docId) {
+        DocumentRow row = documents.get(docId);
+        if (row == null) {
+            throw new IllegalArgumentException("No such document ID: " + docId);
+        }
+        return row.toDocument();
+    }
+
+    @Override
+    public synchronized boolean hasDocId(int docId) {
+        return documents.containsKey(docId);
+    }
+
+    @Override
+    public synchronized Document getDocFromUrl(URL url) {
+        Integer docId = urls.get(url.toString());
+        if (docId == null) {
+            throw new IllegalArgumentException("No such URL: " + url);
+        }
+        return getDocFromId(docId);
+    }
+
+    @Override
+    public synchronized boolean hasDocUrl(URL url) {
+        return urls.containsKey(url.toString());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>As with the document table, the URL of an existing document is not updated.
+     */
+    @Override
+    public synchronized void insertDocument(Document doc) {
+        DocumentRow existing = documents.get(doc.id());
+        URL url = existing == null ? doc.url() : existing.url();
+        documents.put(doc.id(), new DocumentRow(url, doc.id(), doc.lastModified(), doc.size(), doc.title()));
+        urls.putIfAbsent(url.toString(), doc.id());
+    }
+
+    @Override
+    public synchronized void writeWords(Document doc) {
+        insertDocument(doc);
+        titleOperator.insertWords(doc.titleFrequencies());
+        bodyOperator.insertWords(doc.bodyFrequencies());
+    }
+
+    @Override
+    public synchronized List<Document> getDocuments() {
+        return documents.values().stream().map(DocumentRow::toDocument).toList();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>As with {@link DatabaseConnection#loadDocuments(List)}, the word frequencies are
+     * read from the postings, and documents not in this store are left empty.
+     */
+    @Override
+    public synchronized void loadDocuments(List<Document> docs) {
+        Map<Integer, Document> docMap = docs.stream()
+                .collect(Collectors.toMap(Document::id, Function.identity(), (a, b) -> a));
+        titleOperator.forEachFrequency((info, stem) -> {
+            Document doc = docMap.get(info.docId());
+            if (doc != null) {
+                doc.titleFrequencies().put(info, stem);
+            }
+        });
+        bodyOperator.forEachFrequency((info, stem) -> {
+            Document doc = docMap.get(info.docId());
+            if (doc != null) {
+                doc.bodyFrequencies().put(info, stem);
+            }
+        });
+        docMap.forEach((docId, doc) -> doc.children().addAll(children(docId)));
+        docs.forEach(Document::setLoaded);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IntegrityConstraintViolationException If the parent document does not exist
+     */
+    @Override
+    public synchronized void insertLink(int docId, URL child) {
+        if (!documents.containsKey(docId)) {
+            throw new IntegrityConstraintViolationException("No such document ID: " + docId);
+        }
+        links.computeIfAbsent(docId, k -> new TreeSet<>()).add(child.toString());
+        parentLinks.computeIfAbsent(child.toString(), k -> new TreeSet<>()).add(docId);
+    }
+
+    @Override
+    public synchronized List<URL> children(int docId) {
+        return links.getOrDefault(docId, Set.of()).stream().map(InMemoryIndexStore::toUrl).toList();
+    }
+
+    @Override
+    public synchronized List<Document> childDocuments(int docId) {
+        return links.getOrDefault(docId, Set.of()).stream()
+                .map(urls::get)
+                .filter(Objects::nonNull)
+                .map(this::getDocFromId)
+                .toList();
+    }
+
+    @Override
+    public synchronized List<Document> parents(int docId) {
+        DocumentRow row = documents.get(docId);
+        return row == null ? List.of() : parents(row.url());
+    }
+
+    @Override
+    public synchronized List<Document> parents(URL url) {
+        return parentLinks.getOrDefault(url.toString(), Set.of()).stream()
+                .map(this::getDocFromId)
+                .toList();
+    }
+
+    @Override
+    public synchronized void deleteFrequencies(int docId) {
+        bodyOperator.deleteFrequencies(docId);
+        titleOperator.deleteFrequencies(docId);
+    }
+
+    @Override
+    public synchronized void deleteChildren(int docId) {
+        Set<String> children = links.remove(docId);
+        if (children != null) {
+            children.forEach(child -> parentLinks.get(child).remove(docId));
+        }
+    }
+
+    @Override
+    public TableOperation bodyOperator() {
+        return bodyOperator;
+    }
+
+    @Override
+    public TableOperation titleOperator() {
+        return titleOperator;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This does nothing, since the store does not hold any resources other than memory.
+     */
+    @Override
+    public void close() {
+    }
+
+    private static URL toUrl(String url) {
+        try {
+            return new URI(url).toURL();
+        } catch (MalformedURLException | URISyntaxException e) {
+            throw new RuntimeException("Invalid URL in index store: " + url, e);
+        }
+    }
+
+    /**
+     * A row of the document table, without any words or children.
+     */
+    private record DocumentRow(URL url, int id, Instant lastModified, long size, String title) {
+        private Document toDocument() {
+            return new Document(url, id, lastModified, size, title);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.WordInfo;
+import hk.ust.comp4321.se.SearchVector;
+import org.jooq.exception.IntegrityConstraintViolationException;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Internal class for operating on the words of one type prefix
+ * which are kept in memory by an {@link InMemoryIndexStore}.
+ *
+ * <p>The postings of every word ID are kept in a sorted set, ordered in the same
+ * way as the primary key of the postings tables, and the forward index maps each
+ * document ID to the word IDs it contains. As with the SQLite tables, inserting a
+ * word frequency which already exists does nothing, and inserting a word frequency
+ * of a document which does not exist fails.
+ *
+ * <p>The statistics (see {@link #docFreq(String)} and {@link #getStatistics()}) are
+ * kept as counters, which are updated whenever a word frequency is added or deleted.
+ * As with the stored vectors of the SQLite tables, a cached vector (see {@link #getVector(int)})
+ * is only computed again on a lookup once the statistics of its own words have drifted,
+ * and is only replaced by {@link #refreshVectors()}.
+ *
+ * <p>All operations lock the index store which owns this table operation.
+ */
+final class InMemoryTableOperation implements TableOperation {
+    private final String prefix;
+    private final InMemoryIndexStore store;
+    private final TermDictionary dictionary;
+    private final Map<Integer, NavigableSet<WordInfo>> postings = new HashMap<>();
+    private final Map<Integer, Set<Integer>> forwardIndex = new HashMap<>();
+    private final Map<Integer, Integer> docFreqs = new HashMap<>();
+    private final Map<Integer, Integer> docLengths = new HashMap<>();
+    private long totalLength = 0;
+    private final Map<Integer, TermVector> vectors = new HashMap<>();
+
+    /**
+     * Creates a new, empty table operation.
+     * @param prefix The type prefix of the words
+     * @param store The index store which owns this table operation
+     */
+    InMemoryTableOperation(String prefix, InMemoryIndexStore store) {
+        this.prefix = prefix;
+        this.store = store;
+        dictionary = new TermDictionary(prefix);
+    }
+
+    @Override
+    public String getPrefix() {
+        return prefix;
+    }
+
+    @Override
+    public int getNextId() {
+        return dictionary.nextId();
+    }
+
+    @Override
+    public int getCurrentId() {
+        return dictionary.currentId();
+    }
+
+    @Override
+    public List<Integer> getWordIds() {
+        return dictionary.ids().stream().sorted().toList();
+    }
+
+    @Override
+    public List<Integer> getStemIds(int docId) {
+        synchronized (store) {
+            return List.copyOf(forwardIndex.getOrDefault(docId, Set.of()));
+        }
+    }
+
+    @Override
+    public void insertWordInfo(int stem, WordInfo freq) {
+        synchronized (store) {
+            if (!store.hasDocId(freq.docId())) {
+                throw new IntegrityConstraintViolationException("No such document ID: " + freq.docId());
+            }
+            addPosting(stem, freq);
+            addForward(freq.docId(), stem);
+        }
+    }
+
+    /**
+     * Inserts all the word frequencies of a document, together with their forward index entries.
+     *
+     * <p>Stems which do not exist yet are inserted first. The caller is expected
+     * to hold the lock of the index store, and to have inserted the document.
+     * @param words The word frequencies to insert, mapped to their stems
+     */
+    void insertWords(Map<WordInfo, String> words) {
+        words.forEach((freq, stem) -> {
+            int stemId = insertStem(stem);
+            addPosting(stemId, freq);
+            addForward(freq.docId(), stemId);
+        });
+    }
+
+    /**
+     * Adds a word frequency to the postings of the word ID, and updates the statistics,
+     * without checking the document ID or updating the forward index.
+     * @param stem The word ID of the stem
+     * @param freq The word frequency to add
+     */
+    void addPosting(int stem, WordInfo freq) {
+        NavigableSet<WordInfo> freqs = postings.computeIfAbsent(stem, k -> new TreeSet<>(PostingsCodec.ORDER));
+        boolean newDoc = ofDocument(freqs, freq.docId()).isEmpty();
+        if (freqs.add(freq)) {
+            if (newDoc) {
+                docFreqs.merge(stem, 1, Integer::sum);
+            }
+            docLengths.merge(freq.docId(), 1, Integer::sum);
+            totalLength++;
+            vectors.remove(freq.docId());
+        }
+    }
+
+    /**
+     * Adds a forward index entry, without checking the document ID.
+     * @param docId The document ID
+     * @param stem The word ID of a stem in the document
+     */
+    void addForward(int docId, int stem) {
+        forwardIndex.computeIfAbsent(docId, k -> new TreeSet<>()).add(stem);
+    }
+
+    /**
+     * Adds a vector which was computed elsewhere, as if it was computed with the current statistics.
+     * @param docId The document ID of the vector
+     * @param maxTf The maximum term frequency in the document
+     * @param norm The Euclidean norm of the weights
+     * @param weights The weight of each word ID in the document
+     */
+    void putVector(int docId, int maxTf, double norm, Map<Integer, Double> weights) {
+        Map<Integer, Integer> used = new HashMap<>();
+        weights.keySet().forEach(stem -> used.put(stem, docFreqs.getOrDefault(stem, 0)));
+        vectors.put(docId, new TermVector(maxTf, norm, weights, used, DatabaseConnection.getDocSize()));
+    }
+
+    /**
+     * Adds a stem with a known word ID to the dictionary.
+     * @param stem The stem to add
+     * @param id The word ID of the stem
+     */
+    void putStem(String stem, int id) {
+        dictionary.put(stem, id);
+    }
+
+    @Override
+    public List<WordInfo> getFrequency(int stem, int docId) {
+        synchronized (store) {
+            NavigableSet<WordInfo> freqs = postings.get(stem);
+            if (freqs == null) {
+                return List.of();
+            }
+            return List.copyOf(ofDocument(freqs, docId));
+        }
+    }
+
+    @Override
+    public List<WordInfo> getFrequency(int stem) {
+        synchronized (store) {
+            return List.copyOf(postings.getOrDefault(stem, Collections.emptyNavigableSet()));
+        }
+    }
+
+    @Override
+    public void forEachFrequency(BiConsumer<WordInfo, String> action) {
+        synchronized (store) {
+            postings.forEach((stem, freqs) -> {
+                String stemString = getStemFromId(stem);
+                freqs.forEach(freq -> action.accept(freq, stemString));
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Only the word IDs recorded in the forward index for the document are visited.
+     */
+    @Override
+    public void deleteFrequencies(int docId) {
+        synchronized (store) {
+            Set<Integer> stems = forwardIndex.remove(docId);
+            if (stems == null) {
+                return;
+            }
+            for (int stem : stems) {
+                NavigableSet<WordInfo> freqs = postings.get(stem);
+                if (freqs == null) {
+                    continue;
+                }
+                NavigableSet<WordInfo> ofDoc = ofDocument(freqs, docId);
+                if (!ofDoc.isEmpty()) {
+                    docFreqs.computeIfPresent(stem, (k, count) -> count == 1 ? null : count - 1);
+                    totalLength -= ofDoc.size();
+                    ofDoc.clear();
+                }
+                if (freqs.isEmpty()) {
+                    postings.remove(stem);
+                }
+            }
+            docLengths.remove(docId);
+            vectors.remove(docId);
+        }
+    }
+
+    @Override
+    public int getIdFromStem(String stem) {
+        return dictionary.getId(stem);
+    }
+
+    @Override
+    public String getStemFromId(int id) {
+        String stem = dictionary.getStem(id);
+        if (stem == null) {
+            throw new IllegalArgumentException("No such word ID: " + id);
+        }
+        return stem;
+    }
+
+    @Override
+    public int insertStem(String stem) {
+        synchronized (dictionary) {
+            int id = dictionary.getId(stem);
+            if (id == -1) {
+                id = getNextId();
+                dictionary.put(stem, id);
+            }
+            return id;
+        }
+    }
+
+    @Override
+    public List<Integer> getDocIdsWithStem(int stemId) {
+        synchronized (store) {
+            return postings.getOrDefault(stemId, Collections.emptyNavigableSet()).stream()
+                    .map(WordInfo::docId)
+                    .distinct()
+                    .toList();
+        }
+    }
+
+    @Override
+    public int docFreq(String stem) {
+        synchronized (store) {
+            return docFreqs.getOrDefault(getIdFromStem(stem), 0);
+        }
+    }
+
+    @Override
+    public long totalFreq(String stem) {
+        synchronized (store) {
+            return postings.getOrDefault(getIdFromStem(stem), Collections.emptyNavigableSet()).size();
+        }
+    }
+
+    @Override
+    public FieldStatistics getStatistics() {
+        synchronized (store) {
+            return new FieldStatistics(docLengths.size(), totalLength);
+        }
+    }
+
+    @Override
+    public SearchVector getVector(int docId) {
+        synchronized (store) {
+            return vector(docId).toSearchVector(this::getStemFromId);
+        }
+    }
+
+    @Override
+    public Map<Integer, SearchVector> getVectors() {
+        synchronized (store) {
+            Map<Integer, SearchVector> result = new HashMap<>();
+            for (int docId : forwardIndex.keySet()) {
+                TermVector vector = vector(docId);
+                if (!vector.weights().isEmpty()) {
+                    result.put(docId, vector.toSearchVector(this::getStemFromId));
+                }
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public void refreshVectors() {
+        synchronized (store) {
+            long docCount = DatabaseConnection.getDocSize();
+            for (int docId : forwardIndex.keySet()) {
+                TermVector vector = vectors.get(docId);
+                if (vector == null || !vector.isFresh(stem -> docFreqs.getOrDefault(stem, 0), docCount)) {
+                    vector = compute(docId, docCount);
+                    if (!vector.weights().isEmpty()) {
+                        vectors.put(docId, vector);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the cached vector of a document, or computes it without caching it if it is missing or stale.
+     * The caller is expected to hold the lock of the index store.
+     */
+    private TermVector vector(int docId) {
+        long docCount = DatabaseConnection.getDocSize();
+        TermVector vector = vectors.get(docId);
+        if (vector != null && vector.isFresh(stem -> docFreqs.getOrDefault(stem, 0), docCount)) {
+            return vector;
+        }
+        return compute(docId, docCount);
+    }
+
+    /**
+     * Computes the vector of a document with the current statistics.
+     * The caller is expected to hold the lock of the index store.
+     */
+    private TermVector compute(int docId, long docCount) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int stem : forwardIndex.getOrDefault(docId, Set.of())) {
+            NavigableSet<WordInfo> freqs = postings.get(stem);
+            if (freqs != null && !ofDocument(freqs, docId).isEmpty()) {
+                counts.put(stem, ofDocument(freqs, docId).size());
+            }
+        }
+        return TermVector.compute(counts, stem -> docFreqs.getOrDefault(stem, 0), docCount);
+    }
+
+    /**
+     * Gets a view of the word frequencies of one document in the postings of a word ID.
+     */
+    private static NavigableSet<WordInfo> ofDocument(NavigableSet<WordInfo> freqs, int docId) {
+        // The bounds are positions which can be packed (see PostingsCodec.ORDER)
+        return freqs.subSet(new WordInfo(docId, 0, 0, 0, ""), true, new WordInfo(docId + 1, 0, 0, 0, ""), false);
+    }
+}
@@ -0,0 +1,214 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Name;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Compacts a database offline, which the spider has written to many times.
+ *
+ * <p>Recrawling leaves behind stems without any word frequencies, raw words which
+ * no word frequency refers to any more, and links of documents which no longer exist.
+ * Compacting the database:
+ * <ul>
+ *     <li>drops the dead stems, and renumbers the word IDs of each prefix densely from 0,
+ *          in the order of their current word IDs;</li>
+ *     <li>drops the unused surface forms and the dangling links;</li>
+ *     <li>rewrites the postings tables in order of word ID and document ID, and the stored
+ *          term vectors with the new word IDs; and</li>
+ *     <li>vacuums the database file.</li>
+ * </ul>
+ * The old word tables (e.g. body_1) are migrated when the database is opened, before compacting.
+ *
+ * <p>Compacting rewrites most of the database, so no other process should use the database meanwhile.
+ * Snapshots exported before compacting are stale afterwards (see {@link IndexSnapshot#isFresh(Path, Path)}).
+ */
+public final class IndexCompactor {
+    private static final int SAMPLE_SIZE = 1000;
+
+    private IndexCompactor() {
+        throw new AssertionError("IndexCompactor cannot be instantiated!");
+    }
+
+    /**
+     * The rows dropped by compacting a database.
+     * @param titleStems The number of title stems dropped
+     * @param bodyStems The number of body stems dropped
+     * @param surfaceForms The number of title and body surface forms dropped
+     * @param links The number of links dropped
+     */
+    public record Result(int titleStems, int bodyStems, int surfaceForms, int links) {}
+
+    /**
+     * Compacts a database, and reports the space reclaimed and the time taken by a sample of queries
+     * before and after compacting.
+     * Usage: {@code IndexCompactor [database]}; the path defaults to {@code spider_result.db}.
+     * @param args The path of the database
+     * @throws SQLException If opening or compacting the database fails
+     * @throws IOException If the size of the database cannot be read
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        Path dbPath = Path.of(args.length > 0 ? args[0] : "spider_result.db");
+        Result result;
+        long sizeBefore;
+        double before;
+        double after;
+        try (DatabaseConnection conn = new DatabaseConnection(dbPath)) {
+            DSL.using(conn.getConnection(), SQLDialect.SQLITE).execute("PRAGMA wal_checkpoint(TRUNCATE)");
+            sizeBefore = size(dbPath);
+            List<String> stems = sampleStems(conn.bodyOperator());
+            List<Integer> docIds = sampleDocIds(conn);
+            before = timeQueries(conn, stems, docIds);
+            result = compact(conn);
+            after = timeQueries(conn, stems, docIds);
+        }
+        long sizeAfter = size(dbPath);
+        System.out.printf("Dropped %d title stems, %d body stems, %d surface forms and %d links.%n",
+                result.titleStems(), result.bodyStems(), result.surfaceForms(), result.links());
+        System.out.printf("Size: %.1f MiB -> %.1f MiB (%.1f MiB reclaimed)%n",
+                sizeBefore / 1048576.0, sizeAfter / 1048576.0, (sizeBefore - sizeAfter) / 1048576.0);
+        System.out.printf("Sample queries: %.1f ms -> %.1f ms (%.2fx)%n", before, after, before / after);
+    }
+
+    /**
+     * Compacts a database in a single transaction, and then vacuums it.
+     * @param conn The database to compact
+     * @return The rows dropped
+     * @throws SQLException If vacuuming the database fails
+     */
+    public static Result compact(DatabaseConnection conn) throws SQLException {
+        DSLContext create = DSL.using(conn.getConnection(), SQLDialect.SQLITE);
+        Result result;
+        try {
+            result = create.transactionResult(config -> {
+                DSLContext tx = DSL.using(config);
+                int[] titleDropped = compactWordIds(tx, conn.titleOperator());
+                int[] bodyDropped = compactWordIds(tx, conn.bodyOperator());
+                int links = tx.execute("DELETE FROM DocumentLink WHERE docId NOT IN (SELECT docId FROM Document)");
+                conn.titleOperator().resetDictionary();
+                conn.bodyOperator().resetDictionary();
+                conn.rebuildDocumentTerms(tx);
+                return new Result(titleDropped[0], bodyDropped[0], titleDropped[1] + bodyDropped[1], links);
+            });
+        } catch (RuntimeException e) {
+            // The word IDs were rolled back, so the dictionaries must be read again
+            conn.titleOperator().resetDictionary();
+            conn.bodyOperator().resetDictionary();
+            throw e;
+        }
+        create.execute("VACUUM");
+        create.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        return result;
+    }
+
+    /**
+     * Drops the stems of one prefix without word frequencies, and renumbers the word IDs of the rest.
+     *
+     * <p>The postings and surface form tables are copied into new tables with the new word IDs,
+     * and the other tables with word IDs are updated in place.
+     * @param tx The context of the transaction to compact with
+     * @param operator The table operation of the prefix
+     * @return The number of stems dropped, and the number of surface forms dropped
+     */
+    private static int[] compactWordIds(DSLContext tx, SqliteTableOperation operator) {
+        Field<String> prefix = DSL.inline(operator.getPrefix());
+        Name postings = DSL.name(operator.getPostingsTable());
+        Name forms = DSL.name(operator.getSurfaceFormTable());
+        Name oldPostings = DSL.name(operator.getPostingsTable() + "Old");
+        Name oldForms = DSL.name(operator.getSurfaceFormTable() + "Old");
+
+        tx.execute("DROP TABLE IF EXISTS temp.WordIdMap");
+        tx.execute("CREATE TEMP TABLE WordIdMap (oldId INTEGER PRIMARY KEY, newId INTEGER NOT NULL)");
+        tx.execute("INSERT INTO WordIdMap SELECT w.wordId, ROW_NUMBER() OVER (ORDER BY w.wordId) - 1 FROM WordIndex w"
+                + " WHERE w.typePrefix = {0} AND EXISTS (SELECT 1 FROM {1} p WHERE p.wordId = w.wordId)", prefix, postings);
+
+        int stems = 0;
+        for (String table : List.of("WordIndex", "ForwardIndex", "TermStatistics", "VectorWeight")) {
+            int deleted = tx.execute("DELETE FROM {0} WHERE typePrefix = {1} AND wordId NOT IN (SELECT oldId FROM WordIdMap)",
+                    DSL.name(table), prefix);
+            if (table.equals("WordIndex")) {
+                stems = deleted;
+            }
+            // The word IDs are negated first, so that two rows never have the same word ID in between
+            tx.execute("UPDATE {0} SET wordId = -1 - (SELECT newId FROM WordIdMap WHERE oldId = {0}.wordId) WHERE typePrefix = {1}",
+                    DSL.name(table), prefix);
+            tx.execute("UPDATE {0} SET wordId = -1 - wordId WHERE typePrefix = {1}", DSL.name(table), prefix);
+        }
+
+        tx.alterTable(postings).renameTo(oldPostings).execute();
+        tx.alterTable(forms).renameTo(oldForms).execute();
+        DatabaseConnection.createPostingsTable(tx, operator.getPostingsTable());
+        DatabaseConnection.createSurfaceFormTable(tx, operator.getSurfaceFormTable());
+        tx.execute("INSERT INTO {0} SELECT m.newId, s.formId, s.rawWord"
+                + " FROM (SELECT DISTINCT wordId, formId FROM {1} WHERE formId <> 0) u"
+                + " JOIN WordIdMap m ON m.oldId = u.wordId"
+                + " JOIN {2} s ON s.wordId = u.wordId AND s.formId = u.formId", forms, oldPostings, oldForms);
+        tx.execute("INSERT INTO {0} SELECT m.newId, p.docId, p.paragraph, p.sentence, p.location, p.formId"
+                + " FROM {1} p JOIN WordIdMap m ON m.oldId = p.wordId"
+                + " ORDER BY m.newId, p.docId, p.paragraph, p.sentence, p.location", postings, oldPostings);
+        int surfaceForms = tx.fetchCount(DSL.table(oldForms)) - tx.fetchCount(DSL.table(forms));
+        tx.dropTable(oldPostings).execute();
+        tx.dropTable(oldForms).execute();
+        tx.execute("DROP TABLE temp.WordIdMap");
+        return new int[]{stems, surfaceForms};
+    }
+
+    /**
+     * Picks up to {@link #SAMPLE_SIZE} stems, evenly spaced by word ID.
+     */
+    private static List<String> sampleStems(TableOperation operator) {
+        List<Integer> ids = operator.getWordIds().stream().sorted().toList();
+        int step = Math.max(1, ids.size() / SAMPLE_SIZE);
+        return IntStream.range(0, ids.size()).filter(i -> i % step == 0).limit(SAMPLE_SIZE)
+                .mapToObj(i -> operator.getStemFromId(ids.get(i))).toList();
+    }
+
+    /**
+     * Picks up to {@link #SAMPLE_SIZE} document IDs, evenly spaced.
+     */
+    private static List<Integer> sampleDocIds(IndexStore conn) {
+        List<Integer> ids = conn.getDocuments().stream().map(Document::id).sorted().toList();
+        int step = Math.max(1, ids.size() / SAMPLE_SIZE);
+        return IntStream.range(0, ids.size()).filter(i -> i % step == 0).limit(SAMPLE_SIZE)
+                .mapToObj(ids::get).toList();
+    }
+
+    /**
+     * Reads the postings of each stem, and the words of each document, and returns the time taken
+     * in milliseconds. The queries are run once before they are timed, so that both runs start warm.
+     */
+    private static double timeQueries(IndexStore conn, List<String> stems, List<Integer> docIds) {
+        runQueries(conn, stems, docIds);
+        long start = System.nanoTime();
+        runQueries(conn, stems, docIds);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static void runQueries(IndexStore conn, List<String> stems, List<Integer> docIds) {
+        TableOperation body = conn.bodyOperator();
+        for (String stem : stems) {
+            int id = body.getIdFromStem(stem);
+            if (id != -1) {
+                body.getFrequency(id);
+            }
+        }
+        for (int docId : docIds) {
+            conn.loadWords(conn.getDocFromId(docId));
+        }
+    }
+
+    private static long size(Path dbPath) throws IOException {
+        Path wal = Path.of(dbPath + "-wal");
+        return Files.size(dbPath) + (Files.exists(wal) ? Files.size(wal) : 0);
+    }
+}
@@ -0,0 +1,304 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.WordInfo;
+import hk.ust.comp4321.se.SearchVector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A versioned binary snapshot of a whole index, which can be loaded into an
+ * {@link InMemoryIndexStore} without reading the database.
+ *
+ * <p>The snapshot holds everything the web server keeps in memory: the documents,
+ * the term dictionaries, the word frequencies and vectors of every document, and the
+ * link graph. It is read with one sequential pass over the file, so loading it is
+ * bounded by the speed of reading the file from disk.
+ *
+ * <p>A snapshot file is laid out as follows, with all integers in big-endian order
+ * and all strings in the format of {@link DataOutput#writeUTF(String)}:
+ * <ol>
+ *     <li>A header, holding the magic number, the version, the size and last modified time
+ *          of the database the snapshot was exported from, and the number of documents
+ *          (see {@link DatabaseConnection#getDocSize()}).</li>
+ *     <li>The title and the body dictionaries, as a count followed by word ID and stem pairs.</li>
+ *     <li>The documents, as a count followed by one record per document: the document row,
+ *          the children links, then the forward index entries, word frequencies and vector
+ *          of the title and of the body.</li>
+ * </ol>
+ *
+ * <p>A snapshot is stale once the database it was exported from is changed;
+ * see {@link #isFresh(Path, Path)}.
+ */
+public final class IndexSnapshot {
+    static final int MAGIC = 0x534E5031;
+    static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private IndexSnapshot() {
+        throw new AssertionError("IndexSnapshot cannot be instantiated!");
+    }
+
+    /**
+     * Exports a database into a snapshot file.
+     * Usage: {@code IndexSnapshot [database] [snapshot]}; the paths default to
+     * {@code spider_result.db} and {@code spider_result.snapshot}.
+     * @param args The path of the database, and the path of the snapshot file
+     * @throws SQLException If reading from the database fails
+     * @throws IOException If writing the snapshot file fails
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        Path dbPath = Path.of(args.length > 0 ? args[0] : "spider_result.db");
+        Path output = Path.of(args.length > 1 ? args[1] : "spider_result.snapshot");
+        export(dbPath, output);
+    }
+
+    /**
+     * Exports a database into a snapshot file.
+     *
+     * <p>The database is copied into memory and closed before the snapshot is written,
+     * so the size and last modified time recorded are those of the database at rest.
+     * @param database The path of the database
+     * @param output The path of the snapshot file; replaced if it exists
+     * @throws SQLException If reading from the database fails
+     * @throws IOException If writing the snapshot file fails
+     */
+    public static void export(Path database, Path output) throws SQLException, IOException {
+        InMemoryIndexStore store;
+        try (DatabaseConnection conn = new DatabaseConnection(database)) {
+            store = InMemoryIndexStore.copyOf(conn);
+        }
+        write(store, Files.size(database), Files.getLastModifiedTime(database).toMillis(), output);
+    }
+
+    /**
+     * Writes the contents of an index store into a snapshot file.
+     * @param conn The index store to read from
+     * @param sourceSize The size of the database the index store was read from
+     * @param sourceModified The last modified time of the database, in milliseconds since the epoch
+     * @param output The path of the snapshot file; replaced if it exists
+     * @throws IOException If writing the snapshot file fails
+     */
+    static void write(IndexStore conn, long sourceSize, long sourceModified, Path output) throws IOException {
+        List<Document> docs = new ArrayList<>(conn.loadDocuments());
+        docs.sort(Comparator.comparingInt(Document::id));
+        Map<Integer, SearchVector> titleVectors = conn.titleOperator().getVectors();
+        Map<Integer, SearchVector> bodyVectors = conn.bodyOperator().getVectors();
+        Files.deleteIfExists(output);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeLong(DatabaseConnection.getDocSize());
+            writeDictionary(out, conn.titleOperator());
+            writeDictionary(out, conn.bodyOperator());
+            out.writeInt(docs.size());
+            for (Document doc : docs) {
+                out.writeInt(doc.id());
+                out.writeUTF(doc.url().toString());
+                out.writeLong(doc.lastModified().getEpochSecond());
+                out.writeInt(doc.lastModified().getNano());
+                out.writeLong(doc.size());
+                out.writeUTF(doc.title());
+                out.writeInt(doc.children().size());
+                for (URL child : doc.children()) {
+                    out.writeUTF(child.toString());
+                }
+                writeField(out, conn.titleOperator(), doc.id(), doc.titleFrequencies(), titleVectors.get(doc.id()));
+                writeField(out, conn.bodyOperator(), doc.id(), doc.bodyFrequencies(), bodyVectors.get(doc.id()));
+            }
+        }
+    }
+
+    private static void writeDictionary(DataOutputStream out, TableOperation operator) throws IOException {
+        List<Integer> wordIds = operator.getWordIds();
+        out.writeInt(wordIds.size());
+        for (int wordId : wordIds) {
+            out.writeInt(wordId);
+            out.writeUTF(operator.getStemFromId(wordId));
+        }
+    }
+
+    private static void writeField(DataOutputStream out, TableOperation operator, int docId,
+                                   Map<WordInfo, String> freqs, SearchVector vector) throws IOException {
+        List<Integer> stemIds = operator.getStemIds(docId);
+        out.writeInt(stemIds.size());
+        for (int stemId : stemIds) {
+            out.writeInt(stemId);
+        }
+        out.writeInt(freqs.size());
+        for (Map.Entry<WordInfo, String> entry : freqs.entrySet()) {
+            WordInfo info = entry.getKey();
+            out.writeInt(operator.getIdFromStem(entry.getValue()));
+            out.writeInt(info.paragraph());
+            out.writeInt(info.sentence());
+            out.writeInt(info.wordLocation());
+            out.writeUTF(info.rawWord());
+        }
+        if (vector == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(vector.getWeights().size());
+        for (Map.Entry<String, Double> entry : vector.getWeights().entrySet()) {
+            out.writeInt(operator.getIdFromStem(entry.getKey()));
+            out.writeDouble(entry.getValue());
+        }
+        out.writeDouble(vector.norm());
+        out.writeInt(freqs.values().stream()
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()))
+                .values().stream().mapToInt(Long::intValue).max().orElse(0));
+    }
+
+    /**
+     * Checks if a snapshot was exported from the current contents of a database.
+     *
+     * <p>The snapshot is fresh if the database has the same size and last modified time as
+     * when the snapshot was exported, and has no uncommitted changes in its write-ahead log.
+     * Only the header of the snapshot is read.
+     * @param snapshot The path of the snapshot file
+     * @param database The path of the database
+     * @return True if the snapshot can be used instead of the database; false if it is stale,
+     * or either file does not exist
+     * @throws IOException If the snapshot cannot be read, or is not a snapshot file of this version
+     */
+    public static boolean isFresh(Path snapshot, Path database) throws IOException {
+        if (!Files.exists(snapshot) || !Files.exists(database)) {
+            return false;
+        }
+        Path wal = database.resolveSibling(database.getFileName() + "-wal");
+        if (Files.exists(wal) && Files.size(wal) > 0) {
+            return false;
+        }
+        try (DataInputStream in = open(snapshot)) {
+            return in.readLong() == Files.size(database)
+                    && in.readLong() == Files.getLastModifiedTime(database).toMillis();
+        }
+    }
+
+    /**
+     * Loads a snapshot file into a new in-memory index store.
+     *
+     * <p>The number of documents is initialized from the snapshot if it has not been
+     * initialized yet (e.g. by opening a database).
+     * @param snapshot The path of the snapshot file
+     * @return The in-memory index store with the contents of the snapshot
+     * @throws IOException If the snapshot cannot be read, or is not a snapshot file of this version
+     */
+    public static InMemoryIndexStore load(Path snapshot) throws IOException {
+        try (DataInputStream in = open(snapshot)) {
+            in.readLong(); // source size
+            in.readLong(); // source last modified time
+            DatabaseConnection.initNextDocId((int) in.readLong());
+            InMemoryIndexStore store = new InMemoryIndexStore();
+            InMemoryTableOperation title = (InMemoryTableOperation) store.titleOperator();
+            InMemoryTableOperation body = (InMemoryTableOperation) store.bodyOperator();
+            readDictionary(in, title);
+            readDictionary(in, body);
+            int docCount = in.readInt();
+            Map<Integer, List<URL>> links = new HashMap<>();
+            List<VectorRecord> vectors = new ArrayList<>();
+            for (int i = 0; i < docCount; i++) {
+                int docId = in.readInt();
+                URL url = toUrl(in.readUTF());
+                Instant lastModified = Instant.ofEpochSecond(in.readLong(), in.readInt());
+                long size = in.readLong();
+                store.insertDocument(new Document(url, docId, lastModified, size, in.readUTF()));
+                int childCount = in.readInt();
+                List<URL> children = new ArrayList<>(childCount);
+                for (int j = 0; j < childCount; j++) {
+                    children.add(toUrl(in.readUTF()));
+                }
+                links.put(docId, children);
+                readField(in, title, docId, vectors);
+                readField(in, body, docId, vectors);
+            }
+            // Links may point to documents later in the snapshot, and vectors must see all the postings
+            links.forEach((docId, children) -> children.forEach(child -> store.insertLink(docId, child)));
+            vectors.forEach(VectorRecord::put);
+            return store;
+        }
+    }
+
+    private static DataInputStream open(Path snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file: " + snapshot);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version %d: %s".formatted(version, snapshot));
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e instanceof EOFException ? new IOException("Not a snapshot file: " + snapshot, e) : e;
+        }
+    }
+
+    private static void readDictionary(DataInputStream in, InMemoryTableOperation operator) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int wordId = in.readInt();
+            operator.putStem(in.readUTF(), wordId);
+        }
+    }
+
+    private static void readField(DataInputStream in, InMemoryTableOperation operator, int docId,
+                                  List<VectorRecord> vectors) throws IOException {
+        int stemCount = in.readInt();
+        for (int i = 0; i < stemCount; i++) {
+            operator.addForward(docId, in.readInt());
+        }
+        int freqCount = in.readInt();
+        for (int i = 0; i < freqCount; i++) {
+            int wordId = in.readInt();
+            operator.addPosting(wordId, new WordInfo(docId, in.readInt(), in.readInt(), in.readInt(), in.readUTF()));
+        }
+        int weightCount = in.readInt();
+        if (weightCount == -1) {
+            return;
+        }
+        Map<Integer, Double> weights = new HashMap<>();
+        for (int i = 0; i < weightCount; i++) {
+            weights.put(in.readInt(), in.readDouble());
+        }
+        vectors.add(new VectorRecord(operator, docId, in.readDouble(), in.readInt(), weights));
+    }
+
+    private static URL toUrl(String url) throws IOException {
+        try {
+            return new URI(url).toURL();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid URL in snapshot: " + url, e);
+        }
+    }
+
+    /**
+     * A vector read from the snapshot, which is added after all the word frequencies are read.
+     */
+    private record VectorRecord(InMemoryTableOperation operator, int docId, double norm, int maxTf,
+                                Map<Integer, Double> weights) {
+        private void put() {
+            operator.putVector(docId, maxTf, norm, weights);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.WordInfo;
+import hk.ust.comp4321.se.SearchVector;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents a store of the indexed documents, their words and their links.
+ *
+ * <p>The search engine, the spider and the web server only depend on this
+ * interface, so the storage backend can be selected at startup
+ * (see {@link #open(String, Path)}). There are two implementations:
+ * <ul>
+ *     <li>{@link DatabaseConnection}, which stores the index in an SQLite database.</li>
+ *     <li>{@link InMemoryIndexStore}, which keeps the index in memory only.</li>
+ * </ul>
+ *
+ * <p>The document IDs are allocated by {@link DatabaseConnection#nextDocId()}
+ * regardless of the implementation in use.
+ */
+public interface IndexStore extends AutoCloseable {
+    /**
+     * Opens an index store with the named backend.
+     * @param backend The name of the backend; either {@code sqlite} or {@code memory}
+     * @param path The path of the database; ignored by the in-memory backend
+     * @return The opened index store
+     * @throws SQLException If connecting or creating the database fails
+     * @throws IllegalArgumentException If there is no backend with the name
+     */
+    static IndexStore open(String backend, Path path) throws SQLException {
+        return switch (backend) {
+            case "sqlite" -> new DatabaseConnection(path);
+            case "memory" -> new InMemoryIndexStore();
+            default -> throw new IllegalArgumentException("No such index store: " + backend);
+        };
+    }
+
+    /**
+     * Retrieves a document by its ID.
+     *
+     * <p>Note: The word frequencies and children of this document have not been loaded.
+     *
+     * @param docId The document ID to find a document for
+     * @throws IllegalArgumentException If the document ID is invalid
+     * @return The document associated with this ID.
+     */
+    Document getDocFromId(int docId);
+
+    /**
+     * Checks if a document ID exists in the index.
+     * @param docId The document ID to verify the existence of
+     * @return True if the document ID exists in the index; false otherwise
+     */
+    boolean hasDocId(int docId);
+
+    /**
+     * Retrieves a document by its URL.
+     *
+     * <p>Note: The word frequencies and children of this document have not been loaded.
+     *
+     * @param url The corresponding URL to find a document for
+     * @throws IllegalArgumentException If the URL is invalid
+     * @return The document associated with this URL.
+     */
+    Document getDocFromUrl(URL url);
+
+    /**
+     * Checks if a document exists in the index by its URL.
+     * @param url The document with corresponding URL to verify the existence of
+     * @return True if the document exists in the index; false otherwise
+     */
+    boolean hasDocUrl(URL url);
+
+    /**
+     * Inserts a document into the index, or updates its last modified time
+     * if it exists.
+     *
+     * <p>This does not insert the document's words into the index.
+     * @param doc The document to insert into
+     */
+    void insertDocument(Document doc);
+
+    /**
+     * Inserts a document and all of its title and body words into the index.
+     * Either all of them are written, or none of them are.
+     *
+     * <p>This does not insert the document's links into the index.
+     * @param doc The document to write the words of
+     */
+    void writeWords(Document doc);
+
+    /**
+     * Retrieves all the documents in the index.
+     *
+     * <p>Note: The word frequencies and children of these documents have not been loaded.
+     * @return The list of all documents
+     */
+    List<Document> getDocuments();
+
+    /**
+     * Retrieves all the documents in the index, and loads their
+     * word frequencies and children.
+     * @return The list of all documents, with their words and children loaded
+     */
+    default List<Document> loadDocuments() {
+        List<Document> docs = getDocuments();
+        loadDocuments(docs);
+        return docs;
+    }
+
+    /**
+     * Loads the word frequencies and children of all the documents specified.
+     * @param docs The documents to load
+     */
+    void loadDocuments(List<Document> docs);
+
+    /**
+     * Loads the title and body word frequencies of a single document.
+     *
+     * <p>By default, the word IDs of the document are found through the forward index
+     * (see {@link TableOperation#getStemIds(int)}), and the word frequencies of each word ID
+     * are read separately, so this costs one lookup per distinct word of the document.
+     * @param doc The document to load the words of
+     */
+    default void loadWords(Document doc) {
+        loadWords(doc.id(), titleOperator(), doc.titleFrequencies());
+        loadWords(doc.id(), bodyOperator(), doc.bodyFrequencies());
+    }
+
+    private static void loadWords(int docId, TableOperation operator, Map<WordInfo, String> words) {
+        for (int stemId : operator.getStemIds(docId)) {
+            String stem = operator.getStemFromId(stemId);
+            for (WordInfo wordInfo : operator.getFrequency(stemId, docId)) {
+                words.put(wordInfo, stem);
+            }
+        }
+    }
+
+    /**
+     * Loads the stored title and body vectors of all the documents specified.
+     *
+     * <p>Stale vectors are computed again, but not stored (see {@link TableOperation#getVectors()}),
+     * so the documents are ready to be scored without computing their vectors.
+     * @param docs The documents to load the vectors of
+     */
+    default void loadVectors(List<Document> docs) {
+        Map<Integer, SearchVector> titles = titleOperator().getVectors();
+        Map<Integer, SearchVector> bodies = bodyOperator().getVectors();
+        SearchVector empty = new SearchVector(List.of(), List.of());
+        docs.forEach(doc -> doc.setVectors(titles.getOrDefault(doc.id(), empty), bodies.getOrDefault(doc.id(), empty)));
+    }
+
+    /**
+     * Computes and stores the title and body vectors of all documents which are missing or stale.
+     *
+     * <p>This should be called after indexing, so that the vectors do not have to be
+     * computed when the index is served.
+     */
+    default void refreshVectors() {
+        titleOperator().refreshVectors();
+        bodyOperator().refreshVectors();
+    }
+
+    /**
+     * Inserts a link into the index.
+     * @param docId The parent document ID
+     * @param child The child URL
+     */
+    void insertLink(int docId, URL child);
+
+    /**
+     * Retrieves the list of children URLs for the specified document ID.
+     *
+     * @param docId The document ID to retrieve the children for
+     * @return A list of child URLs for the specified document ID
+     */
+    List<URL> children(int docId);
+
+    /**
+     * Retrieves the list of child documents for the specified document ID.
+     *
+     * <p>Unlike {@link #children(int)}, child URLs which have not been indexed
+     * as documents are not included.
+     *
+     * <p>Note: The word frequencies and children of these documents have not been loaded.
+     * @param docId The document ID to retrieve the child documents for
+     * @return A list of child documents for the specified document ID; or an empty list if the document ID does not exist
+     */
+    List<Document> childDocuments(int docId);
+
+    /**
+     * Retrieves the list of parent documents for the specified document ID.
+     *
+     * <p>Note: The word frequencies and children of these documents have not been loaded.
+     * @param docId The document ID to retrieve the parents for
+     * @return A list of parent documents for the specified document ID; or an empty list if the document ID does not exist
+     */
+    List<Document> parents(int docId);
+
+    /**
+     * Retrieves the list of parent documents for the specified URL.
+     *
+     * <p>Note: The word frequencies and children of these documents have not been loaded.
+     * @param url The URL to retrieve the parents for
+     * @return A list of parent documents for the specified document ID
+     */
+    List<Document> parents(URL url);
+
+    /**
+     * Drops all the word frequency records associated with this document ID,
+     * together with its forward index entries.
+     * @param docId The document ID to purge frequencies for
+     */
+    void deleteFrequencies(int docId);
+
+    /**
+     * Drops all the children links associated with this document ID.
+     * @param docId The document ID to purge links for
+     */
+    void deleteChildren(int docId);
+
+    /**
+     * Gets the TableOperation object which operates on the words
+     * in the body of a document.
+     * @return The TableOperation object to operate on words associated
+     *         with document bodies
+     */
+    TableOperation bodyOperator();
+
+    /**
+     * Gets the TableOperation object which operates on the words
+     * in the title of a document.
+     * @return The TableOperation object to operate on words associated
+     *         with document titles
+     */
+    TableOperation titleOperator();
+
+    /**
+     * {@inheritDoc}
+     * @throws SQLException If closing the underlying database throws an exception
+     */
+    @Override
+    void close() throws SQLException;
+}
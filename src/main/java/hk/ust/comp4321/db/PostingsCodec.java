@@ -0,0 +1,351 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Positions;
+import hk.ust.comp4321.api.WordInfo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Encodes and decodes all the word frequencies of one stem as a compressed blob.
+ *
+ * <p>The word frequencies are sorted by document ID, paragraph, sentence and
+ * location, and every integer is written as a variable-byte integer (7 bits per byte,
+ * with the high bit set on every byte except the last). The blob is laid out as follows:
+ * <ol>
+ *     <li>The number of documents, and the total number of word frequencies.</li>
+ *     <li>For each document: the gap from the previous document ID (the document ID itself
+ *          for the first document), the number of word frequencies in the document, and the
+ *          length in bytes of the positions of the document.</li>
+ *     <li>For each word frequency in the document: the gap from the previous paragraph.
+ *          If the paragraph is the same, the sentence is stored as a gap as well; otherwise
+ *          it is stored as is. The location is stored in the same way, relative to the
+ *          sentence. The raw word follows, as its length in bytes and its UTF-8 bytes.</li>
+ * </ol>
+ *
+ * <p>Since the positions of each document are prefixed by their length, visiting only
+ * the document IDs and term frequencies skips over the positions without decoding them.
+ *
+ * <p>The SQLite store keeps its postings as rows; the codec backs the postings of segment files
+ * (see {@link hk.ust.comp4321.db.segment.Segment}) and the stored term vector of each document.
+ */
+public final class PostingsCodec {
+    static final Comparator<WordInfo> ORDER = (a, b) -> {
+        int cmp = Integer.compare(a.docId(), b.docId());
+        return cmp != 0 ? cmp : Long.compare(a.position(), b.position());
+    };
+
+    private PostingsCodec() {
+        throw new AssertionError("PostingsCodec cannot be instantiated!");
+    }
+
+    /**
+     * Visitor of the documents in a postings blob.
+     */
+    @FunctionalInterface
+    public interface DocumentVisitor {
+        /**
+         * Visits a document containing the stem.
+         * @param docId The document ID
+         * @param termFreq The number of times the stem appears in the document
+         */
+        void visit(int docId, int termFreq);
+    }
+
+    /**
+     * Visitor of the word positions in a postings blob.
+     */
+    @FunctionalInterface
+    public interface PositionVisitor {
+        /**
+         * Visits a single position of the stem.
+         * @param docId The document ID
+         * @param paragraph The paragraph the word is in
+         * @param sentence The sentence the word is in
+         * @param location The location of the word
+         */
+        void visit(int docId, int paragraph, int sentence, int location);
+    }
+
+    /**
+     * Encodes the word frequencies of a stem.
+     * @param freqs The word frequencies to encode, in any order
+     * @return The encoded blob
+     * @throws IllegalArgumentException If any of the word frequencies has a negative field,
+     * or a position which cannot be packed (see {@link Positions#pack(int, int, int)})
+     */
+    public static byte[] encode(List<WordInfo> freqs) {
+        WordInfo[] infos = freqs.toArray(new WordInfo[0]);
+        int count = infos.length;
+        int[] docIds = new int[count];
+        long[] positions = new long[count];
+        for (int i = 0; i < count; i++) {
+            docIds[i] = infos[i].docId();
+            positions[i] = infos[i].position();
+        }
+        int[] order = Positions.order(count, (i, j) -> {
+            int cmp = Integer.compare(docIds[i], docIds[j]);
+            return cmp != 0 ? cmp : Long.compare(positions[i], positions[j]);
+        });
+        Buffer out = new Buffer(count * 6 + 8);
+        Buffer block = new Buffer(64);
+        int docCount = 0;
+        for (int k = 0; k < count; k++) {
+            if (k == 0 || docIds[order[k]] != docIds[order[k - 1]]) {
+                docCount++;
+            }
+        }
+        out.writeVarInt(docCount);
+        out.writeVarInt(count);
+
+        int prevDoc = 0;
+        int start = 0;
+        while (start < count) {
+            int docId = docIds[order[start]];
+            int end = start;
+            int paragraph = 0;
+            int sentence = 0;
+            int location = 0;
+            block.clear();
+            for (; end < count && docIds[order[end]] == docId; end++) {
+                long position = positions[order[end]];
+                int nextParagraph = Positions.paragraph(position);
+                int nextSentence = Positions.sentence(position);
+                int nextLocation = Positions.location(position);
+                block.writeVarInt(nextParagraph - paragraph);
+                if (nextParagraph != paragraph) {
+                    sentence = 0;
+                    location = 0;
+                }
+                block.writeVarInt(nextSentence - sentence);
+                if (nextSentence != sentence) {
+                    location = 0;
+                }
+                block.writeVarInt(nextLocation - location);
+                paragraph = nextParagraph;
+                sentence = nextSentence;
+                location = nextLocation;
+                byte[] raw = infos[order[end]].rawWord().getBytes(StandardCharsets.UTF_8);
+                block.writeVarInt(raw.length);
+                block.write(raw);
+            }
+            out.writeVarInt(docId - prevDoc);
+            out.writeVarInt(end - start);
+            out.writeVarInt(block.size());
+            out.write(block.bytes, block.size());
+            prevDoc = docId;
+            start = end;
+        }
+        return out.toArray();
+    }
+
+    /**
+     * Gets the number of documents in the blob, without decoding the rest of it.
+     * @param blob The encoded blob
+     * @return The document frequency of the stem
+     */
+    public static int docFreq(byte[] blob) {
+        return docFreq(ByteBuffer.wrap(blob));
+    }
+
+    /**
+     * Gets the number of documents in the blob, without decoding the rest of it.
+     * The position of the buffer is not changed.
+     * @param blob The buffer holding the encoded blob, from its position
+     * @return The document frequency of the stem
+     */
+    public static int docFreq(ByteBuffer blob) {
+        return new Reader(blob).readVarInt();
+    }
+
+    /**
+     * Visits every document in the blob, skipping over the positions.
+     * @param blob The encoded blob
+     * @param visitor The visitor to call on each document, in increasing order of document ID
+     */
+    public static void forEachDocument(byte[] blob, DocumentVisitor visitor) {
+        forEachDocument(ByteBuffer.wrap(blob), visitor);
+    }
+
+    /**
+     * Visits every document in the blob, skipping over the positions.
+     * The buffer is read in place, and its position is not changed.
+     * @param blob The buffer holding the encoded blob, from its position
+     * @param visitor The visitor to call on each document, in increasing order of document ID
+     */
+    public static void forEachDocument(ByteBuffer blob, DocumentVisitor visitor) {
+        Reader in = new Reader(blob);
+        int docCount = in.readVarInt();
+        in.readVarInt();
+        int docId = 0;
+        for (int i = 0; i < docCount; i++) {
+            docId += in.readVarInt();
+            int termFreq = in.readVarInt();
+            in.skip(in.readVarInt());
+            visitor.visit(docId, termFreq);
+        }
+    }
+
+    /**
+     * Visits every position in the blob, without decoding the raw words.
+     * @param blob The encoded blob
+     * @param visitor The visitor to call on each position, in sorted order
+     */
+    public static void forEachPosition(byte[] blob, PositionVisitor visitor) {
+        forEachPosition(ByteBuffer.wrap(blob), visitor, null);
+    }
+
+    /**
+     * Visits every position in the blob, without decoding the raw words.
+     * The buffer is read in place, and its position is not changed.
+     * @param blob The buffer holding the encoded blob, from its position
+     * @param visitor The visitor to call on each position, in sorted order
+     */
+    public static void forEachPosition(ByteBuffer blob, PositionVisitor visitor) {
+        forEachPosition(blob, visitor, null);
+    }
+
+    /**
+     * Decodes all the word frequencies in the blob, including the raw words.
+     * @param blob The encoded blob
+     * @return The list of word frequencies, in sorted order
+     */
+    public static List<WordInfo> decode(byte[] blob) {
+        List<WordInfo> result = new ArrayList<>();
+        String[] rawWord = new String[1];
+        forEachPosition(ByteBuffer.wrap(blob), (docId, paragraph, sentence, location) ->
+                result.add(new WordInfo(docId, paragraph, sentence, location, rawWord[0])),
+                raw -> rawWord[0] = raw);
+        return result;
+    }
+
+    /**
+     * Visits every position in the blob.
+     * @param blob The encoded blob
+     * @param visitor The visitor to call on each position, in sorted order
+     * @param rawWords The action to call on the raw word of each position, before the visitor is called;
+     *                 null if the raw words should be skipped
+     */
+    private static void forEachPosition(ByteBuffer blob, PositionVisitor visitor, Consumer<String> rawWords) {
+        Reader in = new Reader(blob);
+        int docCount = in.readVarInt();
+        in.readVarInt();
+        int docId = 0;
+        for (int i = 0; i < docCount; i++) {
+            docId += in.readVarInt();
+            int termFreq = in.readVarInt();
+            in.readVarInt();
+            int paragraph = 0;
+            int sentence = 0;
+            int location = 0;
+            for (int j = 0; j < termFreq; j++) {
+                int paragraphGap = in.readVarInt();
+                int sentenceGap = in.readVarInt();
+                int locationGap = in.readVarInt();
+                paragraph += paragraphGap;
+                sentence = paragraphGap == 0 ? sentence + sentenceGap : sentenceGap;
+                location = paragraphGap == 0 && sentenceGap == 0 ? location + locationGap : locationGap;
+                int length = in.readVarInt();
+                if (rawWords == null) {
+                    in.skip(length);
+                } else {
+                    rawWords.accept(in.readString(length));
+                }
+                visitor.visit(docId, paragraph, sentence, location);
+            }
+        }
+    }
+
+    /**
+     * A growable byte array to encode into.
+     */
+    private static final class Buffer {
+        private byte[] bytes;
+        private int size = 0;
+
+        private Buffer(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        private void writeVarInt(int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Cannot encode negative value: " + value);
+            }
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void write(byte[] src) {
+            write(src, src.length);
+        }
+
+        private void write(byte[] src, int length) {
+            ensureCapacity(length);
+            System.arraycopy(src, 0, bytes, size, length);
+            size += length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void clear() {
+            size = 0;
+        }
+
+        private byte[] toArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * A cursor over an encoded blob, which reads the buffer with absolute indices.
+     */
+    private static final class Reader {
+        private final ByteBuffer bytes;
+        private int pos;
+
+        private Reader(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.pos = bytes.position();
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes.get(pos++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        private String readString(int length) {
+            byte[] raw = new byte[length];
+            bytes.get(pos, raw);
+            pos += length;
+            return new String(raw, StandardCharsets.UTF_8);
+        }
+
+        private void skip(int length) {
+            pos += length;
+        }
+    }
+}
@@ -0,0 +1,772 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.WordInfo;
+import hk.ust.comp4321.se.SearchVector;
+import org.jooq.BatchBindStep;
+import org.jooq.Condition;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Encapsulates operations on a group (or a type) of tables in the SQLite database.
+ *
+ * <p>Each group has a single postings table
+ * (see {@link #getPostingsTable()}), clustered by word ID, which
+ * holds the word frequencies of every stem with the same prefix.
+ * The class operates on all stems with the prefix as a group;
+ * this allows for more efficient manipulation and code reuse.
+ *
+ * <p>The raw words of the word frequencies are not stored in the postings table.
+ * Each distinct raw word of a stem is stored once in the surface form table
+ * (see {@link #getSurfaceFormTable()}), and the postings refer to it by a form ID
+ * which is only unique within the stem; form ID 0 is the empty raw word.
+ */
+public abstract class SqliteTableOperation implements TableOperation {
+    private static final List<Field<?>> POSTING_FIELDS = Stream.<Field<?>>concat(
+            Stream.of("docId", "paragraph", "sentence", "location").map(s -> DSL.field(DSL.name("p", s))),
+            Stream.of(DSL.coalesce(DSL.field(DSL.name("s", "rawWord"), String.class), DSL.inline(""))))
+            .toList();
+    private static final Field<Object> WORD_ID = DSL.field(DSL.name("p", "wordId"));
+    private final DSLContext create;
+    private final StatementCache statements;
+    private final String stemIdsQuery;
+    private final String frequencyQuery;
+    private final String docFrequencyQuery;
+    private final String docIdsQuery;
+    private final String termStatisticsQuery;
+    private final String fieldStatisticsQuery;
+    private final String vectorQuery;
+    private final String vectorWeightQuery;
+    private final Table<?> postingsWithForms;
+
+    SqliteTableOperation(DSLContext create, StatementCache statements) {
+        this.create = create;
+        this.statements = statements;
+        Table<?> postings = DSL.table(DSL.name(getPostingsTable()));
+        postingsWithForms = postings.as("p")
+                .leftJoin(DSL.table(DSL.name(getSurfaceFormTable())).as("s"))
+                .on(DSL.field(DSL.name("s", "wordId")).eq(WORD_ID)
+                        .and(DSL.field(DSL.name("s", "formId")).eq(DSL.field(DSL.name("p", "formId")))));
+        stemIdsQuery = StatementCache.render(DSL.select(DSL.field(DSL.name("wordId")))
+                .from(DSL.table(DSL.name("ForwardIndex")))
+                .where(DSL.condition(DSL.field(DSL.name("typePrefix")).eq(DSL.param("typePrefix")))
+                        .and(DSL.field(DSL.name("docId")).eq(DSL.param("docId")))));
+        frequencyQuery = StatementCache.render(DSL.select(POSTING_FIELDS)
+                .from(postingsWithForms)
+                .where(DSL.condition(WORD_ID.eq(DSL.param("wordId")))));
+        docFrequencyQuery = StatementCache.render(DSL.select(POSTING_FIELDS)
+                .from(postingsWithForms)
+                .where(DSL.condition(WORD_ID.eq(DSL.param("wordId")))
+                        .and(DSL.field(DSL.name("p", "docId")).eq(DSL.param("docId")))));
+        docIdsQuery = StatementCache.render(DSL.selectDistinct(DSL.field(DSL.name("docId")))
+                .from(postings)
+                .where(DSL.condition(DSL.field(DSL.name("wordId")).eq(DSL.param("wordId")))));
+        termStatisticsQuery = StatementCache.render(DSL.select(DSL.field(DSL.name("docFreq")), DSL.field(DSL.name("totalFreq")))
+                .from(DSL.table(DSL.name("TermStatistics")))
+                .where(DSL.condition(DSL.field(DSL.name("typePrefix")).eq(DSL.param("typePrefix")))
+                        .and(DSL.field(DSL.name("wordId")).eq(DSL.param("wordId")))));
+        fieldStatisticsQuery = StatementCache.render(DSL.select(DSL.field(DSL.name("docCount")), DSL.field(DSL.name("totalLength")))
+                .from(DSL.table(DSL.name("FieldStatistics")))
+                .where(DSL.condition(DSL.field(DSL.name("typePrefix")).eq(DSL.param("typePrefix")))));
+        vectorQuery = StatementCache.render(DSL.select(DSL.field(DSL.name("maxTf")), DSL.field(DSL.name("norm")),
+                        DSL.field(DSL.name("docCount")))
+                .from(DSL.table(DSL.name("DocumentVector")))
+                .where(DSL.condition(DSL.field(DSL.name("docId")).eq(DSL.param("docId")))
+                        .and(DSL.field(DSL.name("typePrefix")).eq(DSL.param("typePrefix")))));
+        vectorWeightQuery = StatementCache.render(DSL.select(DSL.field(DSL.name("w", "wordId")), DSL.field(DSL.name("w", "weight")),
+                        DSL.field(DSL.name("w", "docFreq")), DSL.coalesce(DSL.field(DSL.name("t", "docFreq")), DSL.inline(0)))
+                .from(DSL.table(DSL.name("VectorWeight")).as("w"))
+                .leftJoin(DSL.table(DSL.name("TermStatistics")).as("t"))
+                .on(DSL.field(DSL.name("t", "typePrefix")).eq(DSL.field(DSL.name("w", "typePrefix")))
+                        .and(DSL.field(DSL.name("t", "wordId")).eq(DSL.field(DSL.name("w", "wordId")))))
+                .where(DSL.condition(DSL.field(DSL.name("w", "docId")).eq(DSL.param("docId")))
+                        .and(DSL.field(DSL.name("w", "typePrefix")).eq(DSL.param("typePrefix")))));
+    }
+
+    /**
+     * Gets the name of the postings table that this type of table operates on.
+     * @return The name of the postings table for this prefix
+     */
+    public abstract String getPostingsTable();
+
+    /**
+     * Gets the name of the table holding the distinct raw words of each stem of this prefix.
+     * @return The name of the surface form table for this prefix
+     */
+    public abstract String getSurfaceFormTable();
+
+    /**
+     * Gets the next word ID for this prefix.
+     *
+     * @implNote It is expected that subclasses will use static
+     * fields to maintain consistency for IDs. Hence, this method
+     * is abstract in order to allow for the same ID with different
+     * prefixes.
+     * @return The next word ID to allocate for this prefix
+     */
+    @Override
+    public abstract int getNextId();
+
+    /**
+     * Gets the dictionary between the stems and the word IDs of this prefix.
+     *
+     * @implNote As with the word IDs, it is expected that subclasses will
+     * use static fields, so that the dictionary is shared by all instances.
+     * @return The dictionary of this prefix
+     */
+    abstract TermDictionary getDictionary();
+
+    /**
+     * Reloads the dictionary of this prefix from the database.
+     *
+     * <p>This should be called when a transaction which inserted
+     * new stems is rolled back.
+     */
+    void reloadDictionary() {
+        getDictionary().reload(create);
+    }
+
+    /**
+     * Resets the dictionary of this prefix from the database, after the word IDs
+     * have been renumbered; see {@link TermDictionary#reset(DSLContext)}.
+     */
+    void resetDictionary() {
+        getDictionary().reset(create);
+    }
+
+    @Override
+    public List<Integer> getWordIds() {
+        return create.select(DSL.field(DSL.name("wordId"))).from(DSL.table(DSL.name("WordIndex")))
+                .where(DSL.condition(DSL.field(DSL.name("typePrefix")).eq(getPrefix())))
+                .fetch()
+                .map(r -> r.get(0, Integer.class));
+    }
+
+    @Override
+    public List<Integer> getStemIds(int docId) {
+        return statements.fetch(stemIdsQuery, getPrefix(), docId)
+                .map(r -> r.get(0, Integer.class));
+    }
+
+    @Override
+    public void insertWordInfo(int stem, WordInfo freq) {
+        create.transaction(config -> {
+            DSLContext tx = DSL.using(config);
+            Map<Integer, Integer> before = termCounts(tx, freq.docId());
+            if (!freq.rawWord().isEmpty()) {
+                tx.batch(insertSurfaceForm(tx)).bind(stem, freq.rawWord(), stem).execute();
+            }
+            tx.batch(insertPosting(tx))
+                    .bind(stem, freq.docId(), freq.paragraph(), freq.sentence(), freq.wordLocation(), stem, freq.rawWord())
+                    .execute();
+
+            tx.insertInto(DSL.table(DSL.name("ForwardIndex")))
+                    .values(freq.docId(), stem, getPrefix())
+                    .onDuplicateKeyIgnore()
+                    .execute();
+
+            // The stored term vector and TF-IDF vector no longer have every word of the document
+            tx.delete(DSL.table(DSL.name("DocumentTerms")))
+                    .where(DSL.field(DSL.name("docId")).eq(freq.docId()))
+                    .execute();
+            deleteVector(tx, freq.docId());
+            updateStatistics(tx, before, termCounts(tx, freq.docId()));
+        });
+    }
+
+    /**
+     * Inserts all the word frequencies of a document into the database with batched inserts.
+     *
+     * <p>Stems which do not exist yet are inserted first, and the statistics are
+     * updated last. The stored vectors of the documents are deleted, to be computed
+     * again by {@link #refreshVectors()}. This does not start a transaction by itself;
+     * the caller is expected to run this in one.
+     * @param tx The context of the transaction to insert with
+     * @param words The word frequencies to insert, mapped to their stems
+     */
+    void insertWords(DSLContext tx, Map<WordInfo, String> words) {
+        if (words.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> stemIds = insertStems(tx, new HashSet<>(words.values()));
+        Map<Integer, Map<Integer, Integer>> before = new HashMap<>();
+        words.keySet().forEach(freq -> before.computeIfAbsent(freq.docId(), docId -> termCounts(tx, docId)));
+
+        Set<Map.Entry<Integer, String>> forms = new HashSet<>();
+        words.forEach((freq, stem) -> {
+            if (!freq.rawWord().isEmpty()) {
+                forms.add(Map.entry(stemIds.get(stem), freq.rawWord()));
+            }
+        });
+        if (!forms.isEmpty()) {
+            BatchBindStep formBatch = tx.batch(insertSurfaceForm(tx));
+            forms.forEach(form -> formBatch.bind(form.getKey(), form.getValue(), form.getKey()));
+            formBatch.execute();
+        }
+
+        BatchBindStep postings = tx.batch(insertPosting(tx));
+        Set<List<Integer>> forwardEntries = new HashSet<>();
+        words.forEach((freq, stem) -> {
+            int stemId = stemIds.get(stem);
+            postings.bind(stemId, freq.docId(), freq.paragraph(), freq.sentence(), freq.wordLocation(),
+                    stemId, freq.rawWord());
+            forwardEntries.add(List.of(freq.docId(), stemId));
+        });
+        postings.execute();
+
+        BatchBindStep forward = tx.batch(tx.insertInto(DSL.table(DSL.name("ForwardIndex")))
+                .values((Integer) null, (Integer) null, (String) null)
+                .onDuplicateKeyIgnore());
+        forwardEntries.forEach(e -> forward.bind(e.get(0), e.get(1), getPrefix()));
+        forward.execute();
+
+        before.forEach((docId, counts) -> {
+            deleteVector(tx, docId);
+            updateStatistics(tx, counts, termCounts(tx, docId));
+        });
+    }
+
+    /**
+     * Creates the query which adds a raw word to the surface forms of a stem, if it is not there yet.
+     * The new form ID is one more than the largest form ID of the stem.
+     *
+     * <p>The parameters are the word ID, the raw word and the word ID again.
+     * @param tx The context of the transaction to insert with
+     * @return The query to bind and run in a batch
+     */
+    private Query insertSurfaceForm(DSLContext tx) {
+        Field<Integer> formId = DSL.field(DSL.name("formId"), Integer.class);
+        return tx.insertInto(DSL.table(DSL.name(getSurfaceFormTable())))
+                .select(DSL.select(DSL.param("wordId", Integer.class),
+                                DSL.coalesce(DSL.max(formId), DSL.inline(0)).plus(DSL.inline(1)),
+                                DSL.param("rawWord", String.class))
+                        .from(DSL.table(DSL.name(getSurfaceFormTable())))
+                        .where(DSL.field(DSL.name("wordId")).eq(DSL.param("formWordId", Integer.class))))
+                .onDuplicateKeyIgnore();
+    }
+
+    /**
+     * Creates the query which inserts a word frequency into the postings table,
+     * referring to its raw word by form ID.
+     *
+     * <p>The parameters are the word ID, the document ID, the paragraph, the sentence,
+     * the location, then the word ID and the raw word to look up the form ID with.
+     * The surface form must be inserted first, unless the raw word is empty.
+     * @param tx The context of the transaction to insert with
+     * @return The query to bind and run in a batch
+     */
+    private Query insertPosting(DSLContext tx) {
+        Field<Integer> formId = DSL.field(DSL.select(DSL.field(DSL.name("formId"), Integer.class))
+                .from(DSL.table(DSL.name(getSurfaceFormTable())))
+                .where(DSL.field(DSL.name("wordId")).eq(DSL.param("formWordId", Integer.class)))
+                .and(DSL.field(DSL.name("rawWord")).eq(DSL.param("rawWord", String.class))));
+        return tx.insertInto(DSL.table(DSL.name(getPostingsTable())))
+                .values(DSL.param("wordId", Integer.class), DSL.param("docId", Integer.class),
+                        DSL.param("paragraph", Integer.class), DSL.param("sentence", Integer.class),
+                        DSL.param("location", Integer.class), DSL.coalesce(formId, DSL.inline(0)))
+                .onDuplicateKeyIgnore();
+    }
+
+    /**
+     * Inserts the stems into the database if they do not exist, with batched inserts.
+     * @param tx The context of the transaction to insert with
+     * @param stems The stems to insert
+     * @return The word IDs of all the stems
+     */
+    private Map<String, Integer> insertStems(DSLContext tx, Set<String> stems) {
+        TermDictionary dictionary = getDictionary();
+        Map<String, Integer> stemIds = new HashMap<>();
+        List<String> newStems = new ArrayList<>();
+        synchronized (dictionary) {
+            for (String stem : stems) {
+                int id = dictionary.getId(stem);
+                if (id == -1) {
+                    id = getNextId();
+                    dictionary.put(stem, id);
+                    newStems.add(stem);
+                }
+                stemIds.put(stem, id);
+            }
+        }
+        if (!newStems.isEmpty()) {
+            BatchBindStep batch = tx.batch(tx.insertInto(DSL.table(DSL.name("WordIndex")))
+                    .values((String) null, (Integer) null, (String) null));
+            newStems.forEach(stem -> batch.bind(stem, stemIds.get(stem), getPrefix()));
+            batch.execute();
+        }
+        return stemIds;
+    }
+
+    @Override
+    public List<WordInfo> getFrequency(int stem, int docId) {
+        if (!hasWordId(stem)) {
+            return List.of();
+        } else {
+            return statements.fetch(docFrequencyQuery, stem, docId)
+                    .stream().map(r -> new WordInfo(r.get(0, Integer.class), r.get(1, Integer.class),
+                            r.get(2, Integer.class), r.get(3, Integer.class), r.get(4, String.class)))
+                    .toList();
+        }
+    }
+
+    @Override
+    public List<WordInfo> getFrequency(int stem) {
+        if (!hasWordId(stem)) {
+            return List.of();
+        } else {
+            return statements.fetch(frequencyQuery, stem)
+                    .stream().map(r -> new WordInfo(r.get(0, Integer.class), r.get(1, Integer.class),
+                            r.get(2, Integer.class), r.get(3, Integer.class), r.get(4, String.class)))
+                    .toList();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This is a single scan of the postings table, so the word frequencies
+     * are visited in the order of the postings table.
+     */
+    @Override
+    public void forEachFrequency(BiConsumer<WordInfo, String> action) {
+        try (Cursor<Record> cursor = create.select(WORD_ID)
+                .select(POSTING_FIELDS)
+                .from(postingsWithForms)
+                .fetchLazy()) {
+            for (Record r : cursor) {
+                action.accept(new WordInfo(r.get(1, Integer.class), r.get(2, Integer.class),
+                        r.get(3, Integer.class), r.get(4, Integer.class), r.get(5, String.class)),
+                        getStemFromId(r.get(0, Integer.class)));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Only the word IDs recorded in the forward index for the document are
+     * visited, and the forward index entries are dropped in the same transaction.
+     */
+    @Override
+    public void deleteFrequencies(int docId) {
+        create.transaction(config -> deleteFrequencies(DSL.using(config), docId));
+    }
+
+    /**
+     * Deletes all word frequencies, forward index entries and stored vectors in this table
+     * operation group associated with the given document ID, and updates the statistics.
+     * The stored term vector of the document is deleted as well.
+     *
+     * <p>This does not start a transaction by itself; the caller is expected to run this in one.
+     * @param tx The context of the transaction to delete with
+     * @param docId The document IDs to drop
+     */
+    void deleteFrequencies(DSLContext tx, int docId) {
+        updateStatistics(tx, termCounts(tx, docId), Map.of());
+        Condition forwardCondition = DSL.condition(DSL.field(DSL.name("docId")).eq(docId))
+                .and(DSL.field(DSL.name("typePrefix")).eq(getPrefix()));
+        tx.delete(DSL.table(DSL.name(getPostingsTable())))
+                .where(DSL.field(DSL.name("wordId")).in(
+                        DSL.select(DSL.field(DSL.name("wordId")))
+                                .from(DSL.table(DSL.name("ForwardIndex")))
+                                .where(forwardCondition)))
+                .and(DSL.field(DSL.name("docId")).eq(docId))
+                .execute();
+        tx.delete(DSL.table(DSL.name("ForwardIndex")))
+                .where(forwardCondition)
+                .execute();
+        deleteVector(tx, docId);
+        tx.delete(DSL.table(DSL.name("DocumentTerms")))
+                .where(DSL.field(DSL.name("docId")).eq(docId))
+                .execute();
+    }
+
+    /**
+     * Deletes the stored TF-IDF vector of this prefix of a document, if there is one.
+     * @param tx The context of the transaction to delete with
+     * @param docId The document ID to delete the vector of
+     */
+    private void deleteVector(DSLContext tx, int docId) {
+        Condition ofDocument = DSL.field(DSL.name("docId")).eq(docId)
+                .and(DSL.field(DSL.name("typePrefix")).eq(getPrefix()));
+        tx.delete(DSL.table(DSL.name("DocumentVector"))).where(ofDocument).execute();
+        tx.delete(DSL.table(DSL.name("VectorWeight"))).where(ofDocument).execute();
+    }
+
+    /**
+     * Encodes the words of this prefix in a document as a stored term vector.
+     *
+     * <p>The term vector is encoded by {@link PostingsCodec#encode(List)}, with the
+     * word ID in place of the document ID, so the positions are grouped by word ID.
+     * All the stems must have been inserted already.
+     * @param words The word frequencies of the document, mapped to their stems
+     * @return The encoded term vector
+     */
+    byte[] encodeTerms(Map<WordInfo, String> words) {
+        List<WordInfo> terms = new ArrayList<>(words.size());
+        words.forEach((freq, stem) -> terms.add(new WordInfo(getIdFromStem(stem),
+                freq.paragraph(), freq.sentence(), freq.wordLocation(), freq.rawWord())));
+        return PostingsCodec.encode(terms);
+    }
+
+    /**
+     * Decodes a term vector encoded by {@link #encodeTerms(Map)}.
+     * @param blob The encoded term vector
+     * @param docId The ID of the document which the term vector belongs to
+     * @param words The map to put the word frequencies of the document into, mapped to their stems
+     */
+    void decodeTerms(byte[] blob, int docId, Map<WordInfo, String> words) {
+        for (WordInfo term : PostingsCodec.decode(blob)) {
+            words.put(new WordInfo(docId, term.paragraph(), term.sentence(), term.wordLocation(), term.rawWord()),
+                    getStemFromId(term.docId()));
+        }
+    }
+
+    /**
+     * Counts the word frequencies of each word ID in a document, through the forward index.
+     * @param tx The context of the transaction to read with
+     * @param docId The document ID to count the word frequencies of
+     * @return The number of word frequencies of each word ID in the document
+     */
+    private Map<Integer, Integer> termCounts(DSLContext tx, int docId) {
+        return tx.select(DSL.field(DSL.name("p", "wordId"), Integer.class), DSL.count())
+                .from(DSL.table(DSL.name("ForwardIndex")).as("f"))
+                .join(DSL.table(DSL.name(getPostingsTable())).as("p"))
+                .on(DSL.field(DSL.name("p", "wordId")).eq(DSL.field(DSL.name("f", "wordId")))
+                        .and(DSL.field(DSL.name("p", "docId")).eq(DSL.field(DSL.name("f", "docId")))))
+                .where(DSL.field(DSL.name("f", "docId")).eq(docId))
+                .and(DSL.field(DSL.name("f", "typePrefix")).eq(getPrefix()))
+                .groupBy(DSL.field(DSL.name("p", "wordId")))
+                .fetchMap(r -> r.get(0, Integer.class), r -> r.get(1, Integer.class));
+    }
+
+    /**
+     * Updates the statistics with the change to the word frequencies of one document.
+     * @param tx The context of the transaction to update with
+     * @param before The number of word frequencies of each word ID in the document before the change
+     * @param after The number of word frequencies of each word ID in the document after the change
+     */
+    private void updateStatistics(DSLContext tx, Map<Integer, Integer> before, Map<Integer, Integer> after) {
+        Set<Integer> wordIds = new HashSet<>(before.keySet());
+        wordIds.addAll(after.keySet());
+        Field<Integer> docFreq = DSL.field(DSL.name("docFreq"), Integer.class);
+        Field<Long> totalFreq = DSL.field(DSL.name("totalFreq"), Long.class);
+        BatchBindStep batch = tx.batch(tx.insertInto(DSL.table(DSL.name("TermStatistics")))
+                .values((String) null, (Integer) null, (Integer) null, (Long) null)
+                .onConflict(DSL.field(DSL.name("typePrefix")), DSL.field(DSL.name("wordId")))
+                .doUpdate()
+                .set(docFreq, docFreq.plus(DSL.param("docFreq", Integer.class)))
+                .set(totalFreq, totalFreq.plus(DSL.param("totalFreq", Long.class))));
+        long length = 0;
+        boolean changed = false;
+        for (int wordId : wordIds) {
+            int oldCount = before.getOrDefault(wordId, 0);
+            int newCount = after.getOrDefault(wordId, 0);
+            if (oldCount != newCount) {
+                int docDelta = Integer.compare(Math.min(newCount, 1), Math.min(oldCount, 1));
+                batch.bind(getPrefix(), wordId, docDelta, (long) newCount - oldCount, docDelta, (long) newCount - oldCount);
+                length += newCount - oldCount;
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        batch.execute();
+        tx.delete(DSL.table(DSL.name("TermStatistics")))
+                .where(DSL.field(DSL.name("typePrefix")).eq(getPrefix()))
+                .and(DSL.field(DSL.name("wordId")).in(wordIds))
+                .and(docFreq.le(0))
+                .execute();
+
+        int docDelta = Boolean.compare(!after.isEmpty(), !before.isEmpty());
+        Field<Integer> docCount = DSL.field(DSL.name("docCount"), Integer.class);
+        Field<Long> totalLength = DSL.field(DSL.name("totalLength"), Long.class);
+        tx.insertInto(DSL.table(DSL.name("FieldStatistics")))
+                .values(getPrefix(), docDelta, length)
+                .onConflict(DSL.field(DSL.name("typePrefix")))
+                .doUpdate()
+                .set(docCount, docCount.plus(docDelta))
+                .set(totalLength, totalLength.plus(length))
+                .execute();
+    }
+
+    /**
+     * Rebuilds the statistics of this prefix from the postings table.
+     *
+     * <p>Stored vectors are not deleted; any whose document frequencies have changed are
+     * found to be stale (see {@link #getVector(int)}). This does not start a transaction by
+     * itself; the caller is expected to run this in one.
+     * @param tx The context of the transaction to rebuild with
+     */
+    void rebuildStatistics(DSLContext tx) {
+        Field<Object> wordId = DSL.field(DSL.name("wordId"));
+        Field<Object> docId = DSL.field(DSL.name("docId"));
+        tx.delete(DSL.table(DSL.name("TermStatistics")))
+                .where(DSL.field(DSL.name("typePrefix")).eq(getPrefix()))
+                .execute();
+        tx.insertInto(DSL.table(DSL.name("TermStatistics")))
+                .select(DSL.select(DSL.inline(getPrefix()), wordId, DSL.countDistinct(docId), DSL.count())
+                        .from(DSL.table(DSL.name(getPostingsTable())))
+                        .groupBy(wordId))
+                .execute();
+        tx.delete(DSL.table(DSL.name("FieldStatistics")))
+                .where(DSL.field(DSL.name("typePrefix")).eq(getPrefix()))
+                .execute();
+        tx.insertInto(DSL.table(DSL.name("FieldStatistics")))
+                .select(DSL.select(DSL.inline(getPrefix()), DSL.countDistinct(docId), DSL.count())
+                        .from(DSL.table(DSL.name(getPostingsTable()))))
+                .execute();
+    }
+
+    @Override
+    public int docFreq(String stem) {
+        int wordId = getIdFromStem(stem);
+        return wordId == -1 ? 0 : docFreq(wordId);
+    }
+
+    /**
+     * Gets the document frequency of a word ID from the term statistics.
+     * @param wordId The word ID to lookup
+     * @return The document frequency of the word ID; 0 if it does not appear in any document
+     */
+    private int docFreq(int wordId) {
+        Result<Record> result = statements.fetch(termStatisticsQuery, getPrefix(), wordId);
+        return result.isEmpty() ? 0 : result.get(0).get(0, Integer.class);
+    }
+
+    @Override
+    public long totalFreq(String stem) {
+        int wordId = getIdFromStem(stem);
+        if (wordId == -1) {
+            return 0;
+        }
+        Result<Record> result = statements.fetch(termStatisticsQuery, getPrefix(), wordId);
+        return result.isEmpty() ? 0 : result.get(0).get(1, Long.class);
+    }
+
+    @Override
+    public FieldStatistics getStatistics() {
+        Result<Record> result = statements.fetch(fieldStatisticsQuery, getPrefix());
+        return result.isEmpty() ? new FieldStatistics(0, 0) :
+                new FieldStatistics(result.get(0).get(0, Integer.class), result.get(0).get(1, Long.class));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The stored vector is read together with the current document frequencies of its words.
+     */
+    @Override
+    public SearchVector getVector(int docId) {
+        long docCount = DatabaseConnection.getDocSize();
+        Result<Record> stored = statements.fetch(vectorQuery, docId, getPrefix());
+        if (!stored.isEmpty()) {
+            Map<Integer, Double> weights = new HashMap<>();
+            Map<Integer, Integer> usedFreqs = new HashMap<>();
+            Map<Integer, Integer> currentFreqs = new HashMap<>();
+            for (Record w : statements.fetch(vectorWeightQuery, docId, getPrefix())) {
+                int wordId = w.get(0, Integer.class);
+                weights.put(wordId, w.get(1, Double.class));
+                usedFreqs.put(wordId, w.get(2, Integer.class));
+                currentFreqs.put(wordId, w.get(3, Integer.class));
+            }
+            Record r = stored.get(0);
+            TermVector vector = new TermVector(r.get(0, Integer.class), r.get(1, Double.class), weights, usedFreqs,
+                    r.get(2, Long.class));
+            if (vector.isFresh(currentFreqs::get, docCount)) {
+                return vector.toSearchVector(this::getStemFromId);
+            }
+        }
+        return TermVector.compute(termCounts(create, docId), this::docFreq, docCount).toSearchVector(this::getStemFromId);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The fresh vectors are read, and the stale vectors are computed, with a few table scans.
+     */
+    @Override
+    public Map<Integer, SearchVector> getVectors() {
+        return create.transactionResult(config -> {
+            DSLContext tx = DSL.using(config);
+            long docCount = DatabaseConnection.getDocSize();
+            Map<Integer, Double> norms = tx.select(DSL.field(DSL.name("v", "docId")), DSL.field(DSL.name("v", "norm")))
+                    .from(DSL.table(DSL.name("DocumentVector")).as("v"))
+                    .where(fresh(docCount))
+                    .fetchMap(r -> r.get(0, Integer.class), r -> r.get(1, Double.class));
+            Map<Integer, Map<String, Double>> weights = new HashMap<>();
+            try (Cursor<? extends Record> cursor = tx.select(DSL.field(DSL.name("docId")), DSL.field(DSL.name("wordId")),
+                            DSL.field(DSL.name("weight")))
+                    .from(DSL.table(DSL.name("VectorWeight")))
+                    .where(DSL.field(DSL.name("typePrefix")).eq(getPrefix()))
+                    .fetchLazy()) {
+                for (Record r : cursor) {
+                    int docId = r.get(0, Integer.class);
+                    if (norms.containsKey(docId)) {
+                        weights.computeIfAbsent(docId, k -> new HashMap<>())
+                                .put(getStemFromId(r.get(1, Integer.class)), r.get(2, Double.class));
+                    }
+                }
+            }
+            Map<Integer, SearchVector> vectors = new HashMap<>();
+            norms.forEach((docId, norm) -> vectors.put(docId, new SearchVector(weights.getOrDefault(docId, Map.of()), norm)));
+            computeStale(tx, docCount).forEach((docId, vector) -> vectors.put(docId, vector.toSearchVector(this::getStemFromId)));
+            return vectors;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The stale vectors are found and computed with a few table scans, and replace the
+     * stored vectors in the same transaction.
+     */
+    @Override
+    public void refreshVectors() {
+        create.transaction(config -> {
+            DSLContext tx = DSL.using(config);
+            storeVectors(tx, computeStale(tx, DatabaseConnection.getDocSize()));
+        });
+    }
+
+    /**
+     * Creates the condition which a stored vector of this prefix, aliased as v, meets if it is fresh
+     * (see {@link TermVector#isFresh(java.util.function.IntUnaryOperator, long)}).
+     * @param docCount The current number of documents
+     * @return The condition on the stored vector
+     */
+    private Condition fresh(long docCount) {
+        Field<Long> usedCount = DSL.field(DSL.name("v", "docCount"), Long.class);
+        Field<Integer> usedFreq = DSL.field(DSL.name("vw", "docFreq"), Integer.class);
+        Field<Integer> currentFreq = DSL.coalesce(DSL.field(DSL.name("ts", "docFreq"), Integer.class), DSL.inline(0));
+        return DSL.field(DSL.name("v", "typePrefix")).eq(getPrefix())
+                .and(DSL.abs(usedCount.minus(docCount)).le(usedCount.times(DSL.inline(TermVector.TOLERANCE))))
+                .andNotExists(DSL.selectOne()
+                        .from(DSL.table(DSL.name("VectorWeight")).as("vw"))
+                        .leftJoin(DSL.table(DSL.name("TermStatistics")).as("ts"))
+                        .on(DSL.field(DSL.name("ts", "typePrefix")).eq(DSL.field(DSL.name("vw", "typePrefix")))
+                                .and(DSL.field(DSL.name("ts", "wordId")).eq(DSL.field(DSL.name("vw", "wordId")))))
+                        .where(DSL.field(DSL.name("vw", "docId")).eq(DSL.field(DSL.name("v", "docId"))))
+                        .and(DSL.field(DSL.name("vw", "typePrefix")).eq(DSL.field(DSL.name("v", "typePrefix"))))
+                        .and(DSL.abs(currentFreq.minus(usedFreq)).gt(usedFreq.times(DSL.inline(TermVector.TOLERANCE)))));
+    }
+
+    /**
+     * Computes the vectors of all documents with words of this prefix whose stored vectors are missing or stale.
+     * @param tx The context of the transaction to read with
+     * @param docCount The current number of documents
+     * @return The computed vector of each document ID
+     */
+    private Map<Integer, TermVector> computeStale(DSLContext tx, long docCount) {
+        Map<Integer, Map<Integer, Integer>> counts = new HashMap<>();
+        try (Cursor<? extends Record> cursor = tx.select(DSL.field(DSL.name("f", "docId")), DSL.field(DSL.name("p", "wordId")), DSL.count())
+                .from(DSL.table(DSL.name("ForwardIndex")).as("f"))
+                .join(DSL.table(DSL.name(getPostingsTable())).as("p"))
+                .on(DSL.field(DSL.name("p", "wordId")).eq(DSL.field(DSL.name("f", "wordId")))
+                        .and(DSL.field(DSL.name("p", "docId")).eq(DSL.field(DSL.name("f", "docId")))))
+                .where(DSL.field(DSL.name("f", "typePrefix")).eq(getPrefix()))
+                .and(DSL.field(DSL.name("f", "docId")).notIn(DSL.select(DSL.field(DSL.name("v", "docId")))
+                        .from(DSL.table(DSL.name("DocumentVector")).as("v"))
+                        .where(fresh(docCount))))
+                .groupBy(DSL.field(DSL.name("f", "docId")), DSL.field(DSL.name("p", "wordId")))
+                .fetchLazy()) {
+            for (Record r : cursor) {
+                counts.computeIfAbsent(r.get(0, Integer.class), k -> new HashMap<>())
+                        .put(r.get(1, Integer.class), r.get(2, Integer.class));
+            }
+        }
+        if (counts.isEmpty()) {
+            return Map.of();
+        }
+        Map<Integer, Integer> docFreqs = tx.select(DSL.field(DSL.name("wordId")), DSL.field(DSL.name("docFreq")))
+                .from(DSL.table(DSL.name("TermStatistics")))
+                .where(DSL.field(DSL.name("typePrefix")).eq(getPrefix()))
+                .fetchMap(r -> r.get(0, Integer.class), r -> r.get(1, Integer.class));
+        Map<Integer, TermVector> computed = new HashMap<>();
+        counts.forEach((docId, docCounts) -> computed.put(docId,
+                TermVector.compute(docCounts, wordId -> docFreqs.getOrDefault(wordId, 0), docCount)));
+        return computed;
+    }
+
+    /**
+     * Stores the vectors of documents, replacing any vectors stored for them before.
+     * @param tx The context of the transaction to store with
+     * @param vectors The vector of each document ID
+     */
+    private void storeVectors(DSLContext tx, Map<Integer, TermVector> vectors) {
+        if (vectors.isEmpty()) {
+            return;
+        }
+        Condition ofDocument = DSL.field(DSL.name("docId")).eq(DSL.param("docId", Integer.class))
+                .and(DSL.field(DSL.name("typePrefix")).eq(DSL.param("typePrefix", String.class)));
+        BatchBindStep deleteVectors = tx.batch(tx.delete(DSL.table(DSL.name("DocumentVector"))).where(ofDocument));
+        BatchBindStep deleteWeights = tx.batch(tx.delete(DSL.table(DSL.name("VectorWeight"))).where(ofDocument));
+        BatchBindStep insertVectors = tx.batch(tx.insertInto(DSL.table(DSL.name("DocumentVector")))
+                .values((Integer) null, (String) null, (Integer) null, (Double) null, (Long) null));
+        BatchBindStep insertWeights = tx.batch(tx.insertInto(DSL.table(DSL.name("VectorWeight")))
+                .values((Integer) null, (String) null, (Integer) null, (Double) null, (Integer) null));
+        vectors.forEach((docId, vector) -> {
+            deleteVectors.bind(docId, getPrefix());
+            deleteWeights.bind(docId, getPrefix());
+            insertVectors.bind(docId, getPrefix(), vector.maxTf(), vector.norm(), vector.docCount());
+            vector.weights().forEach((wordId, weight) ->
+                    insertWeights.bind(docId, getPrefix(), wordId, weight, vector.docFreqs().get(wordId)));
+        });
+        deleteVectors.execute();
+        deleteWeights.execute();
+        insertVectors.execute();
+        insertWeights.execute();
+    }
+
+    @Override
+    public int getIdFromStem(String stem) {
+        return getDictionary().getId(stem);
+    }
+
+    @Override
+    public String getStemFromId(int id) {
+        String stem = getDictionary().getStem(id);
+        if (stem == null) {
+            throw new IllegalArgumentException("No such word ID: " + id);
+        }
+        return stem;
+    }
+
+    @Override
+    public int insertStem(String stem) {
+        TermDictionary dictionary = getDictionary();
+        int id = dictionary.getId(stem);
+        if (id != -1) {
+            return id;
+        }
+        synchronized (dictionary) {
+            id = dictionary.getId(stem);
+            if (id == -1) {
+                id = getNextId();
+                create.insertInto(DSL.table(DSL.name("WordIndex")))
+                        .values(stem, id, getPrefix())
+                        .execute();
+                dictionary.put(stem, id);
+            }
+            return id;
+        }
+    }
+
+    @Override
+    public List<Integer> getDocIdsWithStem(int stemId) {
+        return statements.fetch(docIdsQuery, stemId)
+                .map(r -> r.get(0, Integer.class));
+    }
+}
@@ -0,0 +1,142 @@
+package hk.ust.comp4321.db;
+
+import org.jooq.DSLContext;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Internal class which caches prepared statements for frequently run queries.
+ *
+ * <p>Statements are keyed by their SQL, which should be rendered once with
+ * {@link #render(Query)} and bound with new parameters on every call. This
+ * avoids building, rendering and preparing a new query for every point lookup.
+ *
+ * <p>Each prepared statement is locked while it is executed, so a statement
+ * cache can be shared by multiple threads.
+ */
+final class StatementCache implements AutoCloseable {
+    private static final DSLContext RENDERER = DSL.using(SQLDialect.SQLITE);
+    private final Connection conn;
+    private final DSLContext create;
+    private final Map<String, PreparedStatement> statements = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new statement cache for the connection.
+     * @param conn The connection to prepare statements with
+     * @param create The context to read results with
+     */
+    StatementCache(Connection conn, DSLContext create) {
+        this.conn = conn;
+        this.create = create;
+    }
+
+    /**
+     * Renders a query into SQL, with a placeholder for each parameter.
+     *
+     * <p>Parameters should be created with {@link DSL#param(String, Class)}
+     * so that they are rendered as placeholders.
+     * @param query The query to render
+     * @return The SQL of the query, to be used as the key of the statement
+     */
+    static String render(Query query) {
+        return RENDERER.render(query);
+    }
+
+    /**
+     * Runs a cached query with the parameters specified.
+     * @param sql The SQL of the query, as rendered by {@link #render(Query)}
+     * @param params The parameters to bind, in order
+     * @return The result of the query
+     * @throws DataAccessException If preparing or running the query fails
+     */
+    Result<Record> fetch(String sql, Object... params) {
+        PreparedStatement statement = prepare(sql);
+        synchronized (statement) {
+            try {
+                bind(statement, params);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return create.fetch(rs);
+                }
+            } catch (SQLException e) {
+                throw new DataAccessException("Unable to run query: " + sql, e);
+            }
+        }
+    }
+
+    /**
+     * Checks if a cached query returns any rows with the parameters specified.
+     * @param sql The SQL of the query, as rendered by {@link #render(Query)}
+     * @param params The parameters to bind, in order
+     * @return True if the query returns at least one row; false otherwise
+     * @throws DataAccessException If preparing or running the query fails
+     */
+    boolean exists(String sql, Object... params) {
+        PreparedStatement statement = prepare(sql);
+        synchronized (statement) {
+            try {
+                bind(statement, params);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return rs.next();
+                }
+            } catch (SQLException e) {
+                throw new DataAccessException("Unable to run query: " + sql, e);
+            }
+        }
+    }
+
+    private PreparedStatement prepare(String sql) {
+        return statements.computeIfAbsent(sql, s -> {
+            try {
+                return conn.prepareStatement(s);
+            } catch (SQLException e) {
+                throw new DataAccessException("Unable to prepare query: " + s, e);
+            }
+        });
+    }
+
+    private static void bind(PreparedStatement statement, Object... params) throws SQLException {
+        statement.clearParameters();
+        for (int i = 0; i < params.length; i++) {
+            statement.setObject(i + 1, params[i]);
+        }
+    }
+
+    /**
+     * Gets the number of statements in this cache.
+     * @return The number of prepared statements
+     */
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws SQLException If closing any of the statements throws an exception
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException exception = null;
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                exception = e;
+            }
+        }
+        statements.clear();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
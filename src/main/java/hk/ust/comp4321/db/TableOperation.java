@@ -1,86 +1,74 @@
 package hk.ust.comp4321.db;
 
-import hk.ust.comp4321.api.Document;
 import hk.ust.comp4321.api.WordInfo;
-import org.jooq.DSLContext;
-import org.jooq.impl.DSL;
+import hk.ust.comp4321.se.SearchVector;
 
 import java.util.List;
-import java.util.stream.Collectors;
-
-import static org.jooq.impl.SQLDataType.INTEGER;
-import static org.jooq.impl.SQLDataType.VARCHAR;
+import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
- * Encapsulates operations on a group (or a type) of tables.
+ * Encapsulates operations on a group (or a type) of words.
+ *
+ * <p>The interface defines a common set of operations on
+ * the words with the same type prefix (e.g. body or title).
+ * Each stem with the prefix has a word ID, and a list of word
+ * frequencies (postings) in every document containing it.
+ * The operations work on all stems with the prefix as a group;
+ * this allows for more efficient manipulation and code reuse.
  *
- * <p>The class defines a common set of operations on
- * a group of tables. The tables are normally based on
- * the ID of the stem, and prefixes`body`, followed by `body`. are added to the stem by the
- * {@link #getPrefix(int)} method. The class operates
- * on all tables with the prefix as a group; this allows
- * for more efficient manipulation and code reuse.
+ * <p>See {@link SqliteTableOperation} for the implementation backed
+ * by the SQLite database.
  */
-public abstract class TableOperation {
-    private final DSLContext create;
-
-    TableOperation(DSLContext create) {
-        this.create = create;
-    }
-
+public interface TableOperation {
     /**
      * Gets the prefix that this type of table operates on, without underscores.
      * @return The prefix of this kind of table operation
      */
-    public abstract String getPrefix();
+    String getPrefix();
 
     /**
      * Gets the next word ID for this prefix.
-     *
-     * @implNote It is expected that subclasses will use static
-     * fields to maintain consistency for IDs. Hence, this method
-     * is abstract in order to allow for the same ID with different
-     * prefixes.
      * @return The next word ID to allocate for this prefix
      */
-    public abstract int getNextId();
+    int getNextId();
 
     /**
      * Gets the current word ID associated with this table type.
      * @return The current maximum word ID
      */
-    public abstract int getCurrentId();
+    int getCurrentId();
 
     /**
-     * Gets all the table names associated with this kind of database.
-     * @return The list of raw table names in the database satisfying some criteria
+     * Gets all the word IDs allocated for this prefix.
+     * @return The list of word IDs with this prefix
      */
-    public List<String> getTableNames() {
-        return create.fetch("SELECT * FROM sqlite_master WHERE type='table'")
-                .map(r -> r.get(2, String.class))
-                .stream().filter(s -> s.startsWith(getPrefix() + "_"))
-                .collect(Collectors.toList());
+    List<Integer> getWordIds();
+
+    /**
+     * Gets all the word table names associated with this kind of database.
+     *
+     * <p>Word tables are no longer stored as separate tables in the database;
+     * the names returned are the logical names (see {@link #getPrefix(int)})
+     * of every word ID allocated for this prefix.
+     * @return The list of word table names with this prefix
+     */
+    default List<String> getTableNames() {
+        return getWordIds().stream().map(this::getPrefix).toList();
     }
 
     /**
      * Gets the word IDs associated with this prefix, filtered by document ID.
      * @return The list of word IDs with the prefix
      */
-    public List<Integer> getStemIds(int docId) {
-        return create.select(DSL.field(DSL.name("wordId")))
-                .from(DSL.table(DSL.name("ForwardIndex")))
-                .where(DSL.condition(DSL.field(DSL.name("typePrefix")).eq(getPrefix()))
-                        .and(DSL.field(DSL.name("docId")).eq(docId)))
-                .fetch()
-                .map(r -> r.get(0, Integer.class));
-    }
+    List<Integer> getStemIds(int docId);
 
     /**
      * Transforms a table name into the prefixed form.
      * @param stem The word ID of the stem to transform
      * @return The prefixed string representing a table name in the database
      */
-    public String getPrefix(int stem) {
+    default String getPrefix(int stem) {
         return getPrefix() + "_" + stem;
     }
 
@@ -89,18 +77,7 @@ public abstract class TableOperation {
      * @param stem The ID of the stemmed word to insert
      * @param freq The word frequency record to associate with this word
      */
-    public void insertWordInfo(int stem, WordInfo freq) {
-        String tableName = getPrefix(stem);
-        create.insertInto(DSL.table(DSL.name(tableName)))
-                .values(freq.docId(), freq.paragraph(), freq.sentence(), freq.wordLocation(), freq.rawWord())
-                .onDuplicateKeyIgnore()
-                .execute();
-
-        create.insertInto(DSL.table(DSL.name("ForwardIndex")))
-                .values(freq.docId(), stem, getPrefix())
-                .onDuplicateKeyIgnore()
-                .execute();
-    }
+    void insertWordInfo(int stem, WordInfo freq);
 
     /**
      * Finds the corresponding title word frequencies of the stem for a specified document ID in this kind of table only.
@@ -110,19 +87,7 @@ public abstract class TableOperation {
      * @return The list of word frequencies associated with this stem, or an empty
      * list if the word does not exist in the database
      */
-    public List<WordInfo> getFrequency(int stem, int docId) {
-        if (!hasWordId(stem)) {
-            return List.of();
-        } else {
-            return create.select()
-                    .from(DSL.table(DSL.name(getPrefix(stem))))
-                    .where(DSL.condition(DSL.field(DSL.name("docId"), Integer.class).eq(docId)))
-                    .fetch()
-                    .stream().map(r -> new WordInfo(r.get(0, Integer.class), r.get(1, Integer.class),
-                            r.get(2, Integer.class), r.get(3, Integer.class), r.get(4, String.class)))
-                    .toList();
-        }
-    }
+    List<WordInfo> getFrequency(int stem, int docId);
 
     /**
      * Finds the corresponding title word frequencies of the stem in this kind of table only.
@@ -131,29 +96,22 @@ public abstract class TableOperation {
      * @return The list of word frequencies associated with this stem, or an empty
      * list if the word does not exist in the database
      */
-    public List<WordInfo> getFrequency(int stem) {
-        if (!hasWordId(stem)) {
-            return List.of();
-        } else {
-            return create.select()
-                    .from(DSL.table(DSL.name(getPrefix(stem))))
-                    .fetch()
-                    .stream().map(r -> new WordInfo(r.get(0, Integer.class), r.get(1, Integer.class),
-                            r.get(2, Integer.class), r.get(3, Integer.class), r.get(4, String.class)))
-                    .toList();
-        }
-    }
+    List<WordInfo> getFrequency(int stem);
+
+    /**
+     * Visits every word frequency of this prefix, together with its stem.
+     *
+     * <p>The word frequencies are grouped by word ID.
+     * @param action The action to perform on each word frequency and its stem
+     */
+    void forEachFrequency(BiConsumer<WordInfo, String> action);
 
     /**
      * Deletes all word frequencies in this table operation group associated
      * with the given document ID.
      * @param docId The document IDs to drop
      */
-    public void deleteFrequencies(int docId) {
-        getTableNames().forEach(stem -> create.delete(DSL.table(stem))
-                .where(DSL.condition(DSL.field(DSL.name("docId")).eq(docId)))
-                .execute());
-    }
+    void deleteFrequencies(int docId);
 
     /**
      * Retrieves the word ID for the input stem.
@@ -161,15 +119,7 @@ public abstract class TableOperation {
      * @param stem The stem to retrieve the ID for
      * @return The word ID for the stem; -1 if the stem does not exist
      */
-    public int getIdFromStem(String stem) {
-        return create.select(DSL.field(DSL.name("wordId"))).from(DSL.table(DSL.name("WordIndex")))
-                .where(DSL.condition(DSL.field(DSL.name("stem")).eq(stem))
-                        .and(DSL.field(DSL.name("typePrefix")).eq(getPrefix())))
-                .fetch()
-                .stream().findFirst() // This does not use their map since I do not know what it does on an empty list
-                .map(r -> r.get(0, Integer.class))
-                .orElse(-1);
-    }
+    int getIdFromStem(String stem);
 
     /**
      * Gets the stem corresponding to the word ID.
@@ -177,15 +127,7 @@ public abstract class TableOperation {
      * @param id The word ID to lookup
      * @return The corresponding stem
      */
-    public String getStemFromId(int id) {
-        return create.select(DSL.field(DSL.name("stem"))).from(DSL.table(DSL.name("WordIndex")))
-                .where(DSL.condition(DSL.field(DSL.name("wordId")).eq(id))
-                        .and(DSL.field(DSL.name("typePrefix")).eq(getPrefix())))
-                .fetch()
-                .stream().findFirst()
-                .map(r -> r.get(0, String.class))
-                .orElseThrow(() -> new IllegalArgumentException("No such word ID: " + id));
-    }
+    String getStemFromId(int id);
 
     /**
      * Inserts the stem into the database if it does not exist.
@@ -195,74 +137,84 @@ public abstract class TableOperation {
      * <ol>
      *     <li>Check if the word ID corresponding to the word
      *          exists, and allocates a new one if needed.</li>
-     *     <li>Update the table with the word frequency.</li>
-     *     <li>If the table does not exist, create it.</li>
+     *     <li>Update the postings with the word frequency.</li>
      * </ol>
      * @param stem The stem to attempt to insert into the database
      * @return The word ID of the inserted stem; or the current word
      * ID of this stem if it already exists
      */
-    public int insertStem(String stem) {
-        return create.select(DSL.field(DSL.name("wordId"))).from(DSL.table(DSL.name("WordIndex")))
-                .where(DSL.condition(DSL.field(DSL.name("stem")).eq(stem)
-                        .and(DSL.field(DSL.name("typePrefix")).eq(getPrefix()))))
-                .fetch()
-                .stream().findFirst()
-                .map(r -> r.get(0, Integer.class))
-                .orElseGet(() -> {
-                    int next = getNextId();
-                    create.insertInto(DSL.table(DSL.name("WordIndex")))
-                            .values(stem, next, getPrefix())
-                            .execute();
-                    create.createTableIfNotExists(getPrefix(next))
-                            .column("docId", INTEGER)
-                            .column("paragraph", INTEGER)
-                            .column("sentence", INTEGER)
-                            .column("location", INTEGER)
-                            .column("rawWord", VARCHAR)
-                            .constraints(
-                                    DSL.primaryKey("docId", "paragraph", "sentence", "location"),
-                                    DSL.foreignKey("docId").references("Document", "docId")
-                            ).execute();
-                    return next;
-                });
-    }
+    int insertStem(String stem);
 
     /**
      * Gets all the unique document IDs matching the specified stem ID.
      * @param stemId The stem ID to search for
      * @return The list of all unique document IDs matching this stem
      */
-    public List<Integer> getDocIdsWithStem(int stemId) {
-        return create.select(DSL.field(DSL.name("docId")))
-                .from(DSL.table(DSL.name(getPrefix(stemId))))
-                .fetch()
-                .stream()
-                .map(r -> r.get(0, Integer.class))
-                .distinct()
-                .toList();
-    }
+    List<Integer> getDocIdsWithStem(int stemId);
 
     /**
      * Gets the document frequency of the specified (stemmed) word.
      * Counts the number of documents containing the word given.
+     *
+     * <p>This reads the statistics maintained on every write, so it does
+     * not visit the postings of the word.
      * @param stem The word to lookup
      * @return The document frequency of the word
      */
-    public int docFreq(String stem) {
-        int wordId = getIdFromStem(stem);
-        if (wordId == -1) {
-            return 0;
-        }
-        return getDocIdsWithStem(wordId).size();
-    }
+    int docFreq(String stem);
+
+    /**
+     * Gets the total number of times the specified (stemmed) word appears in all documents.
+     *
+     * <p>This reads the statistics maintained on every write, so it does
+     * not visit the postings of the word.
+     * @param stem The word to lookup
+     * @return The total term frequency of the word
+     */
+    long totalFreq(String stem);
+
+    /**
+     * Gets the collection-wide statistics of this type of words.
+     * @return The number of documents with words of this type, and the total number of words
+     */
+    FieldStatistics getStatistics();
+
+    /**
+     * Gets the TF-IDF vector of the words of this type in a document.
+     *
+     * <p>Vectors are stored together with the document frequencies of their words and the
+     * number of documents they were computed with. A stored vector is used as long as these
+     * have not drifted beyond a tolerance since; otherwise, it is stale, and is computed
+     * again without being stored. Stale vectors are only replaced by {@link #refreshVectors()},
+     * so that looking up a vector never writes to the index.
+     * @param docId The document ID to get the vector of
+     * @return The vector of the document, which is empty if the document has no words of this type
+     */
+    SearchVector getVector(int docId);
+
+    /**
+     * Gets the TF-IDF vectors of all documents with words of this type.
+     *
+     * <p>Only the vectors which are missing or stale (see {@link #getVector(int)})
+     * are computed; as with {@link #getVector(int)}, these are not stored.
+     * @return The vector of each document ID with words of this type
+     */
+    Map<Integer, SearchVector> getVectors();
+
+    /**
+     * Computes and stores the TF-IDF vectors of all documents with words of this type
+     * which are missing or stale (see {@link #getVector(int)}).
+     *
+     * <p>This should be called by the indexer once it has written a batch of documents.
+     */
+    void refreshVectors();
 
     /**
      * Checks if a word ID exists for this type of table.
      * @param wordId The word ID to verify the existence of
      * @return True if the word ID for this type exists; false otherwise
      */
-    public boolean hasWordId(int wordId) {
+    default boolean hasWordId(int wordId) {
         return getCurrentId() >= wordId;
     }
 }
@@ -0,0 +1,139 @@
+package hk.ust.comp4321.db;
+
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Internal class representing a thread-safe, bidirectional dictionary
+ * between the stems and the word IDs of one type prefix.
+ *
+ * <p>The dictionary is loaded once from the word index table, and is
+ * updated whenever a stem is inserted, so looking up a stem or a word ID
+ * does not require a query to the database. A dictionary may also be created
+ * empty, without a database, for the in-memory index store.
+ */
+final class TermDictionary {
+    private final String prefix;
+    private final Map<String, Integer> stemToId = new ConcurrentHashMap<>();
+    private final Map<Integer, String> idToStem = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * Creates a new dictionary, and loads all the stems of the prefix from the database.
+     * @param create The context to run SQL queries with
+     * @param prefix The type prefix of the stems in this dictionary
+     */
+    TermDictionary(DSLContext create, String prefix) {
+        this.prefix = prefix;
+        reload(create);
+    }
+
+    /**
+     * Creates a new, empty dictionary which is not backed by a database.
+     * @param prefix The type prefix of the stems in this dictionary
+     */
+    TermDictionary(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Reloads all the stems of the prefix from the database.
+     *
+     * <p>The next word ID never decreases, so that word IDs allocated
+     * before the reload are not allocated again.
+     * @param create The context to run SQL queries with
+     */
+    synchronized void reload(DSLContext create) {
+        stemToId.clear();
+        idToStem.clear();
+        create.select(DSL.field(DSL.name("stem")), DSL.field(DSL.name("wordId")))
+                .from(DSL.table(DSL.name("WordIndex")))
+                .where(DSL.condition(DSL.field(DSL.name("typePrefix")).eq(prefix)))
+                .fetch()
+                .forEach(r -> put(r.get(0, String.class), r.get(1, Integer.class)));
+        nextId.accumulateAndGet(idToStem.keySet().stream().mapToInt(i -> i + 1).max().orElse(0), Math::max);
+    }
+
+    /**
+     * Reloads all the stems of the prefix from the database, and sets the next word ID
+     * to one past the largest word ID, even if it decreases.
+     *
+     * <p>This is only safe when the word IDs have been renumbered (see {@link IndexCompactor}),
+     * and no word ID allocated before is still in use.
+     * @param create The context to run SQL queries with
+     */
+    synchronized void reset(DSLContext create) {
+        nextId.set(0);
+        reload(create);
+    }
+
+    /**
+     * Checks if this dictionary has the same number of stems as the database.
+     * A dictionary which is not consistent belongs to another (or a recreated) database.
+     * @param create The context to run SQL queries with
+     * @return True if the number of stems matches the database; false otherwise
+     */
+    boolean isConsistent(DSLContext create) {
+        return create.fetchCount(DSL.table(DSL.name("WordIndex")),
+                DSL.condition(DSL.field(DSL.name("typePrefix")).eq(prefix))) == stemToId.size();
+    }
+
+    /**
+     * Gets the word ID of the stem.
+     * @param stem The stem to look up
+     * @return The word ID of the stem; -1 if the stem does not exist
+     */
+    int getId(String stem) {
+        return stemToId.getOrDefault(stem, -1);
+    }
+
+    /**
+     * Gets the stem of the word ID.
+     * @param id The word ID to look up
+     * @return The stem of the word ID; null if the word ID does not exist
+     */
+    String getStem(int id) {
+        return idToStem.get(id);
+    }
+
+    /**
+     * Adds a stem and its word ID to this dictionary.
+     * The next word ID is advanced past the word ID if needed.
+     * @param stem The stem to add
+     * @param id The word ID of the stem
+     */
+    void put(String stem, int id) {
+        stemToId.put(stem, id);
+        idToStem.put(id, stem);
+        nextId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    /**
+     * Gets all the word IDs in this dictionary.
+     * @return The set of word IDs, in no particular order
+     */
+    Set<Integer> ids() {
+        return idToStem.keySet();
+    }
+
+    /**
+     * Gets the next word ID, and increments the next word ID by one.
+     * @return The next word ID to allocate
+     */
+    int nextId() {
+        return nextId.getAndIncrement();
+    }
+
+    /**
+     * Gets the next word ID without allocating it.
+     * @return The next word ID to allocate
+     */
+    int currentId() {
+        return nextId.get();
+    }
+}
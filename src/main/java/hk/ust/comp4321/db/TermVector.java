@@ -0,0 +1,92 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.se.SearchVector;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Internal record representing the stored TF-IDF vector of the words of one type in a document.
+ *
+ * <p>The weights are computed in the same way as {@link hk.ust.comp4321.api.Document#asBodyVector(hk.ust.comp4321.api.DocumentFrequencies)},
+ * i.e. the term frequency times the inverse document frequency, divided by the maximum term frequency.
+ * A vector is computed with the document frequencies of its words and the number of documents at the time,
+ * and can still be used while these have not drifted too far; see {@link #isFresh(IntUnaryOperator, long)}.
+ * @param maxTf The maximum term frequency in the document
+ * @param norm The Euclidean norm of the weights
+ * @param weights The weight of each word ID in the document
+ * @param docFreqs The document frequency of each word ID which the vector was computed with
+ * @param docCount The number of documents which the vector was computed with
+ */
+record TermVector(int maxTf, double norm, Map<Integer, Double> weights, Map<Integer, Integer> docFreqs, long docCount) {
+    /**
+     * The largest relative change of a document frequency, or of the number of documents,
+     * since a vector was computed for it to still be used.
+     */
+    static final double TOLERANCE = 0.05;
+
+    /**
+     * Computes the vector of a document.
+     * @param counts The number of word frequencies of each word ID in the document
+     * @param docFreq The document frequency of each word ID
+     * @param docCount The current number of documents
+     * @return The vector of the document
+     */
+    static TermVector compute(Map<Integer, Integer> counts, IntUnaryOperator docFreq, long docCount) {
+        int maxTf = counts.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+        Map<Integer, Double> weights = new HashMap<>();
+        Map<Integer, Integer> docFreqs = new HashMap<>();
+        counts.forEach((wordId, count) -> {
+            int df = docFreq.applyAsInt(wordId);
+            docFreqs.put(wordId, df);
+            weights.put(wordId, count * (Math.log((double) docCount / df) / Math.log(2)) / maxTf);
+        });
+        double norm = Math.sqrt(weights.values().stream().mapToDouble(d -> d * d).sum());
+        return new TermVector(maxTf, norm, weights, docFreqs, docCount);
+    }
+
+    /**
+     * Checks if this vector is close enough to the vector computed with the current statistics.
+     *
+     * <p>The vector is fresh if the number of documents, and the document frequency of every word
+     * in the document, are each within {@link #TOLERANCE} of the values it was computed with.
+     * Changes to the statistics of other words do not affect the vector.
+     * @param docFreq The current document frequency of each word ID
+     * @param docCount The current number of documents
+     * @return True if the vector can be used as is; false if it has to be computed again
+     */
+    boolean isFresh(IntUnaryOperator docFreq, long docCount) {
+        if (!isClose(this.docCount, docCount)) {
+            return false;
+        }
+        for (Map.Entry<Integer, Integer> entry : docFreqs.entrySet()) {
+            if (!isClose(entry.getValue(), docFreq.applyAsInt(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a statistic is within {@link #TOLERANCE} of the value a vector was computed with.
+     * @param used The value which the vector was computed with
+     * @param current The current value
+     * @return True if the change is small enough to keep the vector
+     */
+    static boolean isClose(long used, long current) {
+        return Math.abs(current - used) <= TOLERANCE * used;
+    }
+
+    /**
+     * Converts this vector into a search vector.
+     * @param stems The function to look up the stem of a word ID with
+     * @return The search vector with the same weights and norm
+     */
+    SearchVector toSearchVector(IntFunction<String> stems) {
+        Map<String, Double> terms = new HashMap<>();
+        weights.forEach((wordId, weight) -> terms.put(stems.apply(wordId), weight));
+        return new SearchVector(terms, norm);
+    }
+}
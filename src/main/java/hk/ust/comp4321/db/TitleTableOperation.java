@@ -1,27 +1,21 @@
 package hk.ust.comp4321.db;
 
 import org.jooq.DSLContext;
-import org.jooq.impl.DSL;
-
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Internal class for operating on tables which represent
  * a word in the title of a document.
  *
- * <p>In particular, the class prepends title_ to each stem.
+ * <p>In particular, the class prepends title_ to each stem,
+ * and stores word frequencies in the TitlePostings table.
  */
-class TitleTableOperation extends TableOperation {
-    private final DSLContext create;
-    private static AtomicInteger nextWordId = null;
-
-    TitleTableOperation(DSLContext create) {
-        super(create);
-        this.create = create;
-        if (nextWordId == null) {
-            nextWordId = new AtomicInteger(
-                    create.fetchCount(DSL.table(DSL.name("WordIndex")),
-                            DSL.condition(DSL.field(DSL.name("typePrefix")).eq(getPrefix()))));
+class TitleTableOperation extends SqliteTableOperation {
+    private static TermDictionary dictionary = null;
+
+    TitleTableOperation(DSLContext create, StatementCache statements) {
+        super(create, statements);
+        if (dictionary == null || !dictionary.isConsistent(create)) {
+            dictionary = new TermDictionary(create, getPrefix());
         }
     }
 
@@ -30,13 +24,28 @@ class TitleTableOperation extends TableOperation {
         return "title";
     }
 
+    @Override
+    public String getPostingsTable() {
+        return "TitlePostings";
+    }
+
+    @Override
+    public String getSurfaceFormTable() {
+        return "TitleSurfaceForms";
+    }
+
+    @Override
+    TermDictionary getDictionary() {
+        return dictionary;
+    }
+
     @Override
     public int getNextId() {
-        return nextWordId.getAndIncrement();
+        return dictionary.nextId();
     }
 
     @Override
     public int getCurrentId() {
-        return nextWordId.get();
+        return dictionary.currentId();
     }
 }
@@ -0,0 +1,432 @@
+package hk.ust.comp4321.db.segment;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.Positions;
+import hk.ust.comp4321.api.WordInfo;
+import hk.ust.comp4321.db.PostingsCodec;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * An immutable, memory-mapped index segment, as written by {@link SegmentWriter}.
+ *
+ * <p>The segment file is mapped into memory once, and every lookup reads the mapped
+ * buffer in place; nothing is deserialized up front. The documents, the terms and
+ * their postings are left in the page cache of the operating system instead of the heap.
+ *
+ * <p>A segment file is laid out as follows, with all integers in big-endian order and
+ * all offsets relative to the start of the file:
+ * <ol>
+ *     <li>A fixed size header (see {@link #HEADER_SIZE}), holding the number of documents,
+ *          the number of terms of each field, and the offsets of the tables below.</li>
+ *     <li>A data area holding strings (a length, followed by UTF-8 bytes), postings blobs
+ *          (see {@link hk.ust.comp4321.db.PostingsCodec}), the word sequence of each document,
+ *          and the links of each document.</li>
+ *     <li>The document table, with one fixed size row per document, sorted by document ID.</li>
+ *     <li>The term dictionary of the title and of the body, with one fixed size row per term,
+ *          sorted by the UTF-8 bytes of the stem.</li>
+ * </ol>
+ * As the tables have fixed size rows, documents and terms are found with binary search.
+ */
+public final class Segment {
+    static final int MAGIC = 0x53454731;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+    static final int DOC_SIZE = 72;
+    static final int TERM_SIZE = 16;
+
+    // Header fields
+    static final int DOC_COUNT = 8;
+    static final int TOTAL_DOCS = 12;
+    static final int DOCS_OFFSET = 24;
+
+    // Document row fields
+    static final int DOC_ID = 0;
+    static final int URL = 4;
+    static final int TITLE = 8;
+    static final int LAST_MODIFIED = 12;
+    static final int SIZE = 20;
+    static final int KEYWORDS = 28;
+    static final int CHILDREN = 64;
+    static final int PARENTS = 68;
+
+    // Term row fields
+    static final int STEM = 0;
+    static final int DOC_FREQ = 4;
+    static final int POSTINGS = 8;
+    static final int POSTINGS_LENGTH = 12;
+
+    /**
+     * The fields of a document which have their own terms.
+     */
+    public enum Field {
+        TITLE(16, 28, 32, 48, 56),
+        BODY(20, 32, 40, 52, 60);
+
+        final int termCount;
+        final int termsOffset;
+        final int norm;
+        final int maxTermFreq;
+        final int sequence;
+
+        Field(int termCount, int termsOffset, int norm, int maxTermFreq, int sequence) {
+            this.termCount = termCount;
+            this.termsOffset = termsOffset;
+            this.norm = norm;
+            this.maxTermFreq = maxTermFreq;
+            this.sequence = sequence;
+        }
+    }
+
+    private final ByteBuffer buffer;
+
+    private Segment(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens a segment file by mapping it into memory.
+     * @param path The path of the segment file
+     * @return The opened segment
+     * @throws IOException If the file cannot be mapped, or is not a segment file of this version
+     */
+    public static Segment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Segment file is too large to be mapped: " + path);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a segment file: " + path);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported segment version %d: %s".formatted(buffer.getInt(4), path));
+            }
+            return new Segment(buffer);
+        }
+    }
+
+    /**
+     * Gets the number of documents in this segment.
+     * @return The number of documents
+     */
+    public int docCount() {
+        return buffer.getInt(DOC_COUNT);
+    }
+
+    /**
+     * Gets the total number of documents in the database when this segment was written,
+     * which is used to compute inverse document frequencies.
+     * @return The total number of documents
+     */
+    public int totalDocs() {
+        return buffer.getInt(TOTAL_DOCS);
+    }
+
+    /**
+     * Finds the row of the document in the document table.
+     * @param docId The document ID to find
+     * @return The row of the document; -1 if the document is not in this segment
+     */
+    int row(int docId) {
+        int low = 0;
+        int high = docCount() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = docId(mid);
+            if (id < docId) {
+                low = mid + 1;
+            } else if (id > docId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    int docId(int row) {
+        return buffer.getInt(docOffset(row) + DOC_ID);
+    }
+
+    double norm(Field field, int row) {
+        return buffer.getDouble(docOffset(row) + field.norm);
+    }
+
+    int maxTermFreq(Field field, int row) {
+        return buffer.getInt(docOffset(row) + field.maxTermFreq);
+    }
+
+    /**
+     * Checks if the document is in this segment.
+     * @param docId The document ID to check
+     * @return True if the document is in this segment; false otherwise
+     */
+    public boolean hasDocId(int docId) {
+        return row(docId) != -1;
+    }
+
+    /**
+     * Gets the document with the document ID.
+     * Only the metadata of the document is read; its words and children are not loaded.
+     * @param docId The document ID to look up
+     * @return The document
+     * @throws IllegalArgumentException If the document is not in this segment
+     */
+    public Document document(int docId) {
+        return documentAt(checkedRow(docId));
+    }
+
+    Document documentAt(int row) {
+        int offset = docOffset(row);
+        return new Document(toUrl(string(buffer.getInt(offset + URL))), buffer.getInt(offset + DOC_ID),
+                Instant.ofEpochMilli(buffer.getLong(offset + LAST_MODIFIED)),
+                buffer.getLong(offset + SIZE), string(buffer.getInt(offset + TITLE)));
+    }
+
+    /**
+     * Reads every document in this segment, together with its words and children.
+     * This is used to merge segments; it reads the whole segment onto the heap.
+     * @return The loaded documents, sorted by document ID
+     */
+    List<Document> documents() {
+        List<Document> docs = new ArrayList<>(docCount());
+        for (int row = 0; row < docCount(); row++) {
+            Document doc = documentAt(row);
+            doc.children().addAll(children(doc.id()));
+            doc.setLoaded();
+            docs.add(doc);
+        }
+        readFrequencies(Field.TITLE, docs, Document::titleFrequencies);
+        readFrequencies(Field.BODY, docs, Document::bodyFrequencies);
+        return docs;
+    }
+
+    private void readFrequencies(Field field, List<Document> docs,
+                                 Function<Document, Map<WordInfo, String>> converter) {
+        for (int term = 0; term < termCount(field); term++) {
+            String stem = stem(field, term);
+            ByteBuffer postings = postings(field, term);
+            byte[] blob = new byte[postings.remaining()];
+            postings.get(blob);
+            for (WordInfo info : PostingsCodec.decode(blob)) {
+                converter.apply(docs.get(row(info.docId()))).put(info, stem);
+            }
+        }
+    }
+
+    /**
+     * Gets the most frequent words of the document, as written by the exporter.
+     * @param docId The document ID to look up
+     * @return The most frequent words of the document and their frequencies
+     * @throws IllegalArgumentException If the document is not in this segment
+     */
+    public String keywords(int docId) {
+        return string(buffer.getInt(docOffset(checkedRow(docId)) + KEYWORDS));
+    }
+
+    /**
+     * Gets the children links of the document.
+     * @param docId The document ID to look up
+     * @return The URLs of the children of the document
+     * @throws IllegalArgumentException If the document is not in this segment
+     */
+    public List<URL> children(int docId) {
+        int offset = buffer.getInt(docOffset(checkedRow(docId)) + CHILDREN);
+        int count = buffer.getInt(offset);
+        List<URL> children = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            children.add(toUrl(string(buffer.getInt(offset + Integer.BYTES * (i + 1)))));
+        }
+        return children;
+    }
+
+    /**
+     * Gets the parents of the document, i.e. the documents linking to the document.
+     * @param docId The document ID to look up
+     * @return The URLs of the parents of the document
+     * @throws IllegalArgumentException If the document is not in this segment
+     */
+    public List<URL> parents(int docId) {
+        int offset = buffer.getInt(docOffset(checkedRow(docId)) + PARENTS);
+        int count = buffer.getInt(offset);
+        List<URL> parents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int row = buffer.getInt(offset + Integer.BYTES * (i + 1));
+            parents.add(toUrl(string(buffer.getInt(docOffset(row) + URL))));
+        }
+        return parents;
+    }
+
+    /**
+     * Finds the term of the stem in the term dictionary of the field.
+     * @param field The field to look up
+     * @param stem The stem to find
+     * @return The index of the term; -1 if the stem does not exist in the field
+     */
+    public int findTerm(Field field, String stem) {
+        byte[] key = stem.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = termCount(field) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(buffer.getInt(termOffset(field, mid) + STEM), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of terms in the term dictionary of the field.
+     * @param field The field to look up
+     * @return The number of terms
+     */
+    public int termCount(Field field) {
+        return buffer.getInt(field.termCount);
+    }
+
+    /**
+     * Gets the stem of the term.
+     * @param field The field of the term
+     * @param term The index of the term, between 0 and {@link #termCount(Field)} exclusive
+     * @return The stem of the term
+     */
+    public String stem(Field field, int term) {
+        return string(buffer.getInt(termOffset(field, term) + STEM));
+    }
+
+    /**
+     * Gets the number of documents containing the term.
+     * @param field The field of the term
+     * @param term The index of the term, as returned by {@link #findTerm(Field, String)}
+     * @return The document frequency of the term
+     */
+    public int docFreq(Field field, int term) {
+        return buffer.getInt(termOffset(field, term) + DOC_FREQ);
+    }
+
+    /**
+     * Gets the postings of the term, without copying them out of the mapped file.
+     * @param field The field of the term
+     * @param term The index of the term, as returned by {@link #findTerm(Field, String)}
+     * @return A read-only view of the postings blob, as encoded by {@link hk.ust.comp4321.db.PostingsCodec}
+     */
+    public ByteBuffer postings(Field field, int term) {
+        int offset = termOffset(field, term);
+        return buffer.slice(buffer.getInt(offset + POSTINGS), buffer.getInt(offset + POSTINGS_LENGTH));
+    }
+
+    /**
+     * Checks if the terms appear consecutively in the same paragraph of a field of a document.
+     *
+     * <p>The indices of each term in the sequence of the field are collected, and merged with
+     * {@link Positions#consecutive(int[]...)}, so that every start of the phrase is checked,
+     * as in {@link hk.ust.comp4321.api.FieldPostings#hasPhrase(int[])}.
+     * @param field The field to check
+     * @param row The row of the document
+     * @param terms The indices of the terms of the phrase, in order
+     * @return True if the phrase appears in the field; false otherwise
+     */
+    boolean hasPhrase(Field field, int row, int[] terms) {
+        if (terms.length == 0) {
+            return true;
+        }
+        int offset = buffer.getInt(docOffset(row) + field.sequence);
+        int count = buffer.getInt(offset);
+        int[][] lists = new int[terms.length][];
+        for (int k = 0; k < terms.length; k++) {
+            lists[k] = indicesOf(offset, count, terms[k]);
+            if (lists[k].length == 0) {
+                return false;
+            }
+        }
+        for (int start : Positions.consecutive(lists)) {
+            // The sequence is in order of position, so the phrase is in one paragraph if its ends are
+            if (paragraphAt(offset, start) == paragraphAt(offset, start + terms.length - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] indicesOf(int offset, int count, int term) {
+        int[] indices = new int[4];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(offset + Integer.BYTES * (2 * i + 2)) == term) {
+                if (size == indices.length) {
+                    indices = Arrays.copyOf(indices, size * 2);
+                }
+                indices[size++] = i;
+            }
+        }
+        return Arrays.copyOf(indices, size);
+    }
+
+    private int paragraphAt(int offset, int index) {
+        return buffer.getInt(offset + Integer.BYTES * (2 * index + 1));
+    }
+
+    private int checkedRow(int docId) {
+        int row = row(docId);
+        if (row == -1) {
+            throw new IllegalArgumentException("No such document ID: " + docId);
+        }
+        return row;
+    }
+
+    private int docOffset(int row) {
+        return buffer.getInt(DOCS_OFFSET) + row * DOC_SIZE;
+    }
+
+    private int termOffset(Field field, int term) {
+        return buffer.getInt(field.termsOffset) + term * TERM_SIZE;
+    }
+
+    private String string(int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int compare(int offset, byte[] key) {
+        int length = buffer.getInt(offset);
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Byte.compareUnsigned(buffer.get(offset + Integer.BYTES + i), key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static URL toUrl(String url) {
+        try {
+            return new URI(url).toURL();
+        } catch (URISyntaxException | MalformedURLException e) {
+            throw new RuntimeException("Invalid URL read from segment: " + url, e);
+        }
+    }
+}
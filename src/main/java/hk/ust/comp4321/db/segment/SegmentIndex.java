@@ -0,0 +1,322 @@
+package hk.ust.comp4321.db.segment;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.DocumentFrequencies;
+import hk.ust.comp4321.nlp.Vocabulary;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A directory of immutable segments, which are searched together as one index.
+ *
+ * <p>Newly indexed documents are written as a new, small segment with {@link #add(List, int, ToLongFunction, ToLongFunction)},
+ * instead of being written into the index that queries read. Each segment covers a range of generations:
+ * a new segment covers only the next generation, and a merged segment covers the generations of all the
+ * segments it was merged from. The range is kept in the file name, e.g. {@code segment-3-6.seg}, so the
+ * directory alone describes the index; no other file has to be updated when segments are added or merged.
+ *
+ * <p>If a document is in more than one segment, the copy in the segment with the latest generation is used,
+ * and the others are ignored when searching (see {@link SegmentSearcher}).
+ *
+ * <p>Segments are merged by size tier: a segment with {@code n} documents is in tier
+ * {@code floor(log(n) / log(MERGE_FACTOR))}. Once {@link #MERGE_FACTOR} segments of the same tier
+ * are adjacent by generation, they are merged into one segment of the next tier, so that the number of
+ * segments grows logarithmically with the number of documents. Merges run on a background thread started by
+ * {@link #startMerging()}, and are only done by the process that adds segments. That process keeps the
+ * document frequencies of the latest copy of every document, counted from the segments on the first merge and
+ * updated as segments are added, so that a merged segment is weighted with the whole index.
+ *
+ * <p>Other processes (e.g. the web server) can open the same directory and call {@link #refresh()} to pick up
+ * segments as they are added or merged. Segment files are written under a temporary name and then renamed,
+ * so a partially written segment is never read.
+ */
+public final class SegmentIndex implements AutoCloseable {
+    /**
+     * The number of segments of the same tier which are merged together.
+     */
+    public static final int MERGE_FACTOR = 4;
+    private static final Pattern FILE_NAME = Pattern.compile("segment-(\\d+)-(\\d+)\\.seg");
+
+    private final Path directory;
+    private volatile List<SegmentFile> files = List.of();
+    private long nextGeneration = 0;
+    private ExecutorService merger;
+    private DocumentFrequencies docFreqs;
+
+    private SegmentIndex(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens a directory of segments, creating it if it does not exist.
+     * @param directory The directory holding the segment files
+     * @return The opened index, with every segment in the directory
+     * @throws IOException If the directory cannot be read, or a segment file cannot be opened
+     */
+    public static SegmentIndex open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        SegmentIndex index = new SegmentIndex(directory);
+        index.refresh();
+        return index;
+    }
+
+    /**
+     * Gets the segments to search, with the latest generation first.
+     * The list is not changed by later additions and merges.
+     * @return The current segments of the index
+     */
+    public List<Segment> segments() {
+        List<SegmentFile> current = files;
+        List<Segment> segments = new ArrayList<>(current.size());
+        for (int i = current.size() - 1; i >= 0; i--) {
+            segments.add(current.get(i).segment());
+        }
+        return segments;
+    }
+
+    /**
+     * Finds the segment holding the latest copy of a document.
+     * @param docId The document ID to look up
+     * @return The segment with the document; empty if no segment has the document
+     */
+    public Optional<Segment> segmentOf(int docId) {
+        return segments().stream().filter(s -> s.hasDocId(docId)).findFirst();
+    }
+
+    /**
+     * Reads the segment files in the directory again, opening the segments which were added
+     * and dropping the segments which were merged since the last refresh.
+     *
+     * <p>Segments which are already open are kept as they are, so searches running
+     * concurrently are not affected.
+     * @throws IOException If the directory cannot be read, or a new segment file cannot be opened
+     */
+    public synchronized void refresh() throws IOException {
+        List<SegmentFile> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.seg")) {
+            for (Path path : stream) {
+                Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    found.add(new SegmentFile(path, Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)), null));
+                }
+            }
+        }
+        Map<Path, SegmentFile> open = new HashMap<>();
+        files.forEach(f -> open.put(f.path(), f));
+        List<SegmentFile> live = new ArrayList<>();
+        for (SegmentFile file : found) {
+            if (found.stream().anyMatch(f -> f != file && f.covers(file))) {
+                // Left over from a merge which has finished
+                deleteQuietly(file.path());
+                continue;
+            }
+            SegmentFile existing = open.get(file.path());
+            if (existing == null) {
+                // Counted again on the next merge
+                docFreqs = null;
+            }
+            live.add(existing != null ? existing : file.open());
+        }
+        live.sort(Comparator.comparingLong(SegmentFile::last));
+        files = List.copyOf(live);
+        if (!live.isEmpty()) {
+            nextGeneration = Math.max(nextGeneration, live.get(live.size() - 1).last() + 1);
+        }
+    }
+
+    /**
+     * Writes documents into a new segment of the index.
+     * The documents replace any previous copy of the same document IDs in older segments.
+     * @param docs The loaded documents to add
+     * @param totalDocs The total number of documents in the index, which is used to compute
+     *                  inverse document frequencies
+     * @param titleDocFreq The document frequency of each title stem in the whole index
+     * @param bodyDocFreq The document frequency of each body stem in the whole index
+     * @throws IOException If writing the segment file fails
+     */
+    public void add(List<Document> docs, int totalDocs, ToLongFunction<String> titleDocFreq,
+                    ToLongFunction<String> bodyDocFreq) throws IOException {
+        if (docs.isEmpty()) {
+            return;
+        }
+        Map<Integer, Document> latest = new TreeMap<>();
+        docs.forEach(d -> latest.put(d.id(), d));
+        long generation;
+        synchronized (this) {
+            generation = nextGeneration++;
+        }
+        SegmentFile file = write(new ArrayList<>(latest.values()), totalDocs, titleDocFreq, bodyDocFreq,
+                generation, generation);
+        synchronized (this) {
+            List<SegmentFile> live = new ArrayList<>(files);
+            live.add(file);
+            live.sort(Comparator.comparingLong(SegmentFile::last));
+            files = List.copyOf(live);
+            if (docFreqs != null) {
+                latest.values().forEach(docFreqs::add);
+            }
+            if (merger != null) {
+                merger.execute(this::mergeAll);
+            }
+        }
+    }
+
+    /**
+     * Starts merging segments on a background thread, after every segment added.
+     * Only one process should merge the segments of a directory.
+     */
+    public synchronized void startMerging() {
+        if (merger == null) {
+            merger = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "segment-merger");
+                thread.setDaemon(true);
+                return thread;
+            });
+            merger.execute(this::mergeAll);
+        }
+    }
+
+    private void mergeAll() {
+        try {
+            while (merge()) {
+                // Merging may fill up the next tier
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Unable to merge segments in " + directory + ".");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Merges the oldest run of {@link #MERGE_FACTOR} adjacent segments of the same tier, if any.
+     * @return True if segments were merged; false if there is nothing to merge
+     * @throws IOException If writing the merged segment fails
+     */
+    boolean merge() throws IOException {
+        List<SegmentFile> current = files;
+        List<SegmentFile> run = findMerge(current);
+        if (run == null) {
+            return false;
+        }
+        Map<Integer, Document> docs = new TreeMap<>();
+        for (SegmentFile file : run) {
+            file.segment().documents().forEach(d -> docs.put(d.id(), d));
+        }
+        int totalDocs = current.stream().mapToInt(f -> f.segment().totalDocs()).max().orElse(0);
+        DocumentFrequencies docFreqs = documentFrequencies();
+        SegmentFile merged = write(new ArrayList<>(docs.values()), totalDocs,
+                stem -> docFreqs.titleDocFreq(Vocabulary.find(stem)),
+                stem -> docFreqs.bodyDocFreq(Vocabulary.find(stem)),
+                run.get(0).first(), run.get(run.size() - 1).last());
+        synchronized (this) {
+            List<SegmentFile> live = new ArrayList<>(files);
+            live.removeAll(run);
+            live.add(merged);
+            live.sort(Comparator.comparingLong(SegmentFile::last));
+            files = List.copyOf(live);
+        }
+        run.forEach(f -> deleteQuietly(f.path()));
+        return true;
+    }
+
+    /**
+     * Finds the oldest run of adjacent segments of the same tier to merge.
+     * @return The segments to merge, oldest first; null if there is no such run
+     */
+    private static List<SegmentFile> findMerge(List<SegmentFile> files) {
+        int start = 0;
+        for (int i = 1; i <= files.size(); i++) {
+            if (i == files.size() || tier(files.get(i)) != tier(files.get(start))) {
+                start = i;
+            } else if (i - start + 1 == MERGE_FACTOR) {
+                return files.subList(start, i + 1);
+            }
+        }
+        return null;
+    }
+
+    private static int tier(SegmentFile file) {
+        int docCount = Math.max(file.segment().docCount(), 1);
+        return (int) (Math.log(docCount) / Math.log(MERGE_FACTOR));
+    }
+
+    /**
+     * Gets the document frequencies of the latest copy of every document in the index,
+     * counting them from the segments if they have not been counted since the last refresh.
+     */
+    private synchronized DocumentFrequencies documentFrequencies() {
+        if (docFreqs == null) {
+            docFreqs = new DocumentFrequencies();
+            // Oldest first, so that later copies of a document replace earlier ones
+            files.forEach(f -> f.segment().documents().forEach(docFreqs::add));
+        }
+        return docFreqs;
+    }
+
+    private SegmentFile write(List<Document> docs, int totalDocs, ToLongFunction<String> titleDocFreq,
+                              ToLongFunction<String> bodyDocFreq, long first, long last) throws IOException {
+        Path path = directory.resolve("segment-%d-%d.seg".formatted(first, last));
+        Path temp = directory.resolve(path.getFileName() + ".tmp");
+        SegmentWriter.write(docs, totalDocs, titleDocFreq, bodyDocFreq, temp);
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new SegmentFile(path, first, last, Segment.open(path));
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // The file may still be mapped (e.g. on Windows); it is ignored and deleted on a later refresh
+        }
+    }
+
+    /**
+     * Waits for the background merges to finish, and stops the merge thread.
+     * The segments stay readable until they are no longer referenced.
+     */
+    @Override
+    public void close() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = merger;
+            merger = null;
+        }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A segment file in the directory.
+     * @param path The path of the file
+     * @param first The first generation covered by the segment
+     * @param last The last generation covered by the segment
+     * @param segment The opened segment; null if not opened yet
+     */
+    private record SegmentFile(Path path, long first, long last, Segment segment) {
+        private boolean covers(SegmentFile other) {
+            return first <= other.first && other.last <= last;
+        }
+
+        private SegmentFile open() throws IOException {
+            return new SegmentFile(path, first, last, Segment.open(path));
+        }
+    }
+}
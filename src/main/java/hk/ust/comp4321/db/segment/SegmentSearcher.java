@@ -0,0 +1,181 @@
+package hk.ust.comp4321.db.segment;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.db.PostingsCodec;
+import hk.ust.comp4321.se.SearchEngine;
+import hk.ust.comp4321.se.SearchVector;
+import hk.ust.comp4321.util.Tuple;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Searches the documents in one or more segments, with the same ranking as {@link SearchEngine}.
+ *
+ * <p>Only the postings of the query terms are read from the segments; the documents
+ * are not loaded, except for the results returned.
+ *
+ * <p>When searching several segments (see {@link SegmentIndex}), the inverse document frequencies
+ * are computed over all the segments, and a document is only scored in the latest segment holding it.
+ */
+public class SegmentSearcher {
+    private static final double TITLE_BOOST_FACTOR = 1.5;
+    private static final int MAX_RESULTS = 50;
+    private final Supplier<List<Segment>> segments;
+
+    /**
+     * Creates a new searcher.
+     * @param segment The segment to search
+     */
+    public SegmentSearcher(Segment segment) {
+        this(() -> List.of(segment));
+    }
+
+    /**
+     * Creates a new searcher over a directory of segments.
+     * Each search reads the segments of the index at the time, so segments added later are searched too.
+     * @param index The segments to search
+     */
+    public SegmentSearcher(SegmentIndex index) {
+        this(index::segments);
+    }
+
+    private SegmentSearcher(Supplier<List<Segment>> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Searches for documents related to the query.
+     * @param query The entire input query
+     * @return List of Document-score pairs sorted by score in non-increasing order
+     */
+    public List<Tuple<Document, Double>> search(SearchVector query) {
+        Map<String, Double> weights = query.getWeights();
+        double queryLen = Math.sqrt(weights.values().stream().mapToDouble(d -> d * d).sum());
+        List<Segment> live = segments.get();
+        if (queryLen == 0 || live.isEmpty()) {
+            return List.of();
+        }
+        int totalDocs = live.stream().mapToInt(Segment::totalDocs).max().orElse(0);
+        Map<String, Double> titleIdf = idf(live, Segment.Field.TITLE, weights.keySet(), totalDocs);
+        Map<String, Double> bodyIdf = idf(live, Segment.Field.BODY, weights.keySet(), totalDocs);
+
+        List<Hit> hits = new ArrayList<>();
+        for (int i = 0; i < live.size(); i++) {
+            Segment segment = live.get(i);
+            List<Segment> newer = live.subList(0, i);
+            double[] title = cosineSim(segment, Segment.Field.TITLE, weights, titleIdf, queryLen);
+            double[] body = cosineSim(segment, Segment.Field.BODY, weights, bodyIdf, queryLen);
+
+            List<int[]> phrases = new ArrayList<>();
+            for (List<String> phrase : query.getRequiredTerms()) {
+                phrases.add(terms(segment, Segment.Field.TITLE, phrase));
+                phrases.add(terms(segment, Segment.Field.BODY, phrase));
+            }
+            for (int row = 0; row < segment.docCount(); row++) {
+                double score = title[row] * TITLE_BOOST_FACTOR + body[row];
+                if (score != 0.0 && isLatest(segment.docId(row), newer) && hasPhrases(segment, row, phrases)) {
+                    hits.add(new Hit(segment, row, score));
+                }
+            }
+        }
+        return hits.stream()
+                .sorted(Comparator.comparingDouble(Hit::score).reversed())
+                .limit(MAX_RESULTS)
+                .map(hit -> new Tuple<>(hit.segment().documentAt(hit.row()), hit.score()))
+                .toList();
+    }
+
+    /**
+     * Computes the inverse document frequency of every query term in a field, over all segments.
+     * Terms which are in no segment are left out.
+     */
+    private static Map<String, Double> idf(List<Segment> segments, Segment.Field field, Set<String> stems, int totalDocs) {
+        Map<String, Double> idf = new HashMap<>();
+        for (String stem : stems) {
+            long docFreq = 0;
+            for (Segment segment : segments) {
+                int term = segment.findTerm(field, stem);
+                if (term != -1) {
+                    docFreq += segment.docFreq(field, term);
+                }
+            }
+            if (docFreq > 0) {
+                idf.put(stem, Math.log((double) totalDocs / docFreq) / Math.log(2));
+            }
+        }
+        return idf;
+    }
+
+    private static boolean isLatest(int docId, List<Segment> newer) {
+        for (Segment segment : newer) {
+            if (segment.hasDocId(docId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the cosine similarity between the query and a field of every document in a segment.
+     */
+    private static double[] cosineSim(Segment segment, Segment.Field field, Map<String, Double> weights,
+                                      Map<String, Double> idfs, double queryLen) {
+        double[] inner = new double[segment.docCount()];
+        weights.forEach((stem, weight) -> {
+            int term = segment.findTerm(field, stem);
+            if (term == -1) {
+                return;
+            }
+            double idf = idfs.get(stem);
+            PostingsCodec.forEachDocument(segment.postings(field, term), (docId, termFreq) -> {
+                int row = segment.row(docId);
+                if (row != -1) {
+                    inner[row] += (double) termFreq / segment.maxTermFreq(field, row) * idf * weight;
+                }
+            });
+        });
+        for (int row = 0; row < inner.length; row++) {
+            double docLen = segment.norm(field, row);
+            inner[row] = docLen == 0 ? 0 : inner[row] / (docLen * queryLen);
+        }
+        return inner;
+    }
+
+    /**
+     * Gets the indices of the terms of a phrase in a field.
+     * @return The indices of the terms; null if any term does not exist in the field
+     */
+    private static int[] terms(Segment segment, Segment.Field field, List<String> phrase) {
+        int[] terms = new int[phrase.size()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = segment.findTerm(field, phrase.get(i));
+            if (terms[i] == -1) {
+                return null;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Checks if every phrase appears in either the title or the body of the document.
+     * @param phrases The title and body terms of every phrase, alternating
+     */
+    private static boolean hasPhrases(Segment segment, int row, List<int[]> phrases) {
+        for (int i = 0; i < phrases.size(); i += 2) {
+            int[] title = phrases.get(i);
+            int[] body = phrases.get(i + 1);
+            if (!(title != null && segment.hasPhrase(Segment.Field.TITLE, row, title))
+                    && !(body != null && segment.hasPhrase(Segment.Field.BODY, row, body))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A matching document in a segment.
+     */
+    private record Hit(Segment segment, int row, double score) {
+    }
+}
@@ -0,0 +1,295 @@
+package hk.ust.comp4321.db.segment;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.FieldPostings;
+import hk.ust.comp4321.api.WordInfo;
+import hk.ust.comp4321.db.DatabaseConnection;
+import hk.ust.comp4321.db.IndexStore;
+import hk.ust.comp4321.db.PostingsCodec;
+import hk.ust.comp4321.nlp.NltkPorter;
+import hk.ust.comp4321.nlp.Vocabulary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Offline exporter which writes the contents of a database into a segment file.
+ *
+ * <p>The term weights of every document are computed once while exporting,
+ * in the same way as {@link Document#asBodyVector(hk.ust.comp4321.api.DocumentFrequencies)}, so that a
+ * {@link SegmentSearcher} does not need to load any document to rank them.
+ * See {@link Segment} for the layout of the file.
+ */
+public final class SegmentWriter {
+    private static final Comparator<String> UTF8_ORDER = (a, b) ->
+            Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    private SegmentWriter(DataOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Exports a database into a segment file.
+     * Usage: {@code SegmentWriter [database] [segment]}; the paths default to
+     * {@code spider_result.db} and {@code spider_result.seg}.
+     * @param args The path of the database, and the path of the segment file
+     * @throws SQLException If reading from the database fails
+     * @throws IOException If writing the segment file fails
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        Path dbPath = Path.of(args.length > 0 ? args[0] : "spider_result.db");
+        Path output = Path.of(args.length > 1 ? args[1] : "spider_result.seg");
+        try (DatabaseConnection conn = new DatabaseConnection(dbPath)) {
+            export(conn, output);
+        }
+    }
+
+    /**
+     * Writes all the documents in the index store, their words and their links into a segment file.
+     * @param conn The index store to read from
+     * @param output The path of the segment file; replaced if it exists
+     * @throws IOException If writing the segment file fails
+     */
+    public static void export(IndexStore conn, Path output) throws IOException {
+        List<Document> docs = new ArrayList<>(conn.loadDocuments());
+        docs.sort(Comparator.comparingInt(Document::id));
+        write(docs, (int) DatabaseConnection.getDocSize(), null, null, output);
+    }
+
+    /**
+     * Writes loaded documents into a segment file.
+     *
+     * <p>The norms of the documents are computed with the document frequencies given,
+     * so that a segment holding only some of the documents is weighted in the same way
+     * as the rest of the index. If these are null, the document frequencies within
+     * the segment are used instead.
+     * @param docs The loaded documents to write, sorted by document ID
+     * @param totalDocs The total number of documents, which is used to compute inverse document frequencies
+     * @param titleDocFreq The document frequency of each title stem; null to count them in the segment
+     * @param bodyDocFreq The document frequency of each body stem; null to count them in the segment
+     * @param output The path of the segment file; replaced if it exists
+     * @throws IOException If writing the segment file fails
+     */
+    static void write(List<Document> docs, int totalDocs, ToLongFunction<String> titleDocFreq,
+                      ToLongFunction<String> bodyDocFreq, Path output) throws IOException {
+        Files.deleteIfExists(output);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            new SegmentWriter(out).writeSegment(docs, totalDocs, titleDocFreq, bodyDocFreq, output);
+        }
+    }
+
+    private void writeSegment(List<Document> docs, int totalDocs, ToLongFunction<String> titleDocFreq,
+                              ToLongFunction<String> bodyDocFreq, Path output) throws IOException {
+        out.write(new byte[Segment.HEADER_SIZE]);
+        FieldData title = new FieldData(docs, Document::titleFrequencies, totalDocs, titleDocFreq);
+        FieldData body = new FieldData(docs, Document::bodyFrequencies, totalDocs, bodyDocFreq);
+        int[] titlePostings = title.writePostings();
+        int[] bodyPostings = body.writePostings();
+
+        Map<String, Integer> rows = new HashMap<>();
+        for (int i = 0; i < docs.size(); i++) {
+            rows.put(docs.get(i).url().toString(), i);
+        }
+        List<List<Integer>> parents = docs.stream().<List<Integer>>map(d -> new ArrayList<>()).toList();
+        for (int i = 0; i < docs.size(); i++) {
+            for (URL child : docs.get(i).children()) {
+                Integer row = rows.get(child.toString());
+                if (row != null && !parents.get(row).contains(i)) {
+                    parents.get(row).add(i);
+                }
+            }
+        }
+
+        int[][] docData = new int[docs.size()][];
+        for (int i = 0; i < docs.size(); i++) {
+            Document doc = docs.get(i);
+            int[] children = new int[doc.children().size()];
+            for (int j = 0; j < children.length; j++) {
+                children[j] = writeString(doc.children().get(j).toString());
+            }
+            docData[i] = new int[] {
+                    writeString(doc.url().toString()),
+                    writeString(doc.title()),
+                    writeString(keywords(doc)),
+                    title.writeSequence(doc),
+                    body.writeSequence(doc),
+                    writeInts(children),
+                    writeInts(parents.get(i).stream().mapToInt(Integer::intValue).toArray())
+            };
+        }
+
+        int docsOffset = offset();
+        for (int i = 0; i < docs.size(); i++) {
+            Document doc = docs.get(i);
+            int[] data = docData[i];
+            out.writeInt(doc.id());
+            out.writeInt(data[0]);
+            out.writeInt(data[1]);
+            out.writeLong(doc.lastModified().toEpochMilli());
+            out.writeLong(doc.size());
+            out.writeInt(data[2]);
+            out.writeDouble(title.norms.get(doc.id()));
+            out.writeDouble(body.norms.get(doc.id()));
+            out.writeInt(title.maxTermFreqs.get(doc.id()));
+            out.writeInt(body.maxTermFreqs.get(doc.id()));
+            out.writeInt(data[3]);
+            out.writeInt(data[4]);
+            out.writeInt(data[5]);
+            out.writeInt(data[6]);
+        }
+        int titleTermsOffset = offset();
+        title.writeTerms(titlePostings);
+        int bodyTermsOffset = offset();
+        body.writeTerms(bodyPostings);
+        out.flush();
+        offset(); // Fails if the file is too large to be mapped
+
+        ByteBuffer header = ByteBuffer.allocate(Segment.HEADER_SIZE)
+                .putInt(Segment.MAGIC)
+                .putInt(Segment.VERSION)
+                .putInt(docs.size())
+                .putInt(totalDocs)
+                .putInt(title.terms.size())
+                .putInt(body.terms.size())
+                .putInt(docsOffset)
+                .putInt(titleTermsOffset)
+                .putInt(bodyTermsOffset)
+                .putInt(0)
+                .flip();
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+            channel.write(header, 0);
+        }
+    }
+
+    /**
+     * Gets the five most frequent words of a document, in the same format as the search result page.
+     */
+    private static String keywords(Document doc) {
+        Map<String, Long> frequencies =
+                Stream.concat(doc.bodyFrequencies().words(), doc.titleFrequencies().words())
+                        .collect(Collectors.groupingBy(s -> s, Collectors.counting()));
+        return frequencies.entrySet().stream().sorted(
+                        Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(5).map(e -> NltkPorter.stem(e.getKey()) + " " + e.getValue()).collect(Collectors.joining("; "));
+    }
+
+    private int offset() throws IOException {
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("Segment file exceeds " + Integer.MAX_VALUE + " bytes");
+        }
+        return out.size();
+    }
+
+    private int writeString(String s) throws IOException {
+        Integer existing = strings.get(s);
+        if (existing != null) {
+            return existing;
+        }
+        int offset = offset();
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        strings.put(s, offset);
+        return offset;
+    }
+
+    private int writeInts(int[] values) throws IOException {
+        int offset = offset();
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+        return offset;
+    }
+
+    /**
+     * The terms, postings and term weights of one field of all documents.
+     */
+    private final class FieldData {
+        private final Function<Document, FieldPostings> converter;
+        private final SortedMap<String, List<WordInfo>> terms = new TreeMap<>(UTF8_ORDER);
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        private final Map<Integer, Double> norms = new HashMap<>();
+        private final Map<Integer, Integer> maxTermFreqs = new HashMap<>();
+
+        private FieldData(List<Document> docs, Function<Document, FieldPostings> converter, int totalDocs,
+                          ToLongFunction<String> docFreq) {
+            this.converter = converter;
+            docs.forEach(d -> converter.apply(d).forEach((info, stem) ->
+                    terms.computeIfAbsent(stem, s -> new ArrayList<>()).add(info)));
+            terms.keySet().forEach(stem -> ordinals.put(stem, ordinals.size()));
+            Map<String, Long> docFreqs = new HashMap<>();
+            terms.forEach((stem, infos) -> docFreqs.put(stem, docFreq != null ? docFreq.applyAsLong(stem) :
+                    infos.stream().mapToInt(WordInfo::docId).distinct().count()));
+            for (Document doc : docs) {
+                Map<String, Long> values = converter.apply(doc).values().stream()
+                        .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+                long maxTerm = values.values().stream().max(Long::compare).orElse(0L);
+                double norm = Math.sqrt(values.entrySet().stream()
+                        .mapToDouble(e -> e.getValue() * (Math.log((double) totalDocs / docFreqs.get(e.getKey()))
+                                / Math.log(2)) / maxTerm)
+                        .map(w -> w * w)
+                        .sum());
+                norms.put(doc.id(), norm);
+                maxTermFreqs.put(doc.id(), (int) maxTerm);
+            }
+        }
+
+        /**
+         * Writes the stem and the postings of every term into the data area.
+         * @return The offset of the stem, the offset of the postings and the length
+         * of the postings of every term, in order
+         */
+        private int[] writePostings() throws IOException {
+            int[] offsets = new int[terms.size() * 3];
+            int i = 0;
+            for (Map.Entry<String, List<WordInfo>> term : terms.entrySet()) {
+                offsets[i++] = writeString(term.getKey());
+                byte[] blob = PostingsCodec.encode(term.getValue());
+                offsets[i++] = offset();
+                offsets[i++] = blob.length;
+                out.write(blob);
+            }
+            return offsets;
+        }
+
+        private int writeSequence(Document doc) throws IOException {
+            // The words are already sorted by position
+            FieldPostings words = converter.apply(doc);
+            int offset = offset();
+            out.writeInt(words.size());
+            for (int i = 0; i < words.size(); i++) {
+                out.writeInt(words.paragraphAt(i));
+                out.writeInt(ordinals.get(Vocabulary.stem(words.termAt(i))));
+            }
+            return offset;
+        }
+
+        private void writeTerms(int[] postings) throws IOException {
+            int i = 0;
+            for (Map.Entry<String, List<WordInfo>> term : terms.entrySet()) {
+                out.writeInt(postings[i++]);
+                out.writeInt((int) term.getValue().stream().mapToInt(WordInfo::docId).distinct().count());
+                out.writeInt(postings[i++]);
+                out.writeInt(postings[i++]);
+            }
+        }
+    }
+}
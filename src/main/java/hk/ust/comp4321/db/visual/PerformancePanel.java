@@ -2,6 +2,7 @@ package hk.ust.comp4321.db.visual;
 
 import hk.ust.comp4321.api.Document;
 import hk.ust.comp4321.db.DatabaseConnection;
+import hk.ust.comp4321.db.IndexStore;
 
 import javax.swing.*;
 import java.time.LocalTime;
@@ -14,7 +15,7 @@ public class PerformancePanel extends JPanel {
     private final JProgressBar bar;
     private final JLabel timeElapsed = new JLabel();
     private final JButton docButton;
-    public PerformancePanel(DatabaseConnection conn) {
+    public PerformancePanel(IndexStore conn) {
         int max = DatabaseConnection.nextDocId() - 1; // don't care about the consistency
         bar = new JProgressBar(0, max);
         bar.setStringPainted(true);
@@ -38,11 +39,11 @@ public class PerformancePanel extends JPanel {
         add(documentPanel);
     }
     private class DocumentRetrieval extends SwingWorker<Void, Void> {
-        private final DatabaseConnection conn;
+        private final IndexStore conn;
         private final int max;
         private final ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
         private final AtomicInteger seconds = new AtomicInteger();
-        public DocumentRetrieval(DatabaseConnection conn, int max) {
+        public DocumentRetrieval(IndexStore conn, int max) {
             this.conn = conn;
             this.max = max;
         }
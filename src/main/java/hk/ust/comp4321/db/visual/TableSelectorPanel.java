@@ -1,8 +1,10 @@
 package hk.ust.comp4321.db.visual;
 
 import hk.ust.comp4321.db.DatabaseConnection;
+import hk.ust.comp4321.db.SqliteTableOperation;
 import org.jooq.DSLContext;
 import org.jooq.Table;
+import org.jooq.impl.DSL;
 
 import java.util.List;
 
@@ -15,7 +17,6 @@ import java.awt.*;
 public class TableSelectorPanel extends JPanel {
     private final GridBagConstraints cons = new GridBagConstraints();
     private static final List<String> TYPES = List.of("body", "title");
-    private static final List<String> EXCLUDED = List.of("Document", "DocumentLink", "WordIndex", "ForwardIndex");
     private TablePanel tablePanel = null;
     private final JComboBox<String> stemName;
     private final JComboBox<String> tableType = new JComboBox<>(TYPES.toArray(new String[]{}));
@@ -26,10 +27,9 @@ public class TableSelectorPanel extends JPanel {
     /**
      * Constructs a new TableSelectorPanel.
      * @param create The DSL context to send SQL queries with
-     * @param tables The List of tables to filter by
      * @param conn The database connection to lookup stem IDs with
      */
-    public TableSelectorPanel(DSLContext create, List<Table<?>> tables, DatabaseConnection conn) {
+    public TableSelectorPanel(DSLContext create, DatabaseConnection conn) {
         cons.gridwidth = GridBagConstraints.REMAINDER;
         cons.gridheight = 1;
         cons.fill = GridBagConstraints.BOTH;
@@ -42,14 +42,7 @@ public class TableSelectorPanel extends JPanel {
         JPanel panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
         panel.add(new JLabel("Stem: "));
-        List<String> stemNames = tables.stream()
-                .filter(t -> !EXCLUDED.contains(t.getName()))
-                .map(t -> t.getName().split("_"))
-                .filter(s -> s[0].equals("body"))
-                .map(s -> conn.bodyOperator().getStemFromId(Integer.parseInt(s[1])))
-                .distinct()
-                .toList();
-        stemName = new JComboBox<>(stemNames.toArray(new String[]{}));
+        stemName = new JComboBox<>(getStems(create, "body").toArray(new String[]{}));
         stemName.setEditable(true);
         panel.add(stemName);
         panel.add(new JLabel("Type: "));
@@ -58,13 +51,7 @@ public class TableSelectorPanel extends JPanel {
         tableType.addActionListener(ignored -> SwingUtilities.invokeLater(() -> {
             stemName.setEditable(false);
             stemName.removeAllItems();
-            tables.stream()
-                    .filter(t -> !EXCLUDED.contains(t.getName()))
-                    .map(t -> t.getName().split("_"))
-                    .filter(s -> s[0].equals(tableType.getSelectedItem()))
-                    .map(s -> conn.bodyOperator().getStemFromId(Integer.parseInt(s[1])))
-                    .distinct()
-                    .forEach(stemName::addItem);
+            getStems(create, (String) tableType.getSelectedItem()).forEach(stemName::addItem);
             stemName.setEditable(true);
         }));
 
@@ -72,13 +59,13 @@ public class TableSelectorPanel extends JPanel {
         submit.addActionListener(ignored -> {
             String stem = (String) stemName.getSelectedItem();
             String type = (String) tableType.getSelectedItem();
-            int id = switch (type) {
-                case "body" -> conn.bodyOperator().getIdFromStem(stem);
-                case "title" -> conn.titleOperator().getIdFromStem(stem);
+            SqliteTableOperation operator = switch (type) {
+                case "body" -> conn.bodyOperator();
+                case "title" -> conn.titleOperator();
                 default -> throw new IllegalStateException("No such type: " + type);
             };
-            String tableName = type + "_" + id;
-            if (tables.stream().noneMatch(t -> t.getName().equals(tableName))) {
+            int id = operator.getIdFromStem(stem);
+            if (id == -1) {
                 JOptionPane pane = new JOptionPane("The table does not exist!", JOptionPane.ERROR_MESSAGE);
                 JDialog dialog = pane.createDialog(null, "Error!");
                 dialog.setModalityType(Dialog.ModalityType.MODELESS);
@@ -87,9 +74,18 @@ public class TableSelectorPanel extends JPanel {
                 if (tablePanel != null) {
                     remove(tablePanel);
                 }
-                tablePanel = new TablePanel(create, tables.stream()
-                        .filter(s -> s.getName().equals(tableName))
-                        .findFirst().orElseThrow(), TABLE_TYPES, COLUMN_NAMES);
+                // The raw words are stored once per stem in the surface form table
+                Table<?> wordTable = create.select(COLUMN_NAMES.subList(0, 4).stream()
+                                .map(s -> DSL.field(DSL.name("p", s))).toList())
+                        .select(DSL.coalesce(DSL.field(DSL.name("s", "rawWord"), String.class), DSL.inline(""))
+                                .as("rawWord"))
+                        .from(DSL.table(DSL.name(operator.getPostingsTable())).as("p"))
+                        .leftJoin(DSL.table(DSL.name(operator.getSurfaceFormTable())).as("s"))
+                        .on(DSL.field(DSL.name("s", "wordId")).eq(DSL.field(DSL.name("p", "wordId")))
+                                .and(DSL.field(DSL.name("s", "formId")).eq(DSL.field(DSL.name("p", "formId")))))
+                        .where(DSL.condition(DSL.field(DSL.name("p", "wordId")).eq(id)))
+                        .asTable(operator.getPrefix(id));
+                tablePanel = new TablePanel(create, wordTable, TABLE_TYPES, COLUMN_NAMES);
                 add(tablePanel, cons);
                 invalidate();
                 revalidate();
@@ -106,4 +102,17 @@ public class TableSelectorPanel extends JPanel {
         cons.weightx = 1.0;
         cons.weighty = 1.0;
     }
+
+    /**
+     * Gets all the stems of the specified type.
+     * @param create The DSL context to send SQL queries with
+     * @param type The type prefix of the stems
+     * @return The list of all stems with the type prefix
+     */
+    private static List<String> getStems(DSLContext create, String type) {
+        return create.selectDistinct(DSL.field(DSL.name("stem"))).from(DSL.table(DSL.name("WordIndex")))
+                .where(DSL.condition(DSL.field(DSL.name("typePrefix")).eq(type)))
+                .fetch()
+                .map(r -> r.get(0, String.class));
+    }
 }
@@ -4,7 +4,6 @@ import com.formdev.flatlaf.FlatDarculaLaf;
 import hk.ust.comp4321.db.DatabaseConnection;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
-import org.jooq.Table;
 import org.jooq.impl.DSL;
 
 import javax.swing.*;
@@ -13,7 +12,6 @@ import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.List;
 
 /**
  * Main class to visualize a SQLite database.
@@ -44,8 +42,6 @@ public class Visualizer {
         Connection conn = DriverManager.getConnection("jdbc:sqlite:" + f.getAbsolutePath());
         DSLContext create = DSL.using(conn, SQLDialect.SQLITE);
         DatabaseConnection connection = new DatabaseConnection(f.toPath());
-        List<Table<?>> tables = create.fetch("SELECT * FROM sqlite_master WHERE type='table'")
-                .map(r -> DSL.table(r.get(2, String.class)));
-        new VisualizerFrame(create, tables, connection);
+        new VisualizerFrame(create, connection);
     }
 }
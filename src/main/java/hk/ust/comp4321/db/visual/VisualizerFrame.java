@@ -2,7 +2,6 @@ package hk.ust.comp4321.db.visual;
 
 import hk.ust.comp4321.db.DatabaseConnection;
 import org.jooq.DSLContext;
-import org.jooq.Table;
 import org.jooq.impl.DSL;
 
 import javax.swing.*;
@@ -27,10 +26,9 @@ public class VisualizerFrame extends JFrame {
     /**
      * Creates a new VisualizerFrame to display database tables.
      * @param create The DSLContext to run SQL queries with
-     * @param tables The tables to display
      * @param conn The database connection to lookup IDs with
      */
-    public VisualizerFrame(DSLContext create, List<Table<?>> tables, DatabaseConnection conn) {
+    public VisualizerFrame(DSLContext create, DatabaseConnection conn) {
         super("Database Visualizer");
         setLayout(new BorderLayout());
         setDefaultCloseOperation(EXIT_ON_CLOSE);
@@ -38,7 +36,7 @@ public class VisualizerFrame extends JFrame {
         JTabbedPane pane = new JTabbedPane();
         SPECIAL_TABLES.forEach(s -> pane.addTab(s.name(),
                 new TablePanel(create, DSL.table(s.name()), s.types(), s.names())));
-        pane.addTab("Table Lookup", new TableSelectorPanel(create, tables, conn));
+        pane.addTab("Table Lookup", new TableSelectorPanel(create, conn));
         pane.addTab("Performance Metrics", new PerformancePanel(conn));
         add(pane, BorderLayout.CENTER);
         pack();
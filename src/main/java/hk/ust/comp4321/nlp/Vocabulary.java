@@ -0,0 +1,83 @@
+package hk.ust.comp4321.nlp;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe dictionary of every stem seen by this process, which gives each stem a term ID.
+ *
+ * <p>Term IDs are dense, starting from 0, and are never reused or changed while the process runs,
+ * so documents, search vectors and queries can refer to stems by term ID, and compare them without
+ * hashing their characters. Each stem is only stored once, however many documents contain it.
+ *
+ * <p>Term IDs are not stored anywhere; they differ from run to run, and from the word IDs in the database.
+ * Stems are never removed, so the dictionary grows with the number of distinct stems indexed and queried.
+ */
+public final class Vocabulary {
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] stems = new String[1024];
+    private static int size = 0;
+
+    private Vocabulary() {
+        throw new AssertionError("Vocabulary cannot be instantiated!");
+    }
+
+    /**
+     * Gets the term ID of a stem, and adds the stem if it is not in the dictionary yet.
+     * @param stem The stem to look up
+     * @return The term ID of the stem
+     */
+    public static int id(String stem) {
+        Integer id = ids.get(stem);
+        if (id != null) {
+            return id;
+        }
+        synchronized (Vocabulary.class) {
+            id = ids.get(stem);
+            if (id != null) {
+                return id;
+            }
+            if (size == stems.length) {
+                stems = Arrays.copyOf(stems, size * 2);
+            }
+            stems[size] = stem;
+            // The stem is stored before its ID is published, so any thread which finds the ID can read the stem
+            ids.put(stem, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Gets the term ID of a stem, without adding the stem.
+     * @param stem The stem to look up
+     * @return The term ID of the stem; -1 if the stem is not in the dictionary
+     */
+    public static int find(String stem) {
+        Integer id = ids.get(stem);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Gets the stem with a term ID.
+     * @param id The term ID, from {@link #id(String)}
+     * @return The stem
+     * @throws IndexOutOfBoundsException If no stem has the term ID
+     */
+    public static String stem(int id) {
+        String[] current = stems;
+        String stem = id >= 0 && id < current.length ? current[id] : null;
+        if (stem == null) {
+            throw new IndexOutOfBoundsException("No stem has term ID " + id);
+        }
+        return stem;
+    }
+
+    /**
+     * Gets the number of stems in the dictionary, which is one more than the largest term ID.
+     * @return The number of stems
+     */
+    public static int size() {
+        return ids.size();
+    }
+}
@@ -1,65 +1,99 @@
 package hk.ust.comp4321.se;
 
 import hk.ust.comp4321.api.Document;
-import hk.ust.comp4321.api.WordInfo;
-import hk.ust.comp4321.db.DatabaseConnection;
+import hk.ust.comp4321.db.DocumentCache;
+import hk.ust.comp4321.db.IndexStore;
 import hk.ust.comp4321.util.Tuple;
 
 import java.util.*;
+import java.util.stream.Stream;
 
 public class SearchEngine {
 
-    private final DatabaseConnection conn;
+    private final IndexStore conn;
     private final List<Document> docs;
+    private final DocumentCache cache;
     private final double TITLE_BOOST_FACTOR = 1.5;
+    private static final int MAX_RESULTS = 50;
+    private final VectorIndex index;
 
     /***
      * Creates a new Search Engine.
-     * @param conn The DatabaseConnection to use
+     * Documents which are not loaded are loaded when checked for a phrase, and are not cached.
+     * The index is built from the vectors of the documents, so their vectors should be loaded first.
+     * @param conn The index store to use
      */
-    public SearchEngine(DatabaseConnection conn, List<Document> docs) {
+    public SearchEngine(IndexStore conn, List<Document> docs) {
+        this(conn, docs, new DocumentCache(conn, 0));
+    }
+
+    /***
+     * Creates a new Search Engine, which scores documents with their stored vectors, and only
+     * loads the words of the documents checked for phrases, through the cache.
+     *
+     * <p>The index is built here, from the vectors of the documents, so their vectors should be
+     * loaded first (see {@link IndexStore#loadVectors(List)}); any vector which is not loaded is
+     * read from the index store. The documents should not be changed afterwards.
+     * @param conn The index store to use
+     * @param cache The cache to load the words of documents with
+     */
+    public SearchEngine(IndexStore conn, List<Document> docs, DocumentCache cache) {
         this.conn = conn;
         this.docs = docs;
+        this.cache = cache;
+        index = new VectorIndex(docs, d -> d.asTitleVector(conn), d -> d.asBodyVector(conn));
     }
 
     /***
      * Searches for Documents related to query.
+     *
+     * <p>Only the documents sharing a term with the query are scored, by walking the postings of the
+     * query terms in an inverted index of the stored vectors, which is built when the search engine is created.
+     * Without quoted phrases, only the best results are kept, and the documents which cannot be among
+     * them are skipped. With quoted phrases, every match is ranked, and the documents are checked for the
+     * phrases in the order of their scores until there are enough results. A quoted phrase with
+     * a word which no document has matches nothing.
      * @param query The entire input query
      * @return List of Document-score pairs sorted by score in non-increasing order
      */
     public List<Tuple<Document, Double>> search(SearchVector query) {
-        return docs.stream()
-                .map(d -> new Tuple<>(d, d.asTitleVector(docs).cosineSim(query) * TITLE_BOOST_FACTOR +
-                        d.asBodyVector(docs).cosineSim(query)))
+        query = query.resolve();
+        if (query.hasUnknownPhrase()) {
+            return List.of();
+        }
+        if (query.getRequiredTermIds().isEmpty()) {
+            return index.search(query, TITLE_BOOST_FACTOR, MAX_RESULTS);
+        }
+        return withPhrases(index.search(query, TITLE_BOOST_FACTOR, Integer.MAX_VALUE).stream(), query);
+    }
+
+    /***
+     * Searches for Documents related to query, by comparing the query with the vectors of every document.
+     * This gives the same results as {@link #search(SearchVector)}, in time linear in the number of documents.
+     * @param query The entire input query
+     * @return List of Document-score pairs sorted by score in non-increasing order
+     */
+    List<Tuple<Document, Double>> scan(SearchVector query) {
+        SearchVector resolved = query.resolve();
+        if (resolved.hasUnknownPhrase()) {
+            return List.of();
+        }
+        return withPhrases(docs.stream()
+                .map(d -> new Tuple<>(d, d.asTitleVector(conn).cosineSim(resolved) * TITLE_BOOST_FACTOR +
+                        d.asBodyVector(conn).cosineSim(resolved)))
                 .filter(d -> d.right() != 0.0)
-                .sorted(Comparator.<Tuple<Document, Double>, Double>comparing(Tuple::right).reversed())
-                .filter(d -> query.getRequiredTerms().stream()
-                        .allMatch(s -> hasPhrase(d.left().bodyFrequencies(), s) || hasPhrase(d.left().titleFrequencies(), s)))
-                .limit(50)
+                .sorted(Comparator.<Tuple<Document, Double>, Double>comparing(Tuple::right).reversed()), resolved);
+    }
+
+    private List<Tuple<Document, Double>> withPhrases(Stream<Tuple<Document, Double>> ranked, SearchVector query) {
+        return ranked
+                .filter(d -> query.getRequiredTermIds().stream()
+                        .allMatch(s -> hasPhrase(cache.get(d.left()), s)))
+                .limit(MAX_RESULTS)
                 .toList();
     }
 
-    private boolean hasPhrase(Map<WordInfo, String> map, List<String> phrase) {
-        if (!phrase.stream().allMatch(map::containsValue)) {
-            return false;
-        }
-        List<Map.Entry<WordInfo, String>> l = map.entrySet().stream().sorted(Map.Entry.comparingByKey()).toList();
-        int curParagraph = 0, phraseIdx = 0;
-        for (Map.Entry<WordInfo, String> entry : l) {
-            if (entry.getKey().paragraph() != curParagraph) {
-                curParagraph = entry.getKey().paragraph();
-                phraseIdx = 0;
-            }
-            if (entry.getValue().equals(phrase.get(phraseIdx))) {
-                phraseIdx++;
-            } else {
-                phraseIdx = 0;
-            }
-            if (phraseIdx == phrase.size()) {
-                return true;
-            }
-        }
-        return false;
+    private static boolean hasPhrase(Document doc, int[] phrase) {
+        return doc.bodyFrequencies().hasPhrase(phrase) || doc.titleFrequencies().hasPhrase(phrase);
     }
 }
-
@@ -1,6 +1,7 @@
 package hk.ust.comp4321.se;
 
 import hk.ust.comp4321.nlp.NltkPorter;
+import hk.ust.comp4321.nlp.Vocabulary;
 import hk.ust.comp4321.util.StopWord;
 
 import java.util.*;
@@ -10,10 +11,18 @@ import java.util.stream.Stream;
 /**
  * A class representing a vector in the search engine.
  * A search vector can be generated for user queries and documents.
+ *
+ * <p>The terms are stored as term IDs (see {@link Vocabulary}), sorted in ascending order,
+ * so that two vectors are compared by merging their term IDs, without hashing the stems.
  */
 public class SearchVector {
-    private final Map<String, Double> vector = new HashMap<>();
+    private final int[] termIds;
+    private final double[] weights;
     private final List<List<String>> requiredTerms = new ArrayList<>();
+    private final List<int[]> requiredTermIds = new ArrayList<>();
+    private final List<String> unknownTerms = new ArrayList<>();
+    private final String rawQuery;
+    private final double norm;
 
     /**
      * Constructs a new SearchVector with the terms and the weights specified.
@@ -26,17 +35,66 @@ public class SearchVector {
             throw new IllegalArgumentException("Term-weight length mismatch: The term length is %d while the weight length is %d"
                     .formatted(terms.size(), weights.size()));
         }
+        Map<Integer, Double> vector = new HashMap<>();
         for (int i = 0; i < terms.size(); i++) {
-            vector.put(terms.get(i), weights.get(i));
+            vector.put(Vocabulary.id(terms.get(i)), weights.get(i));
         }
+        this.termIds = sortedIds(vector);
+        this.weights = weightsOf(termIds, vector);
+        rawQuery = null;
+        norm = computeNorm();
+    }
+
+    /**
+     * Constructs a new SearchVector with the term IDs and the weights specified.
+     * @throws IllegalArgumentException If the length of the term IDs and the weights are mismatched
+     * @param termIds The distinct term IDs in the search vector, in any order
+     * @param weights The weight of each term in the search vector
+     */
+    public SearchVector(int[] termIds, double[] weights) {
+        if (termIds.length != weights.length) {
+            throw new IllegalArgumentException("Term-weight length mismatch: The term length is %d while the weight length is %d"
+                    .formatted(termIds.length, weights.length));
+        }
+        Map<Integer, Double> vector = new HashMap<>();
+        for (int i = 0; i < termIds.length; i++) {
+            vector.put(termIds[i], weights[i]);
+        }
+        this.termIds = sortedIds(vector);
+        this.weights = weightsOf(this.termIds, vector);
+        rawQuery = null;
+        norm = computeNorm();
+    }
+
+    /**
+     * Constructs a new SearchVector with the weights of each term, and the norm of the weights.
+     *
+     * <p>This is used for stored vectors, whose norms are computed once when they are stored.
+     * @param weights The weight of each term in the search vector
+     * @param norm The Euclidean norm of the weights
+     */
+    public SearchVector(Map<String, Double> weights, double norm) {
+        Map<Integer, Double> vector = new HashMap<>();
+        weights.forEach((term, weight) -> vector.put(Vocabulary.id(term), weight));
+        this.termIds = sortedIds(vector);
+        this.weights = weightsOf(termIds, vector);
+        rawQuery = null;
+        this.norm = norm;
     }
 
     /**
      * Constructs a new SearchVector with the raw query from the search engine.
      * All weights are initialized to 1 in this scenario.
+     *
+     * <p>The stems of the query are looked up in the {@link Vocabulary} without being added to it,
+     * so that queries do not grow the vocabulary. A stem which no document has is not given a term ID;
+     * it is left out of the term IDs, but still counts towards the norm and the weights, so the scores
+     * are the same as if it had one. A quoted phrase with such a stem has -1 as its term ID,
+     * and cannot match any document (see {@link #hasUnknownPhrase()}).
      * @param query The raw query string; May contain quotes
      */
     public SearchVector(String query) {
+        rawQuery = query;
         query = StopWord.stripStopwords(query);
         String slice = query;
         List<String> quotes = new ArrayList<>();
@@ -53,9 +111,48 @@ public class SearchVector {
         }
         requiredTerms.addAll(quotes.stream().map(s -> Stream.of(s.split(" "))
                 .map(NltkPorter::stem).toList()).toList());
+        requiredTerms.forEach(phrase -> requiredTermIds.add(phrase.stream().mapToInt(Vocabulary::find).toArray()));
         List<String> terms = List.of(query.replace("\"", "").split(" "));
-        terms = terms.stream().map(NltkPorter::stem).toList();
-        terms.forEach(s -> vector.put(s, 1.0));
+        Map<Integer, Double> vector = new HashMap<>();
+        terms.stream().map(NltkPorter::stem).distinct().forEach(s -> {
+            int id = Vocabulary.find(s);
+            if (id == -1) {
+                unknownTerms.add(s);
+            } else {
+                vector.put(id, 1.0);
+            }
+        });
+        this.termIds = sortedIds(vector);
+        this.weights = weightsOf(termIds, vector);
+        // The unknown terms have a weight of 1 as well
+        norm = Math.sqrt(Arrays.stream(weights).map(d -> d * d).sum() + unknownTerms.size());
+    }
+
+    /**
+     * Looks up the stems of the query which had no term ID again, as they may have been added to the
+     * {@link Vocabulary} since this vector was created (e.g. when the vectors of the documents were loaded).
+     * @return A new vector of the same query if any of the stems has a term ID now; this vector otherwise
+     */
+    SearchVector resolve() {
+        boolean found = unknownTerms.stream().anyMatch(s -> Vocabulary.find(s) != -1);
+        for (int i = 0; i < requiredTerms.size() && !found; i++) {
+            for (int k = 0; k < requiredTerms.get(i).size() && !found; k++) {
+                found = requiredTermIds.get(i)[k] == -1 && Vocabulary.find(requiredTerms.get(i).get(k)) != -1;
+            }
+        }
+        return found ? new SearchVector(rawQuery) : this;
+    }
+
+    private static int[] sortedIds(Map<Integer, Double> vector) {
+        return vector.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    private static double[] weightsOf(int[] termIds, Map<Integer, Double> vector) {
+        return Arrays.stream(termIds).mapToDouble(vector::get).toArray();
+    }
+
+    private double computeNorm() {
+        return Math.sqrt(Arrays.stream(weights).map(d -> d * d).sum());
     }
 
     /**
@@ -64,15 +161,77 @@ public class SearchVector {
      * @return The cosine similarity between the two vectors; or 0 if they share nothing in common
      */
     public double cosineSim(SearchVector other) {
-        Set<String> keys = new HashSet<>(vector.keySet());
-        keys.retainAll(other.vector.keySet());
-        if (keys.isEmpty()) {
-            return 0;
+        double inner = 0;
+        boolean shared = false;
+        int i = 0;
+        int j = 0;
+        while (i < termIds.length && j < other.termIds.length) {
+            if (termIds[i] < other.termIds[j]) {
+                i++;
+            } else if (termIds[i] > other.termIds[j]) {
+                j++;
+            } else {
+                inner += weights[i++] * other.weights[j++];
+                shared = true;
+            }
         }
-        double inner = keys.stream().mapToDouble(k -> vector.get(k) * other.vector.get(k)).sum();
-        double docLen = Math.sqrt(vector.values().stream().mapToDouble(d -> d * d).sum());
-        double queryLen = Math.sqrt(other.vector.values().stream().mapToDouble(d -> d * d).sum());
-        return inner / (docLen * queryLen);
+        return shared ? inner / (norm * other.norm) : 0;
+    }
+
+    /**
+     * Gets the Euclidean norm (i.e. the length) of this search vector.
+     * @return The square root of the sum of the squared weights
+     */
+    public double norm() {
+        return norm;
+    }
+
+    /**
+     * Gets the terms in this search vector and their weights, including the stems of a query
+     * which have no term ID.
+     * @return An unmodifiable map of the terms and their weights
+     */
+    public Map<String, Double> getWeights() {
+        Map<String, Double> vector = new LinkedHashMap<>();
+        for (int i = 0; i < termIds.length; i++) {
+            vector.put(Vocabulary.stem(termIds[i]), weights[i]);
+        }
+        unknownTerms.forEach(s -> vector.put(s, 1.0));
+        return Collections.unmodifiableMap(vector);
+    }
+
+    /**
+     * Gets the term IDs in this search vector.
+     * @return The term IDs, sorted in ascending order
+     */
+    public int[] getTermIds() {
+        return termIds.clone();
+    }
+
+    /**
+     * Gets the number of terms in this search vector.
+     * @return The number of distinct term IDs
+     */
+    int size() {
+        return termIds.length;
+    }
+
+    /**
+     * Gets a term ID of this search vector, without copying the term IDs.
+     * @param i The index of the term, from 0 to {@link #size()} (exclusive)
+     * @return The {@code i}-th smallest term ID
+     */
+    int termIdAt(int i) {
+        return termIds[i];
+    }
+
+    /**
+     * Gets the weight of a term of this search vector.
+     * @param i The index of the term, from 0 to {@link #size()} (exclusive)
+     * @return The weight of the {@code i}-th smallest term ID
+     */
+    double weightAt(int i) {
+        return weights[i];
     }
 
     /**
@@ -84,9 +243,28 @@ public class SearchVector {
         return requiredTerms;
     }
 
+    /**
+     * Gets the list of quoted terms which must exist in the document, as term IDs.
+     * The list is in the same order as {@link #getRequiredTerms()}.
+     * A stem which is not in the {@link Vocabulary} has a term ID of -1.
+     * @return The list of quoted terms, tokenized
+     */
+    public List<int[]> getRequiredTermIds() {
+        return requiredTermIds;
+    }
+
+    /**
+     * Checks if a quoted phrase has a stem which is not in the {@link Vocabulary},
+     * so that no document with term IDs can contain the phrase.
+     * @return True if any quoted phrase has a stem without a term ID; false otherwise
+     */
+    public boolean hasUnknownPhrase() {
+        return requiredTermIds.stream().anyMatch(phrase -> Arrays.stream(phrase).anyMatch(id -> id == -1));
+    }
+
     @Override
     public String toString() {
-        return "[" + vector.entrySet().stream()
+        return "[" + getWeights().entrySet().stream()
                 .map(e -> e.getKey() + " " + e.getValue()).collect(Collectors.joining(", ")) + ", " + requiredTerms + "]";
     }
 }
@@ -0,0 +1,221 @@
+package hk.ust.comp4321.se;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.Positions;
+import hk.ust.comp4321.util.Tuple;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * An inverted index of the title and body vectors of a list of documents, in memory.
+ *
+ * <p>Each term has a postings list of the documents whose vectors contain it, in the order of the list,
+ * with the weight of the term in each of them. A query only walks the postings of its own terms, so its
+ * cost grows with the length of those postings, instead of with the number of documents.
+ *
+ * <p>The scores are the same as comparing the query with every vector (see {@link SearchVector#cosineSim(SearchVector)}),
+ * down to the last bit: the products of the weights are summed in the same order, and divided by the same norms.
+ */
+final class VectorIndex {
+    private final List<Document> docs;
+    private final FieldIndex title;
+    private final FieldIndex body;
+
+    /**
+     * Orders candidates from the one ranked last: the lowest score, and the latest document for equal scores.
+     * The scores are compared in the same way as {@link Double#compareTo(Double)}.
+     */
+    private static final Comparator<Candidate> WORST_FIRST = (a, b) -> {
+        int byScore = Double.compare(a.score(), b.score());
+        return byScore != 0 ? byScore : Integer.compare(b.doc(), a.doc());
+    };
+
+    private record Candidate(int doc, double score) {}
+
+    /**
+     * The postings of a term in one field, as parallel arrays sorted by document index.
+     */
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private double[] weights = new double[4];
+        private int size = 0;
+        private double bound = 0;
+
+        void add(int doc, double weight, double norm) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            docs[size] = doc;
+            weights[size++] = weight;
+            double normalized = Math.abs(weight) / norm;
+            // A vector with a zero norm has no finite bound
+            bound = normalized >= bound ? normalized : Double.isNaN(normalized) ? Double.POSITIVE_INFINITY : bound;
+        }
+
+        /**
+         * Finds the first entry at or after an index whose document index is at least {@code doc},
+         * by galloping and then a binary search, so that long runs are skipped in logarithmic time.
+         * @return The index of the entry; {@code size} if there is no such entry
+         */
+        int skip(int from, int doc) {
+            int step = 1;
+            int low = from;
+            int high = from;
+            while (high < size && docs[high] < doc) {
+                low = high + 1;
+                high += step;
+                step *= 2;
+            }
+            high = Math.min(high, size);
+            int found = Arrays.binarySearch(docs, low, high, doc);
+            return found >= 0 ? found : -found - 1;
+        }
+    }
+
+    /**
+     * The postings of every term in one field, and the norm of the vector of each document.
+     */
+    private static final class FieldIndex {
+        private final Map<Integer, Postings> postings = new HashMap<>();
+        private final double[] norms;
+
+        FieldIndex(List<Document> docs, Function<Document, SearchVector> vectors) {
+            norms = new double[docs.size()];
+            for (int d = 0; d < docs.size(); d++) {
+                SearchVector vector = vectors.apply(docs.get(d));
+                norms[d] = vector.norm();
+                for (int i = 0; i < vector.size(); i++) {
+                    postings.computeIfAbsent(vector.termIdAt(i), k -> new Postings())
+                            .add(d, vector.weightAt(i), norms[d]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the vectors of some documents.
+     * The vectors which have not been loaded are read from the index store once.
+     * @param docs The documents to index
+     * @param titleVectors The title vector of each document
+     * @param bodyVectors The body vector of each document
+     */
+    VectorIndex(List<Document> docs, Function<Document, SearchVector> titleVectors,
+                Function<Document, SearchVector> bodyVectors) {
+        this.docs = docs;
+        title = new FieldIndex(docs, titleVectors);
+        body = new FieldIndex(docs, bodyVectors);
+    }
+
+    /**
+     * Finds the documents with the highest scores for the query.
+     *
+     * <p>The postings are walked a document at a time, and the best {@code k} documents so far are kept
+     * in a heap. Each postings list has an upper bound of what its term can add to a score. Once the heap
+     * is full, the lists whose bounds add up to no more than the lowest score in the heap cannot bring in
+     * a new document on their own (MaxScore), so only the documents in the other lists are considered,
+     * and the documents whose bound is no more than the lowest score are skipped without being scored.
+     * @param query The query
+     * @param titleBoost The factor by which the similarity of the titles is multiplied
+     * @param k The maximum number of documents to return; {@link Integer#MAX_VALUE} to return every
+     *          document with a non-zero score
+     * @return The documents with the highest non-zero scores, and their scores, in non-increasing order
+     * of score, and in the order of the list for equal scores
+     */
+    List<Tuple<Document, Double>> search(SearchVector query, double titleBoost, int k) {
+        int terms = query.size();
+        // The title postings of each query term in ascending order of term ID, then the body postings
+        Postings[] postings = new Postings[2 * terms];
+        double[] bounds = new double[2 * terms];
+        for (int i = 0; i < terms; i++) {
+            postings[i] = title.postings.get(query.termIdAt(i));
+            postings[terms + i] = body.postings.get(query.termIdAt(i));
+        }
+        for (int j = 0; j < postings.length; j++) {
+            if (postings[j] != null) {
+                double bound = (j < terms ? titleBoost : 1) * Math.abs(query.weightAt(j % terms))
+                        * postings[j].bound / query.norm();
+                // Slightly raised, so that rounding never makes a bound smaller than a score
+                bounds[j] = bound >= 0 ? bound * (1 + 1e-9) : Double.POSITIVE_INFINITY;
+            }
+        }
+        int[] order = Positions.order(postings.length, (a, b) -> Double.compare(bounds[a], bounds[b]));
+        int[] pointers = new int[postings.length];
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(Math.min(k, 64), WORST_FIRST);
+        double threshold = Double.NEGATIVE_INFINITY;
+        // The lists before this position in the order are not essential
+        int essential = 0;
+        double nonEssentialBound = 0;
+        while (true) {
+            int doc = Integer.MAX_VALUE;
+            for (int e = essential; e < order.length; e++) {
+                doc = Math.min(doc, head(postings[order[e]], pointers[order[e]]));
+            }
+            if (doc == Integer.MAX_VALUE) {
+                break;
+            }
+            if (heap.size() == k) {
+                double bound = nonEssentialBound;
+                for (int e = essential; e < order.length; e++) {
+                    if (head(postings[order[e]], pointers[order[e]]) == doc) {
+                        bound += bounds[order[e]];
+                    }
+                }
+                if (Double.compare(bound, threshold) <= 0) {
+                    for (int e = essential; e < order.length; e++) {
+                        if (head(postings[order[e]], pointers[order[e]]) == doc) {
+                            pointers[order[e]]++;
+                        }
+                    }
+                    continue;
+                }
+            }
+            for (int e = 0; e < essential; e++) {
+                Postings p = postings[order[e]];
+                if (p != null) {
+                    pointers[order[e]] = p.skip(pointers[order[e]], doc);
+                }
+            }
+            double score = similarity(title, postings, pointers, 0, terms, doc, query) * titleBoost
+                    + similarity(body, postings, pointers, terms, terms, doc, query);
+            if (score != 0.0 && (heap.size() < k || Double.compare(score, threshold) > 0)) {
+                heap.add(new Candidate(doc, score));
+                if (heap.size() > k) {
+                    heap.poll();
+                }
+                if (heap.size() == k) {
+                    threshold = heap.peek().score();
+                    while (essential < order.length
+                            && Double.compare(nonEssentialBound + bounds[order[essential]], threshold) <= 0) {
+                        nonEssentialBound += bounds[order[essential++]];
+                    }
+                }
+            }
+        }
+        List<Candidate> top = new ArrayList<>(heap);
+        top.sort(WORST_FIRST.reversed());
+        return top.stream().map(c -> new Tuple<>(docs.get(c.doc()), c.score())).toList();
+    }
+
+    private static int head(Postings postings, int pointer) {
+        return postings != null && pointer < postings.size ? postings.docs[pointer] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Computes the cosine similarity of a document in one field, and moves the cursors past it.
+     * The cursors of the field are the {@code terms} cursors from {@code offset}, and are never before the document.
+     */
+    private static double similarity(FieldIndex field, Postings[] postings, int[] pointers, int offset, int terms,
+                                     int doc, SearchVector query) {
+        double inner = 0;
+        boolean shared = false;
+        for (int i = 0; i < terms; i++) {
+            if (head(postings[offset + i], pointers[offset + i]) == doc) {
+                inner += postings[offset + i].weights[pointers[offset + i]++] * query.weightAt(i);
+                shared = true;
+            }
+        }
+        return shared ? inner / (field.norms[doc] * query.norm()) : 0;
+    }
+}
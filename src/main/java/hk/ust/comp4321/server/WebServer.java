@@ -2,10 +2,16 @@ package hk.ust.comp4321.server;
 
 import hk.ust.comp4321.api.Document;
 import hk.ust.comp4321.db.DatabaseConnection;
+import hk.ust.comp4321.db.DocumentCache;
+import hk.ust.comp4321.db.InMemoryIndexStore;
+import hk.ust.comp4321.db.IndexSnapshot;
+import hk.ust.comp4321.db.IndexStore;
+import hk.ust.comp4321.db.segment.Segment;
+import hk.ust.comp4321.db.segment.SegmentIndex;
+import hk.ust.comp4321.db.segment.SegmentSearcher;
 import hk.ust.comp4321.nlp.NltkPorter;
 import hk.ust.comp4321.se.SearchEngine;
 import hk.ust.comp4321.se.SearchVector;
-import hk.ust.comp4321.util.DocumentLoadTask;
 import hk.ust.comp4321.util.Tuple;
 import io.javalin.Javalin;
 import io.javalin.websocket.WsContext;
@@ -19,32 +25,106 @@ import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class WebServer {
+    private static final long SEGMENT_REFRESH_SECONDS = 5;
+    private static final long DEFAULT_CACHE_MB = 256;
 
-    private static final DatabaseConnection conn;
-
-    static {
-        try {
-            conn = new DatabaseConnection(Path.of("spider_result.db"));
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-    }
+    private static IndexStore conn;
+    private static DocumentCache cache;
+    private static Segment segment;
+    private static SegmentIndex segments;
+    private static SearchEngine engine;
 
     private static String currentPage = getHomepage();
     private static AtomicBoolean loaded = new AtomicBoolean(false);
     private static AtomicInteger progress = new AtomicInteger(0);
     private static List<WsContext> contexts = new ArrayList<>();
 
+    /**
+     * Starts the web server.
+     * Usage: {@code WebServer [--segment path | --segments directory | --snapshot path | --store sqlite|memory] [--cache-mb n]}.
+     * By default, documents are scored with their vectors stored in {@code spider_result.db}, and the words of
+     * a document are only loaded when needed, into a cache of at most {@code --cache-mb} MiB
+     * (256 MiB by default; see {@link DocumentCache}). With {@code --segment}, queries
+     * are served directly from a segment file written by {@link hk.ust.comp4321.db.segment.SegmentWriter}.
+     * With {@code --segments}, queries are served from a directory of segments written by the spider,
+     * and segments added or merged while the server is running are picked up every few seconds.
+     * With {@code --store memory}, the whole database is copied into an {@link InMemoryIndexStore},
+     * so that looking up links does not read the database either.
+     * With {@code --snapshot}, the index is loaded from a snapshot file written by {@link IndexSnapshot}
+     * instead, unless the database has changed since the snapshot was exported.
+     * Searches are answered with the loading page until the vectors are loaded and the search engine is built.
+     * @param args The command line arguments
+     */
     public static void main(String[] args) throws IOException, SQLException {
+        if (args.length >= 2 && args[0].equals("--segment")) {
+            segment = Segment.open(Path.of(args[1]));
+            loaded.set(true);
+            serve(List.of(), new SegmentSearcher(segment)::search);
+            return;
+        }
+        if (args.length >= 2 && args[0].equals("--segments")) {
+            segments = SegmentIndex.open(Path.of(args[1]));
+            ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "segment-refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(() -> {
+                try {
+                    segments.refresh();
+                } catch (IOException e) {
+                    System.err.println("Warning: Unable to refresh the segments in " + args[1] + ".");
+                    e.printStackTrace();
+                }
+            }, SEGMENT_REFRESH_SECONDS, SEGMENT_REFRESH_SECONDS, TimeUnit.SECONDS);
+            loaded.set(true);
+            serve(List.of(), new SegmentSearcher(segments)::search);
+            return;
+        }
+        Path dbPath = Path.of("spider_result.db");
+        if (args.length >= 2 && args[0].equals("--snapshot") && IndexSnapshot.isFresh(Path.of(args[1]), dbPath)) {
+            conn = IndexSnapshot.load(Path.of(args[1]));
+        } else if (args.length >= 2 && args[0].equals("--snapshot")) {
+            System.err.println("Warning: " + args[1] + " is missing or stale; loading from the database instead.");
+            conn = new DatabaseConnection(dbPath);
+        } else if (args.length >= 2 && args[0].equals("--store") && args[1].equals("memory")) {
+            try (DatabaseConnection db = new DatabaseConnection(dbPath)) {
+                conn = InMemoryIndexStore.copyOf(db);
+            }
+        } else {
+            conn = new DatabaseConnection(dbPath);
+        }
+        cache = new DocumentCache(conn, cacheMegabytes(args) * 1024 * 1024);
         List<Document> docs = conn.getDocuments();
-        SearchEngine engine = new SearchEngine(conn, docs);
+        serve(docs, query -> engine.search(query));
+
+        conn.loadVectors(docs);
+        progress.addAndGet(docs.size() * 2);
+        // Only published by setting loaded, so no search sees the documents while their vectors are set
+        engine = new SearchEngine(conn, docs, cache);
+        loaded.set(true);
+    }
+
+    private static long cacheMegabytes(String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--cache-mb")) {
+                return Long.parseLong(args[i + 1]);
+            }
+        }
+        return DEFAULT_CACHE_MB;
+    }
+
+    private static void serve(List<Document> docs, Function<SearchVector, List<Tuple<Document, Double>>> engine) {
         Javalin app = Javalin.create()
                 .get("/", ctx -> {
                     if (loaded.get()) {
@@ -58,6 +138,10 @@ public class WebServer {
                     ctx.html(currentPage);
                 })
                 .post("/homeSearch", ctx -> {
+                    if (!loaded.get()) {
+                        ctx.html(LoadingPage.getLoadingPage(docs.size() * 2));
+                        return;
+                    }
                     long start = System.currentTimeMillis();
                     String query = ctx.formParam("queryText");
 
@@ -67,13 +151,17 @@ public class WebServer {
                     }
 
                     SearchVector vectorQuery = new SearchVector(query);
-                    List<Tuple<Document, Double>> search = engine.search(vectorQuery);
+                    List<Tuple<Document, Double>> search = engine.apply(vectorQuery);
 
                     long end = System.currentTimeMillis();
                     currentPage = getSearchPage(query, search.size(), (double)(end - start) / 1000, search);
                     ctx.html(currentPage);
                 })
                 .post("/searchSearch", ctx -> {
+                    if (!loaded.get()) {
+                        ctx.html(LoadingPage.getLoadingPage(docs.size() * 2));
+                        return;
+                    }
                     long start = System.currentTimeMillis();
                     String query = ctx.formParam("queryText");
 
@@ -83,7 +171,7 @@ public class WebServer {
                     }
 
                     SearchVector vectorQuery = new SearchVector(query);
-                    List<Tuple<Document, Double>> search = engine.search(vectorQuery);
+                    List<Tuple<Document, Double>> search = engine.apply(vectorQuery);
 
                     long end = System.currentTimeMillis();
                     currentPage = getSearchPage(query, search.size(), (double)(end - start) / 1000, search);
@@ -98,7 +186,12 @@ public class WebServer {
                 });
         app.get("/shutdown", ctx -> {
             ctx.html("Shutting down...");
-            conn.close();
+            if (cache != null) {
+                System.out.println(cache);
+            }
+            if (conn != null) {
+                conn.close();
+            }
             app.stop();
         });
         app.start();
@@ -114,26 +207,6 @@ public class WebServer {
             contexts.forEach(ctx -> ctx.send("redirect"));
             contexts.forEach(WsContext::closeSession);
         }).start();
-        ForkJoinPool pool = new ForkJoinPool();
-
-        DocumentLoadTask retrieveTask = new DocumentLoadTask(docs, d -> {
-            try {
-                d.retrieveFromDatabase(conn);
-                progress.incrementAndGet();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        pool.execute(retrieveTask);
-        retrieveTask.join();
-        DocumentLoadTask task = new DocumentLoadTask(docs, d -> {
-            d.asBodyVector(docs);
-            d.asTitleVector(docs);
-            progress.incrementAndGet();
-        });
-        pool.execute(task);
-        task.join();
-        loaded.set(true);
     }
 
     private static String getErrorPage(boolean isLoaded) {
@@ -438,20 +511,30 @@ public class WebServer {
     private static String getSearchResultPageItem(double score, Document doc) {
         String pageURL = doc.url().toString();
         String lastModified = LocalDate.ofInstant(doc.lastModified(), ZoneOffset.UTC).toString();
-        Map<String, Long> frequencies =
-                Stream.concat(doc.bodyFrequencies().entrySet().stream(),
-                                doc.titleFrequencies().entrySet().stream())
-                        .map(s -> s.getKey().rawWord().isEmpty() ?
-                                s.getValue() : s.getKey().rawWord())
-                        .collect(Collectors.groupingBy(s -> s, Collectors.counting()));
-        String keyWords = frequencies.entrySet().stream().sorted(
-                                    Map.Entry.<String, Long>comparingByValue().reversed())
-                                    .limit(5).map(e -> NltkPorter.stem(e.getKey())  + " " + e.getValue()).collect(Collectors.joining("; "));
-        String parentLinks = conn.parents(doc.id()).stream()
-                                                    .map(x -> x.url().toString())
+        String keyWords;
+        List<URL> parents;
+        List<URL> children;
+        Segment source = segments != null ? segments.segmentOf(doc.id()).orElse(null) : segment;
+        if (source != null) {
+            keyWords = source.keywords(doc.id());
+            parents = source.parents(doc.id());
+            children = source.children(doc.id());
+        } else {
+            Document loadedDoc = cache.get(doc);
+            Map<String, Long> frequencies =
+                    Stream.concat(loadedDoc.bodyFrequencies().words(), loadedDoc.titleFrequencies().words())
+                            .collect(Collectors.groupingBy(s -> s, Collectors.counting()));
+            keyWords = frequencies.entrySet().stream().sorted(
+                                        Map.Entry.<String, Long>comparingByValue().reversed())
+                                        .limit(5).map(e -> NltkPorter.stem(e.getKey())  + " " + e.getValue()).collect(Collectors.joining("; "));
+            parents = conn.parents(doc.id()).stream().map(Document::url).toList();
+            children = loadedDoc.children();
+        }
+        String parentLinks = parents.stream()
+                                                    .map(URL::toString)
                                                     .map(x -> "<div class=\"searchResultPageLink\"><a href=\"%s\">%s</a></div>".formatted(x,x))
                                                     .collect(Collectors.joining());
-        String childLinks = conn.children(doc.id()).stream()
+        String childLinks = children.stream()
                                                     .map(URL::toString)
                                                     .map(x -> "<div class=\"searchResultPageLink\"><a href=\"%s\">%s</a></div>".formatted(x,x))
                                                     .collect(Collectors.joining());
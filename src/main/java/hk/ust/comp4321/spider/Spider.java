@@ -2,13 +2,17 @@ package hk.ust.comp4321.spider;
 
 import hk.ust.comp4321.api.Document;
 import hk.ust.comp4321.db.DatabaseConnection;
+import hk.ust.comp4321.db.IndexStore;
+import hk.ust.comp4321.db.segment.SegmentIndex;
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.helper.ValidationException;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
@@ -24,17 +28,32 @@ import static java.lang.Long.parseLong;
  * A class used to discover web pages.
  */
 public class Spider {
+    private static final int SEGMENT_FLUSH_SIZE = 50;
     private final URL base;
-    private final DatabaseConnection conn;
+    private final IndexStore conn;
+    private final SegmentIndex segments;
 
     /**
      * Constructs a new Spider.
      * @param base The base URL to crawl from
-     * @param conn The database connection to use
+     * @param conn The index store to use
      */
-    public Spider(URL base, DatabaseConnection conn) {
+    public Spider(URL base, IndexStore conn) {
+        this(base, conn, null);
+    }
+
+    /**
+     * Constructs a new Spider which also adds the pages it indexes to a directory of segments.
+     * Every 50 pages indexed are written as a new segment, so that they
+     * can be searched without reloading the index store.
+     * @param base The base URL to crawl from
+     * @param conn The index store to use
+     * @param segments The segments to add indexed pages to; null to only write to the index store
+     */
+    public Spider(URL base, IndexStore conn, SegmentIndex segments) {
         this.base = base;
         this.conn = conn;
+        this.segments = segments;
     }
     /**
      * Retrieves the page size through various means.
@@ -52,10 +71,30 @@ public class Spider {
         return (long) response.body().length();
     }
 
+    /**
+     * Writes the indexed pages into a new segment, as they are stored in the index store.
+     * @param docIds The document IDs of the pages; cleared after they are written
+     */
+    private void flushSegment(List<Integer> docIds) {
+        if (segments == null || docIds.isEmpty()) {
+            return;
+        }
+        List<Document> docs = docIds.stream().map(conn::getDocFromId).toList();
+        conn.loadDocuments(docs);
+        try {
+            segments.add(docs, (int) DatabaseConnection.getDocSize(),
+                    conn.titleOperator()::docFreq, conn.bodyOperator()::docFreq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write a segment", e);
+        }
+        docIds.clear();
+    }
+
     /**
      * Attempts to discover web pages from the specified URL.
      * @param threshold The integer threshold to stop crawling at
      * @return The List of discovered URLs
+     * @throws UncheckedIOException If the spider adds to segments, and writing a segment fails
      */
     public List<URL> discover(int threshold) {
         // Reset indexed
@@ -66,6 +105,7 @@ public class Spider {
         Set<URL> visitedLinks = new HashSet<>();
         List<URL> retLinks = new ArrayList<>();
         Queue<URL> queue = new ArrayDeque<>();
+        List<Integer> unflushed = new ArrayList<>();
 
         queue.add(base);
 
@@ -97,6 +137,8 @@ public class Spider {
                 if (conn.hasDocUrl(currentURL)) {
                     Document currDoc = conn.getDocFromUrl(currentURL);
                     currDoc.retrieveFromWeb(jsoupDoc);
+                    // Links which were removed from the page are not kept
+                    conn.deleteChildren(currDoc.id());
                     for (URL link : currDoc.children()) {
                         conn.insertLink(currDoc.id(), link);
                         if (!visitedLinks.contains(link)) {
@@ -116,6 +158,7 @@ public class Spider {
                         conn.insertDocument(doc);
                         conn.deleteFrequencies(doc.id());
                         currDoc.writeWords(conn);
+                        unflushed.add(doc.id());
                     }
                 } else {
                     retLinks.add(currentURL);
@@ -138,30 +181,75 @@ public class Spider {
                             queue.add(link);
                         }
                     }
+                    unflushed.add(nextID);
+                }
+                if (unflushed.size() >= SEGMENT_FLUSH_SIZE) {
+                    flushSegment(unflushed);
                 }
             } catch (ValidationException e) {
                 System.err.println("Warning: Unable to crawl " + currentURL + ".");
                 e.printStackTrace();
             }
         }
+        flushSegment(unflushed);
         return retLinks;
     }
     /**
      * The main method.
-     * @param args Command-line arguments; currently unused.
+     * Usage: {@code Spider [--store sqlite|memory] [--segments directory]}; the index is stored in
+     * {@code spider_result.db} by default, or only kept in memory with {@code --store memory}.
+     * As the database is created from scratch, it is written in bulk-ingest mode
+     * (see {@link DatabaseConnection.Mode#BULK_INGEST}), and verified once the crawl finishes.
+     * With {@code --segments}, the indexed pages are also written as segments into the directory,
+     * which are merged in the background (see {@link SegmentIndex}).
+     * @param args Command-line arguments
      */
     public static void main(String[] args) throws SQLException, IOException {
         // Phase 1 - Spider
         Path phaseOneDb = Path.of("spider_result.db");
         Path phaseOneResult = Path.of("spider_result.txt");
+        String backend = option(args, "--store", "sqlite");
+        String segmentDir = option(args, "--segments", null);
 
         Files.deleteIfExists(phaseOneDb);
 
-        DatabaseConnection conn = new DatabaseConnection(phaseOneDb);
-        Spider spider = new Spider(URI.create("https://www.cse.ust.hk/~kwtleung/COMP4321/testpage.htm").toURL(), conn);
-        spider.discover(300);
-        writeToFile(phaseOneDb, phaseOneResult, 300); // This line is the one which reads from the database
-        conn.close();
+        try (IndexStore conn = backend.equals("sqlite") ?
+                new DatabaseConnection(phaseOneDb, DatabaseConnection.Mode.BULK_INGEST) : IndexStore.open(backend, phaseOneDb);
+             SegmentIndex segments = segmentDir == null ? null : openSegments(Path.of(segmentDir))) {
+            Spider spider = new Spider(URI.create("https://www.cse.ust.hk/~kwtleung/COMP4321/testpage.htm").toURL(), conn, segments);
+            spider.discover(300);
+            conn.refreshVectors();
+            if (conn instanceof DatabaseConnection db) {
+                db.finishBulkIngest();
+            }
+            writeToFile(conn, phaseOneResult, 300); // This line is the one which reads from the index
+        }
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Opens an empty directory of segments, deleting the segments of the last crawl,
+     * as document IDs are allocated again from the start.
+     */
+    private static SegmentIndex openSegments(Path directory) throws IOException {
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.seg*")) {
+                for (Path path : stream) {
+                    Files.delete(path);
+                }
+            }
+        }
+        SegmentIndex segments = SegmentIndex.open(directory);
+        segments.startMerging();
+        return segments;
     }
 
     /**
@@ -173,34 +261,38 @@ public class Spider {
      * @throws IOException If writing to the file fails
      */
     public static void writeToFile(Path dbPath, Path outputPath, int maxSize) throws SQLException, IOException {
-        Files.deleteIfExists(outputPath);
         try (DatabaseConnection conn = new DatabaseConnection(dbPath)) {
-            List<Document> docs = conn.getDocuments();
-            StringBuilder sb = new StringBuilder();
-            docs.stream().limit(maxSize).forEach(d -> {
-                try {
-                    d.retrieveFromDatabase(conn);
-                    sb.append(d.title()).append("\n");
-                    sb.append(d.url().toString()).append("\n");
-                    sb.append(d.lastModified()).append(", ").append(d.size()).append("\n");
-                    Map<String, Long> frequencies =
-                            Stream.concat(d.bodyFrequencies().entrySet().stream(),
-                            d.titleFrequencies().entrySet().stream())
-                            .map(s -> s.getKey().rawWord().isEmpty() ?
-                                    s.getValue() : s.getKey().rawWord())
-                            .collect(Collectors.groupingBy(s -> s, Collectors.counting()));
-                    sb.append(frequencies.entrySet().stream().sorted(
-                                            Map.Entry.<String, Long>comparingByValue().reversed())
-                                    .limit(10).map(e -> e.getKey() + " " + e.getValue()).collect(Collectors.joining("; ")))
-                            .append("\n");
-                    sb.append(d.children().stream().limit(10).map(URL::toString)
-                            .collect(Collectors.joining("\n")));
-                } catch (SQLException e) {
-                    throw new RuntimeException(e);
-                }
-                sb.append("\n-------------------------------------------------\n");
-            });
-            Files.write(outputPath, List.of(sb.toString()));
+            writeToFile(conn, outputPath, maxSize);
         }
     }
+
+    /**
+     * Writes the contents of the index store to the output file.
+     * @param conn The index store to read from
+     * @param outputPath The path to output the file to
+     * @param maxSize The number of entries to include
+     * @throws IOException If writing to the file fails
+     */
+    public static void writeToFile(IndexStore conn, Path outputPath, int maxSize) throws IOException {
+        Files.deleteIfExists(outputPath);
+        List<Document> docs = conn.getDocuments().stream().limit(maxSize).toList();
+        conn.loadDocuments(docs);
+        StringBuilder sb = new StringBuilder();
+        docs.forEach(d -> {
+            sb.append(d.title()).append("\n");
+            sb.append(d.url().toString()).append("\n");
+            sb.append(d.lastModified()).append(", ").append(d.size()).append("\n");
+            Map<String, Long> frequencies =
+                    Stream.concat(d.bodyFrequencies().words(), d.titleFrequencies().words())
+                    .collect(Collectors.groupingBy(s -> s, Collectors.counting()));
+            sb.append(frequencies.entrySet().stream().sorted(
+                                    Map.Entry.<String, Long>comparingByValue().reversed())
+                            .limit(10).map(e -> e.getKey() + " " + e.getValue()).collect(Collectors.joining("; ")))
+                    .append("\n");
+            sb.append(d.children().stream().limit(10).map(URL::toString)
+                    .collect(Collectors.joining("\n")));
+            sb.append("\n-------------------------------------------------\n");
+        });
+        Files.write(outputPath, List.of(sb.toString()));
+    }
 }
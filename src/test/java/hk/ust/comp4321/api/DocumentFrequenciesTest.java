@@ -0,0 +1,56 @@
+package hk.ust.comp4321.api;
+
+import hk.ust.comp4321.nlp.Vocabulary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentFrequenciesTest {
+    private Document first;
+    private Document second;
+
+    @BeforeEach
+    void setUp() throws MalformedURLException {
+        first = new Document(URI.create("https://example.com/1").toURL(), 1, Instant.EPOCH, 0);
+        first.titleFrequencies().add("search", 0, 0, 0, "");
+        first.bodyFrequencies().add("search", 0, 0, 0, "");
+        first.bodyFrequencies().add("search", 0, 0, 1, "");
+        first.bodyFrequencies().add("engin", 0, 0, 2, "engines");
+        second = new Document(URI.create("https://example.com/2").toURL(), 2, Instant.EPOCH, 0);
+        second.bodyFrequencies().add("engin", 0, 0, 0, "engine");
+    }
+
+    @Test
+    void count() {
+        DocumentFrequencies docFreqs = new DocumentFrequencies(List.of(first, second));
+        assertEquals(2, docFreqs.size());
+        assertEquals(1, docFreqs.titleDocFreq(Vocabulary.id("search")));
+        assertEquals(0, docFreqs.titleDocFreq(Vocabulary.id("engin")));
+        assertEquals(1, docFreqs.bodyDocFreq(Vocabulary.id("search"))); // counted once per document
+        assertEquals(2, docFreqs.bodyDocFreq(Vocabulary.id("engin")));
+        assertEquals(0, docFreqs.bodyDocFreq(-1));
+        assertEquals(0, docFreqs.bodyDocFreq(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void addAndRemove() {
+        DocumentFrequencies docFreqs = new DocumentFrequencies();
+        docFreqs.add(first);
+        docFreqs.add(first); // replaces the same document
+        assertEquals(1, docFreqs.bodyDocFreq(Vocabulary.id("engin")));
+        docFreqs.add(second);
+        first.bodyFrequencies().add("retriev", 0, 0, 3, "retrieval");
+        assertTrue(docFreqs.remove(first.id()));
+        assertFalse(docFreqs.remove(first.id()));
+        assertEquals(1, docFreqs.bodyDocFreq(Vocabulary.id("engin")));
+        assertEquals(0, docFreqs.bodyDocFreq(Vocabulary.id("search")));
+        assertEquals(0, docFreqs.bodyDocFreq(Vocabulary.id("retriev"))); // words added later are not counted
+        assertEquals(1, docFreqs.size());
+    }
+}
@@ -189,8 +189,9 @@ public class DocumentTest {
                 throw new RuntimeException(e);
             }
         });
-        assertTrue(doc.asBodyVector(docs).cosineSim(new SearchVector("comput")) > 0);
-        assertEquals(0, doc.asBodyVector(docs).cosineSim(new SearchVector("locat")));
+        DocumentFrequencies docFreqs = new DocumentFrequencies(docs);
+        assertTrue(doc.asBodyVector(docFreqs).cosineSim(new SearchVector("comput")) > 0);
+        assertEquals(0, doc.asBodyVector(docFreqs).cosineSim(new SearchVector("locat")));
     }
 
     @Test
@@ -205,7 +206,26 @@ public class DocumentTest {
                 throw new RuntimeException(e);
             }
         });
-        assertEquals(0, doc.asTitleVector(docs).cosineSim(new SearchVector("locat")));
-        assertTrue(doc.asTitleVector(docs).cosineSim(new SearchVector("comput")) > 0);
+        DocumentFrequencies docFreqs = new DocumentFrequencies(docs);
+        assertEquals(0, doc.asTitleVector(docFreqs).cosineSim(new SearchVector("locat")));
+        assertTrue(doc.asTitleVector(docFreqs).cosineSim(new SearchVector("comput")) > 0);
+    }
+
+    @Test
+    void asVectorWithStatistics() throws SQLException {
+        List<Document> docs = conn.getDocuments();
+        docs.forEach(d -> {
+            try {
+                d.retrieveFromDatabase(conn);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Document doc = conn.getDocFromId(0);
+        doc.retrieveFromDatabase(conn);
+        SearchVector query = new SearchVector("comput");
+        DocumentFrequencies docFreqs = new DocumentFrequencies(docs);
+        assertEquals(docs.get(0).asBodyVector(docFreqs).cosineSim(query), doc.asBodyVector(conn).cosineSim(query), 1e-9); // same weights as scanning
+        assertEquals(docs.get(0).asTitleVector(docFreqs).cosineSim(query), doc.asTitleVector(conn).cosineSim(query), 1e-9);
     }
 }
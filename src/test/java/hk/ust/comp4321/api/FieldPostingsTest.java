@@ -0,0 +1,97 @@
+package hk.ust.comp4321.api;
+
+import hk.ust.comp4321.nlp.Vocabulary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FieldPostingsTest {
+    private FieldPostings words;
+    private Map<WordInfo, String> expected;
+
+    @BeforeEach
+    void setUp() {
+        words = new FieldPostings(3);
+        expected = new HashMap<>();
+        put(new WordInfo(3, 1, 0, 1, "engines"), "engin");
+        put(new WordInfo(3, 0, 1, 0, ""), "search");
+        put(new WordInfo(3, 1, 0, 0, ""), "search");
+        put(new WordInfo(3, 0, 0, 0, "computing"), "comput");
+    }
+
+    private void put(WordInfo info, String stem) {
+        words.put(info, stem);
+        expected.put(info, stem);
+    }
+
+    @Test
+    void asMap() {
+        assertEquals(expected, words); // same entries as a hash map
+        assertEquals(words, expected);
+        assertEquals(expected.hashCode(), words.hashCode());
+        assertEquals("engin", words.get(new WordInfo(3, 1, 0, 1, "engines")));
+        assertNull(words.get(new WordInfo(3, 1, 0, 1, ""))); // the raw word is part of the key
+        assertNull(words.get(new WordInfo(4, 1, 0, 1, "engines")));
+        assertTrue(words.containsValue("search"));
+        assertFalse(words.containsValue("engines"));
+    }
+
+    @Test
+    void replace() {
+        put(new WordInfo(3, 0, 1, 0, ""), "searched");
+        assertEquals(4, words.size()); // the word is replaced, not added
+        assertEquals(expected, words);
+        assertEquals(1, words.frequency(words.termId("search")));
+    }
+
+    @Test
+    void otherDocument() {
+        assertThrows(IllegalArgumentException.class, () -> words.put(new WordInfo(4, 0, 0, 0, ""), "search"));
+        assertEquals(4, words.size());
+    }
+
+    @Test
+    void sortedByPosition() {
+        assertEquals(List.of("computing", "search", "search", "engines"), words.words().toList());
+        assertEquals(0, words.paragraphAt(1));
+        assertEquals(1, words.sentenceAt(1));
+        assertEquals(1, words.paragraphAt(2));
+        assertEquals(1, words.locationAt(3));
+        assertEquals("", words.rawWordAt(2)); // the raw word is equal to the stem
+        assertEquals(Vocabulary.id("engin"), words.termAt(3));
+        words.add("result", 0, 0, 1, "results");
+        assertEquals("results", words.rawWordAt(1)); // sorted again after adding
+    }
+
+    @Test
+    void frequencies() {
+        assertEquals(2, words.frequency(words.termId("search")));
+        assertEquals(1, words.frequency(words.termId("comput")));
+        assertEquals(-1, words.termId("result"));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int term : words.terms()) {
+            counts.put(Vocabulary.stem(term), words.frequency(term));
+        }
+        assertEquals(Map.of("search", 2, "engin", 1, "comput", 1), counts);
+        words.clear();
+        assertTrue(words.isEmpty());
+        assertEquals(-1, words.termId("search"));
+    }
+
+    @Test
+    void hasPhrase() {
+        int search = Vocabulary.id("search");
+        int engin = Vocabulary.id("engin");
+        assertTrue(words.hasPhrase(new int[]{search, engin})); // paragraph 1
+        assertFalse(words.hasPhrase(new int[]{engin, search}));
+        assertFalse(words.hasPhrase(new int[]{Vocabulary.id("comput"), search, search})); // crosses a paragraph
+        assertTrue(words.hasPhrase(new int[]{Vocabulary.id("comput"), search}));
+        assertArrayEquals(new int[]{1, 2}, words.indicesOf(search));
+        assertEquals(Positions.pack(1, 0, 1), words.positionAt(3));
+    }
+}
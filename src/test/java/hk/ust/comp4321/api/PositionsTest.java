@@ -0,0 +1,45 @@
+package hk.ust.comp4321.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PositionsTest {
+
+    @Test
+    void pack() {
+        long position = Positions.pack(3270972, 2, 239040);
+        assertEquals(3270972, Positions.paragraph(position));
+        assertEquals(2, Positions.sentence(position));
+        assertEquals(239040, Positions.location(position));
+        assertTrue(Positions.pack(1, 0, 0) > Positions.pack(0, 1048575, 1048575)); // paragraph first
+        assertTrue(Positions.pack(0, 1, 0) > Positions.pack(0, 0, 1048575)); // then sentence
+        assertTrue(Positions.pack(8388607, 1048575, 1048575) > 0); // the sign bit is never set
+        assertThrows(IllegalArgumentException.class, () -> Positions.pack(-1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> Positions.pack(0, 1048576, 0));
+        assertFalse(Positions.fits(0, 0, 1048576));
+    }
+
+    @Test
+    void order() {
+        Random random = new Random(4321);
+        long[] positions = random.longs(1000, 0, 50).toArray();
+        int[] order = Positions.order(positions.length, (i, j) -> Long.compare(positions[i], positions[j]));
+        int[] expected = IntStream.range(0, positions.length).boxed()
+                .sorted((i, j) -> Long.compare(positions[i], positions[j])).mapToInt(i -> i).toArray();
+        assertArrayEquals(expected, order); // stable, like a boxed sort
+        assertArrayEquals(new int[0], Positions.order(0, (i, j) -> 0));
+    }
+
+    @Test
+    void consecutive() {
+        assertArrayEquals(new int[]{2, 7}, Positions.consecutive(new int[]{0, 2, 5, 7}, new int[]{3, 4, 8}, new int[]{4, 9}));
+        assertArrayEquals(new int[0], Positions.consecutive(new int[]{0, 2}, new int[]{2}));
+        assertArrayEquals(new int[]{1, 4}, Positions.consecutive(new int[]{1, 4}));
+        assertEquals(0, Arrays.stream(Positions.consecutive()).count());
+    }
+}
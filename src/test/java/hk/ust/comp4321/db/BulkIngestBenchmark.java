@@ -0,0 +1,99 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.WordInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the throughput of a crawl-like sequential load into a new database
+ * in normal mode against the same load in bulk-ingest mode.
+ *
+ * <p>Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class BulkIngestBenchmark {
+    private static final Path DB_PATH = Path.of("bulk-benchmark.db");
+    private static final int DOCUMENTS = 1_000;
+    private static final int WORDS_PER_DOCUMENT = 300;
+    private static final int LINKS_PER_DOCUMENT = 20;
+    private static final int VOCABULARY = 5_000;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        deleteDatabase();
+    }
+
+    @Test
+    void ingest() throws SQLException, IOException, URISyntaxException, NoSuchFieldException, IllegalAccessException {
+        List<Document> docs = generate();
+        double normal = load(docs, DatabaseConnection.Mode.NORMAL);
+        double bulk = load(docs, DatabaseConnection.Mode.BULK_INGEST);
+        System.out.printf("ingest: %.1f docs/s (normal) -> %.1f docs/s (bulk ingest), %.1fx%n",
+                normal, bulk, bulk / normal);
+    }
+
+    /**
+     * Loads the documents into a new database in the same way as the spider,
+     * and returns the throughput in documents per second, including finishing the load.
+     */
+    private static double load(List<Document> docs, DatabaseConnection.Mode mode)
+            throws SQLException, IOException, NoSuchFieldException, IllegalAccessException, URISyntaxException {
+        deleteDatabase();
+        DbUtil.resetId();
+        long start = System.nanoTime();
+        try (DatabaseConnection conn = new DatabaseConnection(DB_PATH, mode)) {
+            for (Document doc : docs) {
+                doc.writeWords(conn);
+                for (int i = 0; i < LINKS_PER_DOCUMENT; i++) {
+                    conn.insertLink(doc.id(), url((doc.id() * 31 + i * 7) % DOCUMENTS));
+                }
+            }
+            conn.finishBulkIngest();
+            long elapsed = System.nanoTime() - start;
+            assertEquals(DOCUMENTS, conn.getDocuments().size()); // both modes load everything
+            return DOCUMENTS / (elapsed / 1e9);
+        }
+    }
+
+    private static List<Document> generate() throws URISyntaxException, IOException {
+        Random random = new Random(4321);
+        List<Document> docs = new ArrayList<>(DOCUMENTS);
+        for (int id = 0; id < DOCUMENTS; id++) {
+            Document doc = new Document(url(id), id, Instant.ofEpochSecond(id), WORDS_PER_DOCUMENT, "Page " + id);
+            doc.titleFrequencies().put(new WordInfo(id, 0, 0, 0, "page"), "page");
+            for (int i = 0; i < WORDS_PER_DOCUMENT; i++) {
+                String stem = "w" + random.nextInt(VOCABULARY);
+                doc.bodyFrequencies().put(new WordInfo(id, i / 50, i / 10, i, stem), stem);
+            }
+            doc.setLoaded();
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    private static URL url(int id) throws URISyntaxException, IOException {
+        return new URI("https://www.cse.ust.hk/~kwtleung/COMP4321/page" + id + ".htm").toURL();
+    }
+
+    private static void deleteDatabase() throws IOException {
+        Files.deleteIfExists(DB_PATH);
+        Files.deleteIfExists(Path.of(DB_PATH + "-wal"));
+        Files.deleteIfExists(Path.of(DB_PATH + "-shm"));
+    }
+}
@@ -1,14 +1,13 @@
 package hk.ust.comp4321.db;
 
 import hk.ust.comp4321.api.Document;
-import hk.ust.comp4321.test.ReflectUtil;
-import org.jooq.exception.IntegrityConstraintViolationException;
-import org.junit.jupiter.api.AfterEach;
-import org.junit.jupiter.api.BeforeEach;
+import hk.ust.comp4321.api.WordInfo;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -16,114 +15,96 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.time.Instant;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-class DatabaseConnectionTest {
-    private static void resetId() throws NoSuchFieldException, IllegalAccessException {
-        ReflectUtil.setStaticField("nextDocId", null, DatabaseConnection.class);
+class DatabaseConnectionTest extends IndexStoreTest<DatabaseConnection> {
+    @Override
+    DatabaseConnection open() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
+        return DbUtil.initializeTestDb();
     }
 
-    private void connectEmpty() throws SQLException {
-        conn = new DatabaseConnection(Path.of("empty.db"));
-    }
-
-    DatabaseConnection conn;
-    @BeforeEach
-    void setUp() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
-        conn = DbUtil.initializeTestDb();
-    }
-
-    @AfterEach
-    void tearDown() throws SQLException, IOException {
-        conn.close();
-        Files.deleteIfExists(Path.of("test.db"));
-        Files.deleteIfExists(Path.of("empty.db"));
-    }
-
-    @Test
-    void getDocFromId() throws MalformedURLException, URISyntaxException {
-        assertThrows(IllegalArgumentException.class, () -> conn.getDocFromId(1000));
-        Document doc = conn.getDocFromId(0);
-        assertEquals(0, doc.id());
-        assertEquals(new URI("https://www.cse.ust.hk/~kwtleung/").toURL(), doc.url());
-    }
-
-    @Test
-    void insertLink() throws URISyntaxException, MalformedURLException {
-        URL url = new URI("https://www.google.com/").toURL();
-        assertThrows(IntegrityConstraintViolationException.class, () -> conn.insertLink(1000, url)); // nonexistent docId should not work
-        conn.insertLink(2, url);
-        assertTrue(conn.children(2).stream().anyMatch(urls -> urls.toString().equals(url.toString()))); // normal insert link
-        assertDoesNotThrow(() -> conn.insertLink(2, url)); // multiple insertions do not crash
-        assertEquals(1, conn.children(2).size()); // multiple insertions do not crash
+    @Override
+    DatabaseConnection openEmpty() throws SQLException {
+        return new DatabaseConnection(Path.of("empty.db"));
     }
 
     @Test
-    void deleteFrequencies() {
-        assertDoesNotThrow(() -> conn.deleteFrequencies(1000)); // deleting nonexistent ID does not fail
-        conn.deleteFrequencies(0);
-        TableOperation bodyOperator = conn.bodyOperator();
-        assertEquals(0, bodyOperator.getFrequency(bodyOperator.getIdFromStem("comput"), 0).size()); // body tables don't have docId == 0
-        assertEquals(0, bodyOperator.getFrequency(bodyOperator.getIdFromStem("comput"), 0).size()); // title table don't have docId == 0
-        assertEquals(2, bodyOperator.getFrequency(bodyOperator.getIdFromStem("comput"), 1).size()); // 2 frequency records remaining
+    void migrateWordTables() {
+        DSLContext create = DSL.using(conn.getConnection(), SQLDialect.SQLITE);
+        assertEquals(0, create.fetch("SELECT name FROM sqlite_master WHERE type='table' AND name GLOB '*_[0-9]*'").size()); // old word tables are dropped
+        assertEquals(5, conn.bodyOperator().getFrequency(0).size()); // rows are migrated into the postings table
+        assertEquals(2, conn.titleOperator().getFrequency(0).size());
+        assertEquals(0, conn.bodyOperator().getFrequency(1).size()); // empty word tables are migrated too
     }
 
     @Test
-    void deleteChildren() {
-        assertDoesNotThrow(() -> conn.deleteChildren(1000)); // Invalid ID
-        conn.deleteChildren(0);
-        assertEquals(0, conn.children(0).size()); // Dropped tables should have no children left
-        assertEquals(2, conn.children(3).size()); // Unaffected tables should be unaffected
-        assertDoesNotThrow(() -> conn.deleteChildren(0)); // Deleting the same thing shouldn't crash
+    void documentTerms() throws SQLException {
+        DSLContext create = DSL.using(conn.getConnection(), SQLDialect.SQLITE);
+        assertEquals(5, create.fetchCount(DSL.table("DocumentTerms"))); // written for the migrated documents
+        List<Document> docs = conn.loadDocuments();
+        Document doc = conn.getDocFromId(1);
+        conn.loadWords(doc);
+        assertEquals(docs.get(1).bodyFrequencies(), doc.bodyFrequencies()); // same words as the postings
+        assertEquals(docs.get(1).titleFrequencies(), doc.titleFrequencies());
+
+        conn.bodyOperator().insertWordInfo(2, new WordInfo(1, 5, 0, 0, "engine"));
+        assertEquals(4, create.fetchCount(DSL.table("DocumentTerms"))); // stale term vectors are dropped
+        Document updated = conn.getDocFromId(1);
+        updated.retrieveFromDatabase(conn);
+        assertEquals("engin", updated.bodyFrequencies().get(new WordInfo(1, 5, 0, 0, "engine"))); // ... and the postings are read instead
     }
 
     @Test
-    void children() {
-        assertEquals(4, conn.children(0).size()); // 4 children, as expected
-        assertEquals(0, conn.children(1000).size()); // Non-existent IDs should return 0
+    void bulkIngest() throws SQLException, IOException, URISyntaxException {
+        Path path = Path.of("bulk.db");
+        Files.deleteIfExists(path);
+        URL parent = new URI("https://www.cse.ust.hk/").toURL();
+        URL child = new URI("https://www.cse.ust.hk/~kwtleung/").toURL();
+        try (DatabaseConnection bulk = new DatabaseConnection(path, DatabaseConnection.Mode.BULK_INGEST)) {
+            DSLContext create = DSL.using(bulk.getConnection(), SQLDialect.SQLITE);
+            assertEquals(0, pragma(create, "synchronous")); // commits are not synced
+            assertEquals(0, pragma(create, "foreign_keys"));
+            assertFalse(hasIndex(create, "DocumentLinkChildIndex")); // created at the end
+
+            bulk.insertDocument(new Document(parent, 0, Instant.EPOCH, 10, "CSE"));
+            bulk.insertLink(0, child);
+            bulk.finishBulkIngest();
+            assertEquals(1, pragma(create, "synchronous")); // NORMAL
+            assertEquals(1, pragma(create, "foreign_keys"));
+            assertTrue(hasIndex(create, "DocumentLinkChildIndex"));
+            assertEquals(0, Files.size(Path.of("bulk.db-wal"))); // checkpointed into the database
+            assertEquals(List.of(0), bulk.parents(child).stream().map(Document::id).toList());
+            bulk.finishBulkIngest(); // does nothing once finished
+        } finally {
+            deleteDatabase(path);
+        }
     }
 
     @Test
-    void parents() throws URISyntaxException, MalformedURLException {
-        assertEquals(2, conn.parents(2).size()); // 2 parents, as expected
-        assertEquals(0, conn.parents(1000).size()); // Non-existent IDs should return 0
-
-        assertEquals(2, conn.parents(new URI("https://sqlite.org/lang_datefunc.html").toURL()).size());
-        assertEquals(0, conn.parents(new URI("https://github.com/151044/COMP4321-G42/").toURL()).size());
+    void bulkIngestVerification() throws SQLException, IOException, URISyntaxException {
+        Path path = Path.of("bulk.db");
+        Files.deleteIfExists(path);
+        try (DatabaseConnection bulk = new DatabaseConnection(path, DatabaseConnection.Mode.BULK_INGEST)) {
+            bulk.insertLink(1000, new URI("https://www.cse.ust.hk/").toURL()); // not checked while loading
+            assertThrows(SQLException.class, bulk::finishBulkIngest); // no such document
+        } finally {
+            deleteDatabase(path);
+        }
     }
 
-    @Test
-    void nextDocId() throws NoSuchFieldException, IllegalAccessException, SQLException {
-        assertEquals(5, DatabaseConnection.nextDocId()); // currently 5 docs, so next ID is 5
-        assertEquals(6, DatabaseConnection.nextDocId()); // 6 after last allocation
-
-        resetId();
-        connectEmpty();
-        assertEquals(0, DatabaseConnection.nextDocId()); // 0 since we connected to an empty DB
-        assertEquals(1, DatabaseConnection.nextDocId()); // 1 after last allocation
+    private static int pragma(DSLContext create, String name) {
+        return create.fetch("PRAGMA " + name).get(0).get(0, Integer.class);
     }
 
-    @Test
-    void insertDocument() throws MalformedURLException {
-        Instant prev = Instant.now();
-        conn.insertDocument(new Document(URI.create("https://github.com/151044/COMP4321-G42/pull/2").toURL(), DatabaseConnection.nextDocId(), prev, 234324444L));
-        assertDoesNotThrow(() -> conn.getDocFromId(5)); // successful insertion
-        conn.insertDocument(new Document(URI.create("https://github.com/151044/COMP4321-G42/pull/2").toURL(), 5, Instant.now(), 2));
-        assertTrue(prev.isBefore(conn.getDocFromId(5).lastModified())); // checks if we have correctly updated on duplicate insert
-        assertEquals(2, conn.getDocFromId(5).size()); // ditto
+    private static boolean hasIndex(DSLContext create, String name) {
+        return create.fetchCount(DSL.table("sqlite_master"), DSL.field(DSL.name("name")).eq(name)) > 0;
     }
 
-    @Test
-    void getDocFromUrl() throws URISyntaxException, MalformedURLException {
-        assertThrows(IllegalArgumentException.class, () ->
-                conn.getDocFromUrl(new URI("https://github.com/151044/COMP4321-G42/").toURL())); // invalid URL throws an exception
-        assertEquals(2, conn.getDocFromUrl(new URI("https://sqlite.org/lang_datefunc.html").toURL()).id()); // normal use case
-    }
-
-    @Test
-    void hasDocId() {
-        assertTrue(conn.hasDocId(2));
-        assertFalse(conn.hasDocId(69));
+    private static void deleteDatabase(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(Path.of(path + "-wal"));
+        Files.deleteIfExists(Path.of(path + "-shm"));
     }
-}
\ No newline at end of file
+}
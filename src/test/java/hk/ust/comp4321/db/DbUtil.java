@@ -20,10 +20,10 @@ import static org.jooq.impl.SQLDataType.INTEGER;
 import static org.jooq.impl.SQLDataType.VARCHAR;
 
 public class DbUtil {
-    private static void resetId() throws NoSuchFieldException, IllegalAccessException {
+    static void resetId() throws NoSuchFieldException, IllegalAccessException {
         ReflectUtil.setStaticField("nextDocId", null, DatabaseConnection.class);
-        ReflectUtil.setStaticField("nextWordId", null, BodyTableOperation.class);
-        ReflectUtil.setStaticField("nextWordId", null, TitleTableOperation.class);
+        ReflectUtil.setStaticField("dictionary", null, BodyTableOperation.class);
+        ReflectUtil.setStaticField("dictionary", null, TitleTableOperation.class);
     }
 
     public static DatabaseConnection initializeTestDb() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
@@ -105,11 +105,19 @@ public class DbUtil {
         /*
          * Note: Since we bypassed all proper APIs to insert Documents into the database,
          * the Doc IDs are wrong. We close and reopen the connection to fix this problem.
+         * Reopening also migrates the word tables above into the postings tables.
          */
         resetId();
         conn = new DatabaseConnection(testPath);
         return conn;
     }
+
+    public static InMemoryIndexStore initializeTestStore() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
+        try (DatabaseConnection conn = initializeTestDb()) {
+            return InMemoryIndexStore.copyOf(conn);
+        }
+    }
+
     public record WordIndexEntry(String stem, int id, String prefix) {}
     public record ForwardIndexEntry(int docId, int wordId, String prefix) {}
 }
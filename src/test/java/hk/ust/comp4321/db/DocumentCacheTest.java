@@ -0,0 +1,69 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentCacheTest {
+    private DatabaseConnection conn;
+    private List<Document> docs;
+
+    @BeforeEach
+    void setUp() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
+        conn = DbUtil.initializeTestDb();
+        docs = conn.getDocuments();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException, IOException {
+        conn.close();
+        Files.deleteIfExists(Path.of("test.db"));
+    }
+
+    @Test
+    void get() throws SQLException {
+        DocumentCache cache = new DocumentCache(conn, 1 << 20);
+        Document doc = cache.get(docs.get(0));
+        assertFalse(docs.get(0).isLoaded()); // the document passed in is not changed
+        assertTrue(doc.isLoaded());
+        Document expected = conn.getDocFromId(docs.get(0).id());
+        expected.retrieveFromDatabase(conn);
+        assertEquals(expected.bodyFrequencies(), doc.bodyFrequencies()); // same words as loading directly
+        assertEquals(expected.children(), doc.children());
+        assertSame(doc, cache.get(docs.get(0))); // the second lookup is a hit
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertSame(expected, cache.get(expected)); // loaded documents are not cached
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void evict() {
+        DocumentCache unbounded = new DocumentCache(conn, Long.MAX_VALUE);
+        docs.forEach(unbounded::get);
+        long perDoc = unbounded.bytes() / docs.size();
+        DocumentCache cache = new DocumentCache(conn, perDoc * 2);
+        cache.get(docs.get(0));
+        cache.get(docs.get(1));
+        cache.get(docs.get(0));
+        docs.forEach(cache::get);
+        assertTrue(cache.bytes() <= perDoc * 2 || cache.size() == 1); // within the budget
+        assertTrue(cache.evictions() > 0);
+        assertEquals(0, unbounded.evictions());
+        long hits = cache.hits();
+        cache.get(docs.get(docs.size() - 1));
+        assertEquals(hits + 1, cache.hits()); // the most recently used document is kept
+        cache.clear();
+        assertEquals(0, cache.bytes());
+    }
+}
@@ -0,0 +1,42 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.WordInfo;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryIndexStoreTest extends IndexStoreTest<InMemoryIndexStore> {
+    @Override
+    InMemoryIndexStore open() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
+        return DbUtil.initializeTestStore();
+    }
+
+    @Override
+    InMemoryIndexStore openEmpty() {
+        return new InMemoryIndexStore();
+    }
+
+    @Test
+    void copyOf() throws MalformedURLException, SQLException {
+        assertEquals(4, conn.bodyOperator().getCurrentId()); // word IDs are kept
+        assertEquals(1, conn.bodyOperator().getIdFromStem("locat"));
+        assertEquals(2, conn.bodyOperator().getStemIds(0).size()); // forward index is copied as is
+
+        Document doc = new Document(URI.create("https://github.com/151044/COMP4321-G42/pull/4").toURL(), DatabaseConnection.nextDocId(), Instant.now(), 1);
+        doc.bodyFrequencies().put(new WordInfo(doc.id(), 0, 0, 0, ""), "societi");
+        conn.writeWords(doc);
+        try (DatabaseConnection db = new DatabaseConnection(Path.of("test.db"))) {
+            assertFalse(db.hasDocId(doc.id())); // writes are not written back
+            assertEquals(-1, db.bodyOperator().getIdFromStem("societi"));
+        }
+    }
+}
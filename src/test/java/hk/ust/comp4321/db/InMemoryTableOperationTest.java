@@ -0,0 +1,25 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.WordInfo;
+import org.jooq.exception.IntegrityConstraintViolationException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryTableOperationTest extends TableOperationTest<InMemoryIndexStore> {
+    @Override
+    InMemoryIndexStore open() throws IOException, SQLException, URISyntaxException, NoSuchFieldException, IllegalAccessException {
+        return DbUtil.initializeTestStore();
+    }
+
+    @Test
+    void insertWordInfoConstraint() {
+        assertThrows(IntegrityConstraintViolationException.class,
+                () -> body.insertWordInfo(0, new WordInfo(1000, 0, 0, 0, ""))); // nonexistent docId should not work
+        assertEquals(2, body.getDocIdsWithStem(0).size()); // nothing is inserted
+    }
+}
@@ -0,0 +1,67 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.WordInfo;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexCompactorTest {
+    private DatabaseConnection conn;
+
+    @BeforeEach
+    void setUp() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
+        conn = DbUtil.initializeTestDb();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException, IOException {
+        conn.close();
+        Files.deleteIfExists(Path.of("test.db"));
+    }
+
+    @Test
+    void compact() throws SQLException {
+        SqliteTableOperation body = conn.bodyOperator();
+        body.insertWordInfo(3, new WordInfo(1, 0, 0, 0, "education"));
+        body.insertWordInfo(1, new WordInfo(4, 0, 0, 0, "locations"));
+        conn.deleteFrequencies(4);
+        DSLContext create = DSL.using(conn.getConnection(), SQLDialect.SQLITE);
+        create.execute("PRAGMA foreign_keys = FALSE");
+        create.execute("INSERT INTO DocumentLink VALUES (1000, 'https://www.cse.ust.hk/')");
+        create.execute("PRAGMA foreign_keys = TRUE");
+        Map<String, Double> weights = body.getVector(0).getWeights();
+
+        assertEquals(new IndexCompactor.Result(2, 2, 1, 1), IndexCompactor.compact(conn)); // locat and engin have no postings left
+        assertEquals(0, body.getIdFromStem("comput"));
+        assertEquals(1, body.getIdFromStem("educ")); // word IDs are renumbered densely
+        assertEquals(-1, body.getIdFromStem("locat"));
+        assertEquals(-1, conn.titleOperator().getIdFromStem("opportun"));
+        assertEquals(5, body.getFrequency(0).size());
+        assertEquals(List.of(new WordInfo(1, 0, 0, 0, "education")), body.getFrequency(1)); // ... along with their postings
+        assertEquals(List.of(0, 1), body.getStemIds(1).stream().sorted().toList());
+        assertEquals(1, body.docFreq("educ"));
+        assertEquals(weights, body.getVector(0).getWeights());
+        assertEquals(2, body.insertStem("societi")); // new word IDs follow the renumbered ones
+
+        List<Document> docs = conn.loadDocuments();
+        Document doc = conn.getDocFromId(1);
+        conn.loadWords(doc);
+        assertEquals(docs.get(1).bodyFrequencies(), doc.bodyFrequencies()); // term vectors are rewritten
+        assertEquals(0, create.fetchCount(DSL.table("DocumentLink"),
+                DSL.condition(DSL.field(DSL.name("docId")).eq(1000))));
+    }
+}
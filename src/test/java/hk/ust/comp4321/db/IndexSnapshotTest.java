@@ -0,0 +1,87 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.se.SearchEngine;
+import hk.ust.comp4321.se.SearchVector;
+import hk.ust.comp4321.util.Tuple;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexSnapshotTest {
+    private static final Path DB_PATH = Path.of("test.db");
+    private static final Path SNAPSHOT_PATH = Path.of("test.snapshot");
+    private InMemoryIndexStore store;
+
+    @BeforeEach
+    void setUp() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
+        DbUtil.initializeTestDb().close();
+        IndexSnapshot.export(DB_PATH, SNAPSHOT_PATH);
+        store = IndexSnapshot.load(SNAPSHOT_PATH);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.close();
+        Files.deleteIfExists(DB_PATH);
+        Files.deleteIfExists(SNAPSHOT_PATH);
+    }
+
+    @Test
+    void load() throws SQLException {
+        assertThrows(IOException.class, () -> IndexSnapshot.load(DB_PATH)); // not a snapshot file
+        try (DatabaseConnection conn = new DatabaseConnection(DB_PATH)) {
+            List<Document> expected = conn.loadDocuments();
+            List<Document> actual = store.loadDocuments();
+            assertEquals(expected, actual);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).title(), actual.get(i).title());
+                assertEquals(expected.get(i).lastModified(), actual.get(i).lastModified());
+                assertEquals(expected.get(i).bodyFrequencies(), actual.get(i).bodyFrequencies());
+                assertEquals(expected.get(i).titleFrequencies(), actual.get(i).titleFrequencies());
+                assertEquals(conn.parents(i).stream().map(Document::id).sorted().toList(),
+                        store.parents(i).stream().map(Document::id).sorted().toList());
+            }
+            assertEquals(conn.bodyOperator().getWordIds(), store.bodyOperator().getWordIds()); // word IDs are kept
+            assertEquals(conn.bodyOperator().getStemIds(0), store.bodyOperator().getStemIds(0));
+            assertEquals(conn.bodyOperator().getVector(0).getWeights(), store.bodyOperator().getVector(0).getWeights());
+        }
+    }
+
+    @Test
+    void search() throws SQLException {
+        List<Document> docs = store.loadDocuments();
+        store.loadVectors(docs);
+        SearchVector query = new SearchVector("computer");
+        List<Tuple<Document, Double>> actual = new SearchEngine(store, docs).search(query);
+        try (DatabaseConnection conn = new DatabaseConnection(DB_PATH)) {
+            List<Document> expected = conn.loadDocuments();
+            assertEquals(new SearchEngine(conn, expected).search(query).stream().map(t -> t.left().id()).toList(),
+                    actual.stream().map(t -> t.left().id()).toList()); // same ranking as the database
+        }
+    }
+
+    @Test
+    void isFresh() throws IOException, SQLException, URISyntaxException {
+        assertTrue(IndexSnapshot.isFresh(SNAPSHOT_PATH, DB_PATH));
+        assertFalse(IndexSnapshot.isFresh(Path.of("nonexistent.snapshot"), DB_PATH));
+
+        try (DatabaseConnection conn = new DatabaseConnection(DB_PATH)) {
+            URL url = new URI("https://github.com/151044/COMP4321-G42/").toURL();
+            conn.insertLink(1, url);
+            assertFalse(IndexSnapshot.isFresh(SNAPSHOT_PATH, DB_PATH)); // changes in the write-ahead log
+        }
+        assertFalse(IndexSnapshot.isFresh(SNAPSHOT_PATH, DB_PATH)); // changes in the database
+    }
+}
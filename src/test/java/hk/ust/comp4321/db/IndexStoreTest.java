@@ -0,0 +1,208 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.api.DocumentFrequencies;
+import hk.ust.comp4321.api.WordInfo;
+import hk.ust.comp4321.se.SearchVector;
+import hk.ust.comp4321.test.ReflectUtil;
+import org.jooq.exception.IntegrityConstraintViolationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests which every implementation of {@link IndexStore} should pass,
+ * against the same test data (see {@link DbUtil#initializeTestDb()}).
+ * @param <T> The type of the index store
+ */
+abstract class IndexStoreTest<T extends IndexStore> {
+    private static void resetId() throws NoSuchFieldException, IllegalAccessException {
+        ReflectUtil.setStaticField("nextDocId", null, DatabaseConnection.class);
+    }
+
+    /**
+     * Opens an index store holding the test data.
+     * @return The index store to test
+     */
+    abstract T open() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException;
+
+    /**
+     * Opens an empty index store.
+     * @return The empty index store
+     */
+    abstract T openEmpty() throws SQLException;
+
+    private void connectEmpty() throws SQLException {
+        conn = openEmpty();
+    }
+
+    T conn;
+    @BeforeEach
+    void setUp() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
+        conn = open();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException, IOException {
+        conn.close();
+        Files.deleteIfExists(Path.of("test.db"));
+        Files.deleteIfExists(Path.of("empty.db"));
+    }
+
+    @Test
+    void getDocFromId() throws MalformedURLException, URISyntaxException {
+        assertThrows(IllegalArgumentException.class, () -> conn.getDocFromId(1000));
+        Document doc = conn.getDocFromId(0);
+        assertEquals(0, doc.id());
+        assertEquals(new URI("https://www.cse.ust.hk/~kwtleung/").toURL(), doc.url());
+    }
+
+    @Test
+    void insertLink() throws URISyntaxException, MalformedURLException {
+        URL url = new URI("https://www.google.com/").toURL();
+        assertThrows(IntegrityConstraintViolationException.class, () -> conn.insertLink(1000, url)); // nonexistent docId should not work
+        conn.insertLink(2, url);
+        assertTrue(conn.children(2).stream().anyMatch(urls -> urls.toString().equals(url.toString()))); // normal insert link
+        assertDoesNotThrow(() -> conn.insertLink(2, url)); // multiple insertions do not crash
+        assertEquals(1, conn.children(2).size()); // multiple insertions do not crash
+    }
+
+    @Test
+    void deleteFrequencies() {
+        assertDoesNotThrow(() -> conn.deleteFrequencies(1000)); // deleting nonexistent ID does not fail
+        conn.deleteFrequencies(0);
+        TableOperation bodyOperator = conn.bodyOperator();
+        assertEquals(0, bodyOperator.getFrequency(bodyOperator.getIdFromStem("comput"), 0).size()); // body tables don't have docId == 0
+        assertEquals(0, bodyOperator.getFrequency(bodyOperator.getIdFromStem("comput"), 0).size()); // title table don't have docId == 0
+        assertEquals(2, bodyOperator.getFrequency(bodyOperator.getIdFromStem("comput"), 1).size()); // 2 frequency records remaining
+    }
+
+    @Test
+    void deleteChildren() {
+        assertDoesNotThrow(() -> conn.deleteChildren(1000)); // Invalid ID
+        conn.deleteChildren(0);
+        assertEquals(0, conn.children(0).size()); // Dropped tables should have no children left
+        assertEquals(2, conn.children(3).size()); // Unaffected tables should be unaffected
+        assertDoesNotThrow(() -> conn.deleteChildren(0)); // Deleting the same thing shouldn't crash
+    }
+
+    @Test
+    void children() {
+        assertEquals(4, conn.children(0).size()); // 4 children, as expected
+        assertEquals(0, conn.children(1000).size()); // Non-existent IDs should return 0
+    }
+
+    @Test
+    void childDocuments() {
+        assertEquals(4, conn.childDocuments(0).size()); // 4 indexed children, as expected
+        assertEquals(List.of(1, 3), conn.childDocuments(3).stream().map(Document::id).sorted().toList());
+        assertEquals(0, conn.childDocuments(1000).size()); // Non-existent IDs should return 0
+    }
+
+    @Test
+    void loadDocuments() throws SQLException {
+        List<Document> docs = conn.loadDocuments();
+        assertEquals(5, docs.size()); // All documents are returned
+        assertTrue(docs.stream().allMatch(Document::isLoaded));
+        Document single = conn.getDocFromId(0);
+        single.retrieveFromDatabase(conn);
+        assertEquals(single.bodyFrequencies(), docs.get(0).bodyFrequencies()); // Same as loading one by one
+        assertEquals(single.titleFrequencies(), docs.get(0).titleFrequencies());
+        assertEquals(single.children().stream().map(URL::toString).sorted().toList(),
+                docs.get(0).children().stream().map(URL::toString).sorted().toList());
+        assertEquals(2, docs.get(1).bodyFrequencies().size()); // Read from the postings, not the forward index
+        assertEquals(2, docs.get(3).children().size());
+        assertEquals(0, docs.get(2).children().size()); // No children
+    }
+
+    @Test
+    void parents() throws URISyntaxException, MalformedURLException {
+        assertEquals(List.of(0, 4), conn.parents(2).stream().map(Document::id).sorted().toList()); // parents are fully built
+        assertEquals(2, conn.parents(2).size()); // 2 parents, as expected
+        assertEquals(0, conn.parents(1000).size()); // Non-existent IDs should return 0
+
+        assertEquals(2, conn.parents(new URI("https://sqlite.org/lang_datefunc.html").toURL()).size());
+        assertEquals(0, conn.parents(new URI("https://github.com/151044/COMP4321-G42/").toURL()).size());
+    }
+
+    @Test
+    void nextDocId() throws NoSuchFieldException, IllegalAccessException, SQLException {
+        assertEquals(5, DatabaseConnection.nextDocId()); // currently 5 docs, so next ID is 5
+        assertEquals(6, DatabaseConnection.nextDocId()); // 6 after last allocation
+
+        resetId();
+        connectEmpty();
+        assertEquals(0, DatabaseConnection.nextDocId()); // 0 since we connected to an empty DB
+        assertEquals(1, DatabaseConnection.nextDocId()); // 1 after last allocation
+    }
+
+    @Test
+    void insertDocument() throws MalformedURLException {
+        Instant prev = Instant.now();
+        conn.insertDocument(new Document(URI.create("https://github.com/151044/COMP4321-G42/pull/2").toURL(), DatabaseConnection.nextDocId(), prev, 234324444L));
+        assertDoesNotThrow(() -> conn.getDocFromId(5)); // successful insertion
+        conn.insertDocument(new Document(URI.create("https://github.com/151044/COMP4321-G42/pull/2").toURL(), 5, Instant.now(), 2));
+        assertTrue(prev.isBefore(conn.getDocFromId(5).lastModified())); // checks if we have correctly updated on duplicate insert
+        assertEquals(2, conn.getDocFromId(5).size()); // ditto
+    }
+
+    @Test
+    void writeWords() throws MalformedURLException {
+        Document doc = new Document(URI.create("https://github.com/151044/COMP4321-G42/pull/3").toURL(), DatabaseConnection.nextDocId(), Instant.now(), 3, "Locat");
+        doc.titleFrequencies().put(new WordInfo(5, 0, 0, 0, "location"), "locat");
+        doc.bodyFrequencies().put(new WordInfo(5, 0, 0, 0, "computing"), "comput");
+        doc.bodyFrequencies().put(new WordInfo(5, 0, 0, 1, "compute"), "comput");
+        doc.bodyFrequencies().put(new WordInfo(5, 0, 1, 0, ""), "societi");
+        conn.writeWords(doc);
+
+        assertEquals("Locat", conn.getDocFromId(5).title()); // document is inserted
+        TableOperation body = conn.bodyOperator();
+        assertEquals(0, body.getIdFromStem("comput")); // existing stems are reused
+        assertEquals(4, body.getIdFromStem("societi")); // new stems are allocated
+        assertEquals(2, body.getFrequency(0, 5).size());
+        assertEquals(1, body.getFrequency(4, 5).size());
+        assertEquals(2, body.getStemIds(5).size()); // forward index is written
+        assertEquals(1, conn.titleOperator().getFrequency(1, 5).size());
+        assertDoesNotThrow(() -> conn.writeWords(doc)); // rewriting the same words does not fail
+        assertEquals(7, body.totalFreq("comput")); // rewriting does not count words twice
+        assertEquals(3, body.docFreq("comput"));
+    }
+
+    @Test
+    void loadVectors() {
+        List<Document> docs = conn.loadDocuments();
+        conn.loadVectors(docs);
+        List<Document> scanned = conn.loadDocuments();
+        DocumentFrequencies docFreqs = new DocumentFrequencies(scanned);
+        SearchVector query = new SearchVector("comput");
+        for (int i = 0; i < docs.size(); i++) {
+            assertEquals(scanned.get(i).asBodyVector(docFreqs).cosineSim(query), docs.get(i).asBodyVector(conn).cosineSim(query), 1e-9); // same weights as scanning
+        }
+    }
+
+    @Test
+    void getDocFromUrl() throws URISyntaxException, MalformedURLException {
+        assertThrows(IllegalArgumentException.class, () ->
+                conn.getDocFromUrl(new URI("https://github.com/151044/COMP4321-G42/").toURL())); // invalid URL throws an exception
+        assertEquals(2, conn.getDocFromUrl(new URI("https://sqlite.org/lang_datefunc.html").toURL()).id()); // normal use case
+    }
+
+    @Test
+    void hasDocId() {
+        assertTrue(conn.hasDocId(2));
+        assertFalse(conn.hasDocId(69));
+    }
+}
\ No newline at end of file
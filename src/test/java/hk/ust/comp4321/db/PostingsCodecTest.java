@@ -0,0 +1,55 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.WordInfo;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostingsCodecTest {
+    private static final List<WordInfo> FREQS = List.of(
+            new WordInfo(7, 0, 0, 3, ""),
+            new WordInfo(0, 1, 2, 3, "compute"),
+            new WordInfo(0, 1, 1, 1, "computing"),
+            new WordInfo(0, 99, 2, 3, "computed"),
+            new WordInfo(1, 3270972, 2, 1, "computer"),
+            new WordInfo(1, 3, 2, 1, "computes"));
+
+    @Test
+    void decode() {
+        List<WordInfo> decoded = PostingsCodec.decode(PostingsCodec.encode(FREQS));
+        assertEquals(FREQS.size(), decoded.size());
+        assertTrue(decoded.containsAll(FREQS)); // raw words are kept
+        assertEquals(List.of(0, 0, 0, 1, 1, 7), decoded.stream().map(WordInfo::docId).toList()); // sorted by document ID
+        assertEquals(new WordInfo(0, 1, 1, 1, "computing"), decoded.get(0)); // then by position
+        assertEquals(List.of(), PostingsCodec.decode(PostingsCodec.encode(List.of())));
+    }
+
+    @Test
+    void forEachDocument() {
+        byte[] blob = PostingsCodec.encode(FREQS);
+        List<List<Integer>> docs = new ArrayList<>();
+        PostingsCodec.forEachDocument(blob, (docId, termFreq) -> docs.add(List.of(docId, termFreq)));
+        assertEquals(List.of(List.of(0, 3), List.of(1, 2), List.of(7, 1)), docs);
+        assertEquals(3, PostingsCodec.docFreq(blob));
+    }
+
+    @Test
+    void forEachPosition() {
+        List<List<Integer>> positions = new ArrayList<>();
+        PostingsCodec.forEachPosition(PostingsCodec.encode(FREQS),
+                (docId, paragraph, sentence, location) -> positions.add(List.of(docId, paragraph, sentence, location)));
+        assertEquals(List.of(
+                List.of(0, 1, 1, 1), List.of(0, 1, 2, 3), List.of(0, 99, 2, 3),
+                List.of(1, 3, 2, 1), List.of(1, 3270972, 2, 1), List.of(7, 0, 0, 3)), positions);
+    }
+
+    @Test
+    void encode() {
+        assertTrue(PostingsCodec.encode(FREQS).length < FREQS.size() * 4 * Integer.BYTES); // smaller than fixed-width integers
+        assertThrows(IllegalArgumentException.class,
+                () -> PostingsCodec.encode(List.of(new WordInfo(0, -1, 0, 0, "")))); // gaps must not be negative
+    }
+}
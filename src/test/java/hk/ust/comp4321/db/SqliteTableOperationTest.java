@@ -0,0 +1,57 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.WordInfo;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqliteTableOperationTest extends TableOperationTest<DatabaseConnection> {
+    @Override
+    DatabaseConnection open() throws IOException, SQLException, URISyntaxException, NoSuchFieldException, IllegalAccessException {
+        return DbUtil.initializeTestDb();
+    }
+
+    @Test
+    void dictionary() throws SQLException {
+        assertEquals(4, body.insertStem("societi"));
+        assertEquals("societi", body.getStemFromId(4));
+        try (DatabaseConnection other = new DatabaseConnection(Path.of("test.db"))) {
+            assertEquals(4, other.bodyOperator().getIdFromStem("societi")); // dictionary is shared between connections
+            assertEquals(-1, other.titleOperator().getIdFromStem("societi")); // ... but not between prefixes
+        }
+        assertEquals(1, DSL.using(conn.getConnection()).fetchCount(DSL.table("WordIndex"),
+                DSL.condition(DSL.field(DSL.name("stem")).eq("societi")))); // new stems are written to the database
+    }
+
+    @Test
+    void storedVectors() throws SQLException {
+        assertEquals(2, body.getVectors().size());
+        assertEquals(0, DSL.using(conn.getConnection()).fetchCount(DSL.table("DocumentVector"),
+                DSL.condition(DSL.field(DSL.name("typePrefix")).eq("body")))); // looking up vectors does not write them
+        body.refreshVectors();
+        assertEquals(2, DSL.using(conn.getConnection()).fetchCount(DSL.table("DocumentVector"),
+                DSL.condition(DSL.field(DSL.name("typePrefix")).eq("body")))); // vectors are written to the database
+        try (DatabaseConnection other = new DatabaseConnection(Path.of("test.db"))) {
+            assertEquals(body.getVector(0).getWeights(), other.bodyOperator().getVector(0).getWeights()); // ... and read back
+        }
+    }
+
+    @Test
+    void surfaceForms() {
+        body.insertWordInfo(1, new WordInfo(0, 0, 0, 0, "locations"));
+        body.insertWordInfo(1, new WordInfo(1, 0, 0, 0, "locations"));
+        body.insertWordInfo(1, new WordInfo(1, 0, 0, 1, ""));
+        assertEquals(1, DSL.using(conn.getConnection()).fetchCount(DSL.table("BodySurfaceForms"),
+                DSL.condition(DSL.field(DSL.name("rawWord")).eq("locations")))); // each raw word is stored once
+        assertTrue(body.getFrequency(1, 1).contains(new WordInfo(1, 0, 0, 0, "locations")));
+        assertTrue(body.getFrequency(1, 1).contains(new WordInfo(1, 0, 0, 1, ""))); // ... and no form is stored for an empty word
+        assertEquals(5, DSL.using(conn.getConnection()).fetchCount(DSL.table("BodySurfaceForms"),
+                DSL.condition(DSL.field(DSL.name("wordId")).eq(0)))); // forms of the old word tables are converted
+    }
+}
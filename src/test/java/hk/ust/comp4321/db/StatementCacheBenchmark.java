@@ -0,0 +1,109 @@
+package hk.ust.comp4321.db;
+
+import hk.ust.comp4321.api.WordInfo;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the latency of point lookups rendered by jOOQ on every call
+ * against the same lookups run through the statement cache.
+ *
+ * <p>Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class StatementCacheBenchmark {
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 20_000;
+    private DatabaseConnection conn;
+    private DSLContext create;
+
+    @BeforeEach
+    void setUp() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
+        conn = DbUtil.initializeTestDb();
+        create = DSL.using(conn.getConnection(), SQLDialect.SQLITE);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException, IOException {
+        conn.close();
+        Files.deleteIfExists(Path.of("test.db"));
+    }
+
+    @Test
+    void getDocFromId() {
+        compare("getDocFromId",
+                i -> create.select()
+                        .from(DSL.table("Document"))
+                        .where(DSL.condition(DSL.field(DSL.name("docId")).eq(i % 5)))
+                        .fetch().get(0).get(4, String.class),
+                i -> conn.getDocFromId(i % 5).title());
+    }
+
+    @Test
+    void hasDocId() {
+        compare("hasDocId",
+                i -> create.fetchCount(DSL.table("Document"), DSL.condition(DSL.field(DSL.name("docId")).eq(i % 10))) > 0,
+                i -> conn.hasDocId(i % 10));
+    }
+
+    @Test
+    void getFrequency() {
+        TableOperation body = conn.bodyOperator();
+        compare("getFrequency",
+                i -> create.select(DSL.field(DSL.name("p", "wordId")), DSL.field(DSL.name("p", "docId")),
+                                DSL.field(DSL.name("p", "paragraph")), DSL.field(DSL.name("p", "sentence")),
+                                DSL.field(DSL.name("p", "location")),
+                                DSL.coalesce(DSL.field(DSL.name("s", "rawWord"), String.class), DSL.inline("")))
+                        .from(DSL.table(DSL.name("BodyPostings")).as("p"))
+                        .leftJoin(DSL.table(DSL.name("BodySurfaceForms")).as("s"))
+                        .on(DSL.field(DSL.name("s", "wordId")).eq(DSL.field(DSL.name("p", "wordId")))
+                                .and(DSL.field(DSL.name("s", "formId")).eq(DSL.field(DSL.name("p", "formId")))))
+                        .where(DSL.condition(DSL.field(DSL.name("p", "wordId")).eq(0))
+                                .and(DSL.field(DSL.name("p", "docId")).eq(i % 2)))
+                        .fetch()
+                        .map(r -> new WordInfo(r.get(1, Integer.class), r.get(2, Integer.class),
+                                r.get(3, Integer.class), r.get(4, Integer.class), r.get(5, String.class))),
+                i -> body.getFrequency(0, i % 2));
+    }
+
+    @Test
+    void children() {
+        compare("children",
+                i -> create.select(DSL.field(DSL.name("childUrl"))).from(DSL.table(DSL.name("DocumentLink")))
+                        .where(DSL.condition(DSL.field(DSL.name("docId")).eq(i % 5)))
+                        .fetch().map(r -> r.get(0, String.class)),
+                i -> conn.children(i % 5).stream().map(Object::toString).toList());
+    }
+
+    private static <T> void compare(String name, IntFunction<T> before, IntFunction<T> after) {
+        for (int i = 0; i < WARMUP; i++) {
+            assertEquals(before.apply(i), after.apply(i)); // both paths return the same results
+        }
+        double beforeMicros = time(before);
+        double afterMicros = time(after);
+        System.out.printf("%s: %.2f us/op (jOOQ) -> %.2f us/op (statement cache), %.1fx%n",
+                name, beforeMicros, afterMicros, beforeMicros / afterMicros);
+    }
+
+    private static double time(IntFunction<?> op) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            op.apply(i);
+        }
+        return (System.nanoTime() - start) / 1000.0 / ITERATIONS;
+    }
+}
@@ -10,16 +10,29 @@ import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-class TableOperationTest {
-    private DatabaseConnection conn;
-    private TableOperation body;
-    private TableOperation title;
+/**
+ * Tests which every implementation of {@link TableOperation} should pass,
+ * against the same test data (see {@link DbUtil#initializeTestDb()}).
+ * @param <T> The type of the index store owning the table operations
+ */
+abstract class TableOperationTest<T extends IndexStore> {
+    T conn;
+    TableOperation body;
+    TableOperation title;
+
+    /**
+     * Opens an index store holding the test data.
+     * @return The index store whose table operations are tested
+     */
+    abstract T open() throws IOException, SQLException, URISyntaxException, NoSuchFieldException, IllegalAccessException;
+
     @BeforeEach
     void setUp() throws IOException, SQLException, URISyntaxException, NoSuchFieldException, IllegalAccessException {
-        conn = DbUtil.initializeTestDb();
+        conn = open();
         body = conn.bodyOperator();
         title = conn.titleOperator();
     }
@@ -46,9 +59,10 @@ class TableOperationTest {
         assertEquals(2, body.getStemIds(0).size());
         assertEquals(1, title.getStemIds(0).size());
 
-        conn.deleteFrequencies(0);
-        assertEquals(2, body.getStemIds(0).size());
-        assertEquals(1, title.getStemIds(0).size());
+        conn.deleteFrequencies(0); // forward index entries are dropped together with the frequencies
+        assertEquals(0, body.getStemIds(0).size());
+        assertEquals(0, title.getStemIds(0).size());
+        assertEquals(1, body.getStemIds(1).size()); // other documents are unaffected
     }
 
     @Test
@@ -146,9 +160,68 @@ class TableOperationTest {
         assertEquals(2, title.docFreq("comput"));
     }
 
+    @Test
+    void totalFreq() {
+        assertEquals(5, body.totalFreq("comput"));
+        assertEquals(2, title.totalFreq("comput"));
+        assertEquals(0, body.totalFreq("deconstruction"));
+    }
+
+    @Test
+    void getStatistics() {
+        assertEquals(new FieldStatistics(2, 5), body.getStatistics());
+        assertEquals(new FieldStatistics(2, 2), title.getStatistics());
+        assertEquals(2.5, body.getStatistics().averageLength());
+
+        body.insertWordInfo(0, new WordInfo(2, 0, 0, 0, ""));
+        assertEquals(3, body.docFreq("comput")); // inserts update the statistics
+        assertEquals(6, body.totalFreq("comput"));
+        assertEquals(new FieldStatistics(3, 6), body.getStatistics());
+
+        conn.deleteFrequencies(0);
+        assertEquals(2, body.docFreq("comput")); // deletes update the statistics
+        assertEquals(3, body.totalFreq("comput"));
+        assertEquals(new FieldStatistics(2, 3), body.getStatistics());
+        assertEquals(new FieldStatistics(1, 1), title.getStatistics());
+    }
+
+    @Test
+    void getVector() {
+        double idf = Math.log(5.0 / 2) / Math.log(2);
+        assertEquals(idf, body.getVector(0).getWeights().get("comput"), 1e-9); // 3 of 3 words are comput, in 2 of 5 documents
+        assertEquals(idf, body.getVector(0).norm(), 1e-9);
+        assertTrue(body.getVector(3).getWeights().isEmpty()); // documents without words have empty vectors
+
+        body.insertWordInfo(0, new WordInfo(2, 0, 0, 0, ""));
+        assertEquals(Math.log(5.0 / 3) / Math.log(2), body.getVector(0).getWeights().get("comput"), 1e-9); // stale vectors are recomputed
+    }
+
+    @Test
+    void getVectors() {
+        assertEquals(Set.of(0, 1), body.getVectors().keySet());
+        assertEquals(body.getVector(1).getWeights(), body.getVectors().get(1).getWeights());
+
+        conn.deleteFrequencies(0);
+        assertEquals(Set.of(1), body.getVectors().keySet());
+        assertEquals(Math.log(5.0) / Math.log(2), body.getVectors().get(1).getWeights().get("comput"), 1e-9);
+    }
+
+    @Test
+    void refreshVectors() {
+        body.refreshVectors();
+        assertEquals(Math.log(5.0 / 2) / Math.log(2), body.getVector(0).getWeights().get("comput"), 1e-9); // refreshed vectors are used
+
+        body.insertWordInfo(0, new WordInfo(2, 0, 0, 0, ""));
+        assertEquals(Math.log(5.0 / 3) / Math.log(2), body.getVector(0).getWeights().get("comput"), 1e-9); // drifted vectors are stale
+        assertEquals(Math.log(5.0 / 3) / Math.log(2), body.getVectors().get(0).getWeights().get("comput"), 1e-9);
+        body.refreshVectors();
+        assertEquals(Set.of(0, 1, 2), body.getVectors().keySet()); // new documents get vectors
+        assertEquals(Math.log(5.0 / 3) / Math.log(2), body.getVector(2).getWeights().get("comput"), 1e-9);
+    }
+
     @Test
     void getDocIdsWithStem() {
         assertEquals(2, body.getDocIdsWithStem(0).size());
         assertEquals(2, title.getDocIdsWithStem(0).size());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package hk.ust.comp4321.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TermVectorTest {
+    private static final TermVector VECTOR = TermVector.compute(Map.of(0, 2, 1, 1), wordId -> wordId == 0 ? 100 : 20, 1000);
+
+    @Test
+    void compute() {
+        assertEquals(2, VECTOR.maxTf());
+        assertEquals(Math.log(10) / Math.log(2), VECTOR.weights().get(0), 1e-9); // tf / max tf * log2(N / df)
+        assertEquals(Math.log(50) / Math.log(2) / 2, VECTOR.weights().get(1), 1e-9);
+        assertEquals(Map.of(0, 100, 1, 20), VECTOR.docFreqs()); // the document frequencies are kept
+    }
+
+    @Test
+    void isFresh() {
+        assertTrue(VECTOR.isFresh(wordId -> wordId == 0 ? 100 : 20, 1000));
+        assertTrue(VECTOR.isFresh(wordId -> wordId == 0 ? 104 : 21, 1040)); // small drifts are tolerated
+        assertFalse(VECTOR.isFresh(wordId -> wordId == 0 ? 100 : 22, 1000)); // ... but not in any word
+        assertFalse(VECTOR.isFresh(wordId -> wordId == 0 ? 100 : 20, 1100)); // ... or in the number of documents
+        assertTrue(VECTOR.isFresh(wordId -> wordId == 0 ? 100 : wordId == 1 ? 20 : 1, 1000)); // other words do not matter
+    }
+}
@@ -0,0 +1,135 @@
+package hk.ust.comp4321.db.segment;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.db.DatabaseConnection;
+import hk.ust.comp4321.db.DbUtil;
+import hk.ust.comp4321.se.SearchEngine;
+import hk.ust.comp4321.se.SearchVector;
+import hk.ust.comp4321.util.Tuple;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentIndexTest {
+    private static final Path SEGMENTS_PATH = Path.of("test-segments");
+    private DatabaseConnection conn;
+    private List<Document> docs;
+    private SegmentIndex index;
+
+    @BeforeEach
+    void setUp() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
+        conn = DbUtil.initializeTestDb();
+        docs = conn.loadDocuments();
+        deleteSegments();
+        index = SegmentIndex.open(SEGMENTS_PATH);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException, IOException {
+        index.close();
+        conn.close();
+        Files.deleteIfExists(Path.of("test.db"));
+        deleteSegments();
+    }
+
+    private void deleteSegments() throws IOException {
+        if (Files.isDirectory(SEGMENTS_PATH)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(SEGMENTS_PATH)) {
+                for (Path path : stream) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(SEGMENTS_PATH);
+        }
+    }
+
+    private void add(List<Document> added) throws IOException {
+        index.add(added, (int) DatabaseConnection.getDocSize(),
+                conn.titleOperator()::docFreq, conn.bodyOperator()::docFreq);
+    }
+
+    @Test
+    void search() throws IOException {
+        add(docs.subList(0, 2));
+        add(docs.subList(2, 4));
+        add(docs.subList(4, 5));
+        assertEquals(3, index.segments().size());
+
+        SearchVector query = new SearchVector("computer");
+        List<Tuple<Document, Double>> expected = new SearchEngine(conn, docs).search(query);
+        List<Tuple<Document, Double>> actual = new SegmentSearcher(index).search(query);
+        assertEquals(expected.stream().map(t -> t.left().id()).toList(),
+                actual.stream().map(t -> t.left().id()).toList()); // same ranking as a single index
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).right(), actual.get(i).right(), 1e-9);
+        }
+    }
+
+    @Test
+    void replace() throws IOException {
+        add(docs);
+        add(docs.subList(0, 1));
+        Segment latest = index.segments().get(0);
+        assertSame(latest, index.segmentOf(0).orElseThrow()); // the latest copy is used
+        assertEquals(1, latest.docCount());
+        assertTrue(index.segmentOf(1000).isEmpty());
+
+        List<Integer> ids = new SegmentSearcher(index).search(new SearchVector("computer")).stream()
+                .map(t -> t.left().id()).toList();
+        assertEquals(ids.stream().distinct().toList(), ids); // replaced copies are not returned
+        assertTrue(ids.contains(0));
+    }
+
+    @Test
+    void merge() throws IOException {
+        for (int i = 0; i < SegmentIndex.MERGE_FACTOR; i++) {
+            add(docs.subList(i, i + 1));
+        }
+        add(docs.subList(0, 1));
+        assertEquals(SegmentIndex.MERGE_FACTOR + 1, index.segments().size());
+
+        assertTrue(index.merge());
+        assertFalse(index.merge()); // the merged segment is in the next tier
+        List<Segment> segments = index.segments();
+        assertEquals(2, segments.size());
+        assertEquals(SegmentIndex.MERGE_FACTOR, segments.get(1).docCount());
+        assertEquals(1, segments.get(0).docCount()); // the newer segment is not merged
+
+        Document merged = segments.get(1).documents().get(1);
+        assertEquals(docs.get(1).title(), merged.title());
+        assertEquals(docs.get(1).bodyFrequencies(), merged.bodyFrequencies());
+        assertEquals(docs.get(1).titleFrequencies(), merged.titleFrequencies());
+        try (Stream<Path> files = Files.list(SEGMENTS_PATH)) {
+            assertEquals(2, files.count()); // the merged segment files are deleted
+        }
+    }
+
+    @Test
+    void refresh() throws IOException {
+        try (SegmentIndex reader = SegmentIndex.open(SEGMENTS_PATH)) {
+            assertEquals(0, reader.segments().size());
+            for (int i = 0; i < SegmentIndex.MERGE_FACTOR; i++) {
+                add(docs.subList(i, i + 1));
+            }
+            reader.refresh();
+            assertEquals(SegmentIndex.MERGE_FACTOR, reader.segments().size()); // new segments are picked up
+
+            index.merge();
+            reader.refresh();
+            assertEquals(1, reader.segments().size()); // merged segments are dropped
+            assertEquals(new SegmentSearcher(index).search(new SearchVector("computer")).size(),
+                    new SegmentSearcher(reader).search(new SearchVector("computer")).size());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package hk.ust.comp4321.db.segment;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.db.DatabaseConnection;
+import hk.ust.comp4321.db.DbUtil;
+import hk.ust.comp4321.db.PostingsCodec;
+import hk.ust.comp4321.se.SearchEngine;
+import hk.ust.comp4321.se.SearchVector;
+import hk.ust.comp4321.util.Tuple;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentTest {
+    private static final Path SEGMENT_PATH = Path.of("test.seg");
+    private DatabaseConnection conn;
+    private Segment segment;
+
+    @BeforeEach
+    void setUp() throws SQLException, NoSuchFieldException, IllegalAccessException, URISyntaxException, IOException {
+        conn = DbUtil.initializeTestDb();
+        SegmentWriter.export(conn, SEGMENT_PATH);
+        segment = Segment.open(SEGMENT_PATH);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException, IOException {
+        conn.close();
+        Files.deleteIfExists(Path.of("test.db"));
+        Files.deleteIfExists(SEGMENT_PATH);
+    }
+
+    @Test
+    void open() {
+        assertThrows(IOException.class, () -> Segment.open(Path.of("test.db"))); // not a segment file
+        assertEquals(5, segment.docCount());
+        assertEquals(5, segment.totalDocs());
+    }
+
+    @Test
+    void document() {
+        assertEquals(conn.getDocFromId(3).title(), segment.document(3).title());
+        assertEquals(conn.getDocFromId(3).url(), segment.document(3).url());
+        assertEquals(conn.getDocFromId(3).lastModified(), segment.document(3).lastModified());
+        assertThrows(IllegalArgumentException.class, () -> segment.document(1000));
+    }
+
+    @Test
+    void links() {
+        assertEquals(4, segment.children(0).size());
+        assertEquals(conn.children(3).stream().map(URL::toString).sorted().toList(),
+                segment.children(3).stream().map(URL::toString).sorted().toList());
+        assertEquals(conn.parents(1).stream().map(d -> d.url().toString()).sorted().toList(),
+                segment.parents(1).stream().map(URL::toString).sorted().toList());
+        assertEquals(2, segment.parents(2).size()); // linked from documents 0 and 4
+    }
+
+    @Test
+    void findTerm() {
+        int term = segment.findTerm(Segment.Field.BODY, "comput");
+        assertNotEquals(-1, term);
+        assertEquals(2, segment.docFreq(Segment.Field.BODY, term));
+        assertEquals(2, PostingsCodec.docFreq(segment.postings(Segment.Field.BODY, term)));
+        assertEquals(-1, segment.findTerm(Segment.Field.BODY, "locat")); // no postings
+        assertEquals(-1, segment.findTerm(Segment.Field.TITLE, "nonexistent"));
+    }
+
+    @Test
+    void search() {
+        List<Document> docs = conn.loadDocuments();
+        SearchVector query = new SearchVector("computer");
+        List<Tuple<Document, Double>> expected = new SearchEngine(conn, docs).search(query);
+        List<Tuple<Document, Double>> actual = new SegmentSearcher(segment).search(query);
+        assertEquals(expected.stream().map(t -> t.left().id()).toList(),
+                actual.stream().map(t -> t.left().id()).toList()); // same ranking as the search engine
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).right(), actual.get(i).right(), 1e-9);
+        }
+        assertEquals(0, new SegmentSearcher(segment).search(new SearchVector("nonexistent")).size());
+    }
+
+    @Test
+    void hasPhrase() throws IOException {
+        Path path = Path.of("phrase.seg");
+        Document doc = new Document(URI.create("https://example.com/").toURL(), 0, Instant.EPOCH, 0);
+        doc.bodyFrequencies().add("search", 0, 0, 0, "search");
+        doc.bodyFrequencies().add("search", 0, 0, 1, "search");
+        doc.bodyFrequencies().add("search", 0, 0, 2, "search");
+        doc.bodyFrequencies().add("engin", 0, 0, 3, "engine");
+        doc.bodyFrequencies().add("comput", 0, 0, 4, "computer");
+        doc.bodyFrequencies().add("search", 1, 0, 0, "search");
+        try {
+            SegmentWriter.write(List.of(doc), 1, null, null, path);
+            Segment phrases = Segment.open(path);
+            int search = phrases.findTerm(Segment.Field.BODY, "search");
+            int engin = phrases.findTerm(Segment.Field.BODY, "engin");
+            int comput = phrases.findTerm(Segment.Field.BODY, "comput");
+            assertTrue(phrases.hasPhrase(Segment.Field.BODY, 0, new int[]{search, search, engin})); // repeated prefix
+            assertTrue(phrases.hasPhrase(Segment.Field.BODY, 0, new int[]{search, search, search, engin}));
+            assertFalse(phrases.hasPhrase(Segment.Field.BODY, 0, new int[]{search, search, search, search}));
+            assertFalse(phrases.hasPhrase(Segment.Field.BODY, 0, new int[]{engin, search}));
+            assertFalse(phrases.hasPhrase(Segment.Field.BODY, 0, new int[]{comput, search})); // crosses a paragraph
+            assertTrue(phrases.hasPhrase(Segment.Field.BODY, 0, new int[]{engin, comput}));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package hk.ust.comp4321.nlp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VocabularyTest {
+
+    @Test
+    void id() {
+        int id = Vocabulary.id("vocabulari");
+        assertEquals(id, Vocabulary.id("vocabulari")); // the same stem has the same term ID
+        assertEquals(id, Vocabulary.find("vocabulari"));
+        assertEquals("vocabulari", Vocabulary.stem(id));
+        assertNotEquals(id, Vocabulary.id("dictionari"));
+        assertEquals(-1, Vocabulary.find("nonexistentstem")); // find does not add the stem
+        assertThrows(IndexOutOfBoundsException.class, () -> Vocabulary.stem(Vocabulary.size()));
+    }
+
+    @Test
+    void concurrent() {
+        List<String> stems = IntStream.range(0, 5000).mapToObj(i -> "concurr" + i).toList();
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, 4).parallel().forEach(t -> stems.forEach(s -> ids.add(Vocabulary.id(s))));
+        assertEquals(stems.size(), ids.size()); // each stem gets exactly one term ID
+        stems.forEach(s -> assertEquals(s, Vocabulary.stem(Vocabulary.find(s))));
+    }
+}
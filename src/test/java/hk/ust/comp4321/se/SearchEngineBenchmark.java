@@ -0,0 +1,59 @@
+package hk.ust.comp4321.se;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.util.Tuple;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.net.MalformedURLException;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the latency of scoring every document against walking the postings of the query terms,
+ * as the number of documents grows.
+ *
+ * <p>The documents have random vectors over a vocabulary of 10000 terms, skewed towards the first terms.
+ * The scan grows with the number of documents for every query, while the postings walk grows with
+ * the length of the postings, so it stays fast for a rare term however large the corpus is. For broad
+ * queries, only the best results are kept, and most documents are skipped without being scored.
+ *
+ * <p>Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class SearchEngineBenchmark {
+    private static final int VOCABULARY = 10_000;
+    private static final int TERMS_PER_DOC = 50;
+    private static final int ITERATIONS = 200;
+
+    @Test
+    void search() throws MalformedURLException {
+        for (int count : new int[]{1_000, 10_000, 100_000}) {
+            SearchEngine engine = new SearchEngine(null,
+                    SearchEngineTest.randomDocuments(count, VOCABULARY, TERMS_PER_DOC, 4321));
+            compare(engine, count, "rare term", SearchEngineTest.query(VOCABULARY - 1));
+            compare(engine, count, "common term", SearchEngineTest.query(0));
+            compare(engine, count, "mixed terms", SearchEngineTest.query(0, 100, VOCABULARY / 2));
+            compare(engine, count, "broad terms", SearchEngineTest.query(0, 1, 2, 3, 4, 5, 6, 7));
+        }
+    }
+
+    private static void compare(SearchEngine engine, int count, String name, SearchVector query) {
+        // Also warms up both paths
+        assertEquals(engine.scan(query), engine.search(query)); // both paths return the same results
+        double scanMicros = time(engine::scan, query);
+        double searchMicros = time(engine::search, query);
+        System.out.printf("%d documents, %s: %.2f us/op (scan) -> %.2f us/op (postings), %.1fx%n",
+                count, name, scanMicros, searchMicros, scanMicros / searchMicros);
+    }
+
+    private static double time(Function<SearchVector, List<Tuple<Document, Double>>> search, SearchVector query) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            search.apply(query);
+        }
+        return (System.nanoTime() - start) / 1000.0 / ITERATIONS;
+    }
+}
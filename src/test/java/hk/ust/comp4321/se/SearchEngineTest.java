@@ -0,0 +1,75 @@
+package hk.ust.comp4321.se;
+
+import hk.ust.comp4321.api.Document;
+import hk.ust.comp4321.nlp.Vocabulary;
+import hk.ust.comp4321.util.Tuple;
+import org.junit.jupiter.api.Test;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchEngineTest {
+    /**
+     * Creates documents with random title and body vectors over a small vocabulary,
+     * so that many documents share terms and many scores tie.
+     */
+    static List<Document> randomDocuments(int count, int vocabulary, int termsPerDoc, long seed) throws MalformedURLException {
+        Random random = new Random(seed);
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Document doc = new Document(URI.create("https://example.com/" + i).toURL(), i, Instant.EPOCH, 0);
+            doc.setVectors(randomVector(random, vocabulary, termsPerDoc / 5), randomVector(random, vocabulary, termsPerDoc));
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    private static SearchVector randomVector(Random random, int vocabulary, int terms) {
+        int[] termIds = new int[terms];
+        double[] weights = new double[terms];
+        for (int i = 0; i < terms; i++) {
+            // Skewed towards the first terms, as in text
+            termIds[i] = term((int) (vocabulary * Math.pow(random.nextDouble(), 3)));
+            weights[i] = random.nextInt(4) / 2.0;
+        }
+        return new SearchVector(termIds, weights);
+    }
+
+    static int term(int i) {
+        return Vocabulary.id("searchenginetest" + i);
+    }
+
+    static SearchVector query(int... terms) {
+        double[] weights = new double[terms.length];
+        Arrays.fill(weights, 1);
+        return new SearchVector(Arrays.stream(terms).map(SearchEngineTest::term).toArray(), weights);
+    }
+
+    @Test
+    void sameAsScan() throws MalformedURLException {
+        SearchEngine engine = new SearchEngine(null, randomDocuments(500, 100, 20, 4321));
+        for (int[] terms : new int[][]{{0}, {1, 2}, {50, 0, 99}, {7, 8, 9, 10, 11}, {98}, {0, 1, 2, 3, 4, 5, 6, 7, 8, 9}}) {
+            SearchVector query = query(terms);
+            List<Tuple<Document, Double>> expected = engine.scan(query);
+            List<Tuple<Document, Double>> actual = engine.search(query);
+            assertFalse(expected.isEmpty());
+            assertEquals(expected.stream().map(t -> t.left().id()).toList(),
+                    actual.stream().map(t -> t.left().id()).toList()); // same ranking, ties included
+            assertEquals(expected.stream().map(Tuple::right).toList(), actual.stream().map(Tuple::right).toList()); // same scores
+        }
+    }
+
+    @Test
+    void noMatch() throws MalformedURLException {
+        SearchEngine engine = new SearchEngine(null, randomDocuments(50, 10, 10, 4321));
+        assertTrue(engine.search(query(1000)).isEmpty());
+        assertTrue(engine.search(new SearchVector(new int[0], new double[0])).isEmpty());
+    }
+}
@@ -1,8 +1,10 @@
 package hk.ust.comp4321.se;
 
+import hk.ust.comp4321.nlp.Vocabulary;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -22,6 +24,14 @@ class SearchVectorTest {
                 doc.cosineSim(new SearchVector("dying")));
     }
 
+    @Test
+    void norm() {
+        assertEquals(0.5, new SearchVector(List.of("rage", "light"), List.of(0.3, 0.4)).norm(), 1e-9);
+        assertEquals(Math.sqrt(2), new SearchVector("dying light").norm(), 1e-9); // query terms have a weight of 1
+        SearchVector stored = new SearchVector(Map.of("rage", 0.3, "light", 0.4), 0.5);
+        assertEquals(1, stored.cosineSim(new SearchVector(List.of("rage", "light"), List.of(0.3, 0.4))), 1e-9);
+    }
+
     @Test
     void getRequiredTerms() {
         assertEquals(List.of(), new SearchVector("alpha-beta pruning").getRequiredTerms());
@@ -31,4 +41,33 @@ class SearchVectorTest {
         assertEquals(List.of(List.of("pleasur", "form"), List.of("discours")),
                 new SearchVector("induces \"pleasure forms\" knowledge produces \"discourse\"").getRequiredTerms());
     }
-}
\ No newline at end of file
+
+    @Test
+    void termIds() {
+        int rage = Vocabulary.id("rage");
+        int light = Vocabulary.id("light");
+        SearchVector byId = new SearchVector(new int[]{light, rage}, new double[]{0.4, 0.3});
+        assertEquals(Map.of("rage", 0.3, "light", 0.4), byId.getWeights()); // same vector as by stem
+        assertEquals(1, byId.cosineSim(new SearchVector(List.of("rage", "light"), List.of(0.3, 0.4))), 1e-9);
+        assertArrayEquals(new int[]{Math.min(rage, light), Math.max(rage, light)}, byId.getTermIds()); // sorted by term ID
+        assertArrayEquals(new int[]{Vocabulary.id("discours")},
+                new SearchVector("induces \"discourse\"").getRequiredTermIds().get(0));
+    }
+
+    @Test
+    void unknownTerms() {
+        int light = Vocabulary.id("light");
+        SearchVector query = new SearchVector("zyxwq light");
+        assertEquals(-1, Vocabulary.find("zyxwq")); // queries do not add to the vocabulary
+        assertArrayEquals(new int[]{light}, query.getTermIds());
+        assertEquals(Math.sqrt(2), query.norm(), 1e-9); // the unknown term still counts towards the norm
+        assertEquals(Map.of("zyxwq", 1.0, "light", 1.0), query.getWeights());
+        assertFalse(query.hasUnknownPhrase());
+        SearchVector phrase = new SearchVector("\"zyxwq light\"");
+        assertArrayEquals(new int[]{-1, light}, phrase.getRequiredTermIds().get(0));
+        assertTrue(phrase.hasUnknownPhrase()); // cannot match any document
+        assertSame(phrase, phrase.resolve());
+        Vocabulary.id("zyxwq");
+        assertFalse(phrase.resolve().hasUnknownPhrase()); // looked up again once a document has it
+    }
+}